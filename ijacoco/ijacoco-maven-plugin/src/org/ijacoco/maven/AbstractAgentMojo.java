@@ -159,6 +159,28 @@ public abstract class AbstractAgentMojo extends AbstractJacocoMojo {
 	 */
 	@Parameter(property = "ijacoco.jmx")
 	Boolean jmx;
+	/**
+	 * If set to true the agent writes the execution data of each test class to
+	 * a separate exec file in the RTS directory, so that coverage of test
+	 * classes that run again can be replaced.
+	 */
+	@Parameter(property = "ijacoco.perTest")
+	Boolean perTest;
+	/**
+	 * If set to true dumps only contain classes whose execution data changed
+	 * since the previous dump, so dumps have to be appended to the same file.
+	 * With the file output method, dumps are written in the background.
+	 */
+	@Parameter(property = "ijacoco.incremental")
+	Boolean incremental;
+	/**
+	 * If set to true the agent also inserts invocations of the monitors of the
+	 * RTS agent, so that each class is instrumented once for both coverage and
+	 * dependencies. Uses the same property as the select goal, which starts the
+	 * RTS agent accordingly.
+	 */
+	@Parameter(property = "rts.fused")
+	Boolean fused;
 
 	@Override
 	public void executeMojo() {
@@ -237,6 +259,15 @@ public abstract class AbstractAgentMojo extends AbstractJacocoMojo {
 		if (jmx != null) {
 			agentOptions.setJmx(jmx.booleanValue());
 		}
+		if (perTest != null) {
+			agentOptions.setPerTest(perTest.booleanValue());
+		}
+		if (incremental != null) {
+			agentOptions.setIncremental(incremental.booleanValue());
+		}
+		if (fused != null) {
+			agentOptions.setFused(fused.booleanValue());
+		}
 		return agentOptions;
 	}
 
@@ -81,6 +81,24 @@ public abstract class AbstractReportMojo extends AbstractMavenReport {
 	@Parameter(property = "ijacoco.skip", defaultValue = "false")
 	boolean skip;
 
+	/**
+	 * Number of threads that analyze class files. Classes are reported in the
+	 * same order with any number of threads.
+	 */
+	@Parameter(property = "ijacoco.reportThreads", defaultValue = "1")
+	int reportThreads;
+
+	/**
+	 * Flag used to write the report package by package: the classes of each
+	 * output directory are analyzed and written before the next directory is
+	 * analyzed, so only counters of written packages are kept in memory. XML
+	 * and CSV reports are written as packages are analyzed; the HTML report
+	 * (which needs all packages for its index pages) is still written at the
+	 * end of each bundle.
+	 */
+	@Parameter(property = "ijacoco.streamReport", defaultValue = "false")
+	boolean streamReport;
+
 	/**
 	 * Maven project.
 	 */
@@ -177,7 +195,8 @@ public abstract class AbstractReportMojo extends AbstractMavenReport {
 	protected void executeReport(final Locale locale)
 			throws MavenReportException {
 		try {
-			final ReportSupport support = new ReportSupport(getLog());
+			final ReportSupport support = new ReportSupport(getLog(),
+					reportThreads, streamReport);
 			loadExecutionData(support);
 			addFormatters(support, locale);
 			final IReportVisitor visitor = support.initRootVisitor();
@@ -103,7 +103,7 @@ public class DynamicSelectRTSMojo extends StaticSelectRTSMojo {
 	 */
 	private String prepareRTSOptions() {
 		return "force.all=" + getForceall() + ",force.failing="
-				+ getForcefailing() + "," + getRootDirOption()
+				+ getForcefailing() + "," + getSelectOptions()
 				+ (getXargs() == null || getXargs().equals("") ? ""
 						: "," + getXargs());
 	}
@@ -48,7 +48,7 @@ public class PredictRTSMojo extends StaticSelectRTSMojo {
 	 * Prepares option for RTS.
 	 */
 	private String prepareRTSOptions() {
-		return getRootDirOption()
+		return getSelectOptions()
 				+ (getXargs() == null || getXargs().equals("") ? ""
 						: "," + getXargs());
 	}
@@ -23,17 +23,31 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
+import org.ijacoco.core.coverage.analysis.AnalysisCache;
 import org.ijacoco.core.coverage.analysis.Analyzer;
 import org.ijacoco.core.coverage.analysis.CoverageBuilder;
+import org.ijacoco.core.coverage.analysis.CoverageNodeImpl;
 import org.ijacoco.core.coverage.analysis.IBundleCoverage;
 import org.ijacoco.core.coverage.analysis.IClassCoverage;
+import org.ijacoco.core.coverage.analysis.ICoverageNode;
+import org.ijacoco.core.coverage.analysis.ICoverageNode.ElementType;
+import org.ijacoco.core.coverage.analysis.IPackageCoverage;
+import org.ijacoco.core.coverage.data.ClassIdCache;
 import org.ijacoco.core.coverage.tools.ExecFileLoader;
+import org.ijacoco.core.rts.Config;
+import org.ijacoco.core.rts.Names;
 import org.ijacoco.report.FileMultiReportOutput;
+import org.ijacoco.report.IReportBundleVisitor;
 import org.ijacoco.report.IReportGroupVisitor;
 import org.ijacoco.report.IReportVisitor;
 import org.ijacoco.report.ISourceFileLocator;
@@ -63,6 +77,8 @@ final class ReportSupport {
 	private final Log log;
 	private final ExecFileLoader loader;
 	private final List<IReportVisitor> formatters;
+	private final int threads;
+	private final boolean streaming;
 
 	/**
 	 * Construct a new instance with the given log output.
@@ -71,9 +87,29 @@ final class ReportSupport {
 	 *            for log output
 	 */
 	public ReportSupport(final Log log) {
+		this(log, 1, false);
+	}
+
+	/**
+	 * Construct a new instance with the given log output, which analyzes the
+	 * classes of each project with the given number of threads.
+	 *
+	 * @param log
+	 *            for log output
+	 * @param threads
+	 *            number of threads to analyze classes with
+	 * @param streaming
+	 *            whether to submit the classes of each project to the report
+	 *            package by package (see
+	 *            {@link IReportGroupVisitor#visitBundle(String, ISourceFileLocator)})
+	 */
+	public ReportSupport(final Log log, final int threads,
+			final boolean streaming) {
 		this.log = log;
 		this.loader = new ExecFileLoader();
 		this.formatters = new ArrayList<IReportVisitor>();
+		this.threads = threads;
+		this.streaming = streaming;
 	}
 
 	/**
@@ -190,27 +226,126 @@ final class ReportSupport {
 			final String bundleName, final MavenProject project,
 			final List<String> includes, final List<String> excludes,
 			final ISourceFileLocator locator) throws IOException {
-		final CoverageBuilder builder = new CoverageBuilder();
 		final File classesDir = new File(
 				project.getBuild().getOutputDirectory());
-
+		final List<File> files = classesDir.isDirectory()
+				? new FileFilter(includes, excludes).getFiles(classesDir)
+				: Collections.<File> emptyList();
+		final ExecutorService executor = threads > 1 && !files.isEmpty()
+				? Executors.newFixedThreadPool(threads)
+				: null;
+		final File rootDir = Config.createRootDir(project.getBasedir());
+		final ClassIdCache classIds = new ClassIdCache(
+				new File(rootDir, Names.CLASS_IDS_FILE_NAME));
+		final AnalysisCache analysisCache = new AnalysisCache(
+				new File(rootDir, Names.ANALYSIS_CACHE_FILE_NAME));
+		try {
+			if (streaming) {
+				streamProject(visitor, bundleName, locator, files, executor,
+						classIds, analysisCache);
+			} else {
+				final CoverageBuilder builder = new CoverageBuilder();
+				createAnalyzer(builder, executor, classIds, analysisCache)
+						.analyzeAll(files);
+				final IBundleCoverage bundle = builder.getBundle(bundleName);
+				logBundleInfo(bundle, getNames(builder.getNoMatchClasses()));
+				visitor.visitBundle(bundle, locator);
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
 		if (classesDir.isDirectory()) {
-			final Analyzer analyzer = new Analyzer(
-					loader.getExecutionDataStore(), builder);
-			final FileFilter filter = new FileFilter(includes, excludes);
-			for (final File file : filter.getFiles(classesDir)) {
-				analyzer.analyzeAll(file);
+			saveClassIds(classIds);
+			saveAnalysisCache(analysisCache);
+		}
+	}
+
+	/**
+	 * Analyzes the given class files directory by directory (i.e., package by
+	 * package) and submits each package to the report as soon as it is
+	 * analyzed, so only counters of previous packages are kept.
+	 */
+	private void streamProject(final IReportGroupVisitor visitor,
+			final String bundleName, final ISourceFileLocator locator,
+			final List<File> files, final ExecutorService executor,
+			final ClassIdCache classIds, final AnalysisCache analysisCache)
+			throws IOException {
+		final IReportBundleVisitor bundleVisitor = visitor
+				.visitBundle(bundleName, locator);
+		final CoverageNodeImpl total = new CoverageNodeImpl(ElementType.BUNDLE,
+				bundleName);
+		final Collection<String> nomatch = new ArrayList<String>();
+		for (final List<File> directory : groupByDirectory(files)) {
+			final CoverageBuilder builder = new CoverageBuilder();
+			createAnalyzer(builder, executor, classIds, analysisCache)
+					.analyzeAll(directory);
+			nomatch.addAll(getNames(builder.getNoMatchClasses()));
+			for (final IPackageCoverage p : builder.getBundle(bundleName)
+					.getPackages()) {
+				total.increment(p);
+				bundleVisitor.visitPackage(p);
 			}
 		}
+		bundleVisitor.visitEnd();
+		logBundleInfo(total, nomatch);
+	}
+
+	private Analyzer createAnalyzer(final CoverageBuilder builder,
+			final ExecutorService executor, final ClassIdCache classIds,
+			final AnalysisCache analysisCache) {
+		final Analyzer analyzer = new Analyzer(loader.getExecutionDataStore(),
+				builder, executor);
+		analyzer.setClassIdCache(classIds);
+		analyzer.setAnalysisCache(analysisCache);
+		return analyzer;
+	}
 
-		final IBundleCoverage bundle = builder.getBundle(bundleName);
-		logBundleInfo(bundle, builder.getNoMatchClasses());
+	private static Collection<List<File>> groupByDirectory(
+			final List<File> files) {
+		final Map<File, List<File>> directories = new LinkedHashMap<File, List<File>>();
+		for (final File file : files) {
+			List<File> directory = directories.get(file.getParentFile());
+			if (directory == null) {
+				directory = new ArrayList<File>();
+				directories.put(file.getParentFile(), directory);
+			}
+			directory.add(file);
+		}
+		return directories.values();
+	}
 
-		visitor.visitBundle(bundle, locator);
+	private static Collection<String> getNames(
+			final Collection<IClassCoverage> classes) {
+		final Collection<String> names = new ArrayList<String>();
+		for (final IClassCoverage c : classes) {
+			names.add(c.getName());
+		}
+		return names;
+	}
+
+	private void saveClassIds(final ClassIdCache classIds) {
+		try {
+			classIds.save();
+		} catch (final IOException e) {
+			log.warn("Unable to save class ids: " + e.getMessage());
+		}
+	}
+
+	private void saveAnalysisCache(final AnalysisCache analysisCache) {
+		log.debug(format("Reused analysis of %s classes, analyzed %s classes",
+				Integer.valueOf(analysisCache.getHits()),
+				Integer.valueOf(analysisCache.getMisses())));
+		try {
+			analysisCache.save();
+		} catch (final IOException e) {
+			log.warn("Unable to save analysis cache: " + e.getMessage());
+		}
 	}
 
-	private void logBundleInfo(final IBundleCoverage bundle,
-			final Collection<IClassCoverage> nomatch) {
+	private void logBundleInfo(final ICoverageNode bundle,
+			final Collection<String> nomatch) {
 		log.info(format("Analyzed bundle '%s' with %s classes",
 				bundle.getName(),
 				Integer.valueOf(bundle.getClassCounter().getTotalCount())));
@@ -219,9 +354,9 @@ final class ReportSupport {
 					"Classes in bundle '%s' do not match with execution data. "
 							+ "For report generation the same class files must be used as at runtime.",
 					bundle.getName()));
-			for (final IClassCoverage c : nomatch) {
+			for (final String name : nomatch) {
 				log.warn(format("Execution data for class %s does not match.",
-						c.getName()));
+						name));
 			}
 		}
 		if (bundle.containsCode()
@@ -74,6 +74,26 @@ public class StaticSelectRTSMojo extends AbstractRTSMojo {
 	@Parameter(property = "rts.xargs", defaultValue = "")
 	protected String xargs;
 
+	/**
+	 * Enable/disable sharing hashes among this process and all forked VMs; each
+	 * class file is then hashed once per build (unless it changes).
+	 *
+	 * @since 1.0.0
+	 */
+	@Parameter(property = "rts.sharedhashes", defaultValue = "false")
+	private boolean sharedhashes;
+
+	/**
+	 * Enable/disable collecting dependencies through the instrumentation of the
+	 * coverage agent (prepare-agent goal), so that each class is instrumented
+	 * once for both coverage and dependencies. The coverage agent reads the
+	 * same property.
+	 *
+	 * @since 1.0.0
+	 */
+	@Parameter(property = "rts.fused", defaultValue = "false")
+	private boolean fused;
+
 	public boolean getForcefailing() {
 		return forcefailing;
 	}
@@ -86,6 +106,14 @@ public class StaticSelectRTSMojo extends AbstractRTSMojo {
 		return xargs;
 	}
 
+	public boolean getSharedhashes() {
+		return sharedhashes;
+	}
+
+	public boolean getFused() {
+		return fused;
+	}
+
 	public void execute() throws MojoExecutionException {
 		// Check if user explicitly requested to not use RTS in
 		// this run.
@@ -111,9 +139,10 @@ public class StaticSelectRTSMojo extends AbstractRTSMojo {
 		// instrument Surefire.
 
 		boolean isForkMode = isForkMode(surefirePlugin);
-		// Include agent to be used during test run.
+		// Include agent to be used during test run; if tests run in
+		// parallel, dependencies are collected per thread.
 		addJavaAgent(isForkMode ? Config.AgentMode.JUNITFORK
-				: Config.AgentMode.JUNIT);
+				: Config.AgentMode.JUNIT, isParallelOn(surefirePlugin));
 
 		List<String> nonAffectedClasses = computeNonAffectedClasses();
 		// Append excludes list to "excludesFile".
@@ -129,7 +158,7 @@ public class StaticSelectRTSMojo extends AbstractRTSMojo {
 			// Create excludes list; we assume that all files are in
 			// the parentdir.
 			nonAffectedClasses = AffectedChecker
-					.findNonAffectedClasses(parentdir, getRootDirOption());
+					.findNonAffectedClasses(parentdir, getSelectOptions());
 
 			// Do not exclude recently failing tests if appropriate
 			// argument is provided.
@@ -146,7 +175,7 @@ public class StaticSelectRTSMojo extends AbstractRTSMojo {
 	/**
 	 * Sets property to pass RTS agent to surefire plugin.
 	 */
-	private void addJavaAgent(Config.AgentMode junitMode)
+	private void addJavaAgent(Config.AgentMode junitMode, boolean isPerThread)
 			throws MojoExecutionException {
 		try {
 			URL agentJarURL = Types.extractJarURL(RTSAgent.class);
@@ -155,9 +184,14 @@ public class StaticSelectRTSMojo extends AbstractRTSMojo {
 			}
 			Properties properties = project.getProperties();
 			String oldValue = properties.getProperty(ARG_LINE_PARAM_NAME);
-			properties.setProperty(ARG_LINE_PARAM_NAME,
-					prepareRTSOptions(agentJarURL, junitMode) + " "
-							+ (oldValue == null ? "" : oldValue));
+			String rtsOptions = prepareRTSOptions(agentJarURL, junitMode,
+					isPerThread);
+			// If fused, the coverage agent (prepare-agent goal) goes first,
+			// so that classes are instrumented in one pass.
+			String newValue = getFused()
+					? (oldValue == null ? "" : oldValue) + " " + rtsOptions
+					: rtsOptions + " " + (oldValue == null ? "" : oldValue);
+			properties.setProperty(ARG_LINE_PARAM_NAME, newValue);
 		} catch (IOException ex) {
 			throw new MojoExecutionException("Unable to set path to agent", ex);
 		} catch (URISyntaxException ex) {
@@ -166,12 +200,15 @@ public class StaticSelectRTSMojo extends AbstractRTSMojo {
 	}
 
 	private String prepareRTSOptions(URL agentJarURL,
-			Config.AgentMode junitMode) throws URISyntaxException {
+			Config.AgentMode junitMode, boolean isPerThread)
+			throws URISyntaxException {
 		String agentAbsolutePath = new File(
 				agentJarURL.toURI().getSchemeSpecificPart()).getAbsolutePath();
 		return "-javaagent:" + agentAbsolutePath + "=mode=" + junitMode
-				+ ",force.all=" + getForceall() + ",force.failing="
-				+ getForcefailing() + "," + getRootDirOption()
+				+ (isPerThread ? ",dependencies.per.thread=true" : "")
+				+ (getFused() ? ",instrument.fused=true" : "") + ",force.all="
+				+ getForceall() + ",force.failing=" + getForcefailing() + ","
+				+ getSelectOptions()
 				+ (getXargs() == null || getXargs().equals("") ? ""
 						: "," + getXargs());
 	}
@@ -180,6 +217,14 @@ public class StaticSelectRTSMojo extends AbstractRTSMojo {
 		return "root.dir=" + Config.getRootDirURI(parentdir);
 	}
 
+	/**
+	 * Returns options used both to find affected tests and by the agent.
+	 */
+	protected String getSelectOptions() {
+		return getRootDirOption()
+				+ (getSharedhashes() ? ",hash.shared=true" : "");
+	}
+
 	/**
 	 * Appends list of classes that should be excluded to the given file.
 	 */
@@ -299,11 +344,6 @@ public class StaticSelectRTSMojo extends AbstractRTSMojo {
 	 * Checks that all parameters are set as expected.
 	 */
 	private void checkParameters(Plugin plugin) throws MojoExecutionException {
-		// Fail if 'parallel' parameter is used.
-		if (isParallelOn(plugin)) {
-			throw new MojoExecutionException(
-					"RTS currently does not support parallel parameter");
-		}
 		// Fail if fork is disabled.
 		if (isForkDisabled(plugin)) {
 			throw new MojoExecutionException("forkCount has to be at least 1");
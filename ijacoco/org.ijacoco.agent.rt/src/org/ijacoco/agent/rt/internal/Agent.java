@@ -24,13 +24,15 @@ import org.ijacoco.agent.rt.internal.output.NoneOutput;
 import org.ijacoco.agent.rt.internal.output.TcpClientOutput;
 import org.ijacoco.agent.rt.internal.output.TcpServerOutput;
 import org.ijacoco.core.coverage.IJaCoCo;
+import org.ijacoco.core.coverage.data.ClassIdCache;
+import org.ijacoco.core.coverage.data.CoverageBaseline;
 import org.ijacoco.core.coverage.data.ExecutionDataStore;
 import org.ijacoco.core.coverage.data.ExecutionDataWriter;
 import org.ijacoco.core.coverage.runtime.AbstractRuntime;
 import org.ijacoco.core.coverage.runtime.AgentOptions;
 import org.ijacoco.core.coverage.runtime.AgentOptions.OutputMode;
 import org.ijacoco.core.coverage.runtime.RuntimeData;
-import org.ijacoco.core.coverage.tools.ExecFileLoader;
+import org.ijacoco.core.rts.monitor.TestMonitor;
 
 /**
  * The agent manages the life cycle of iJaCoCo runtime.
@@ -87,6 +89,9 @@ public class Agent implements IAgent {
 
 	private final RuntimeData data;
 
+	/** Ids of instrumented classes, kept for the next runs */
+	private final ClassIdCache classIds;
+
 	private IAgentOutput output;
 
 	private Callable<Void> jmxRegistration;
@@ -103,6 +108,7 @@ public class Agent implements IAgent {
 		this.options = options;
 		this.logger = logger;
 		this.data = new RuntimeData();
+		this.classIds = ClassIdCache.inRTSDir();
 	}
 
 	/**
@@ -114,6 +120,15 @@ public class Agent implements IAgent {
 		return data;
 	}
 
+	/**
+	 * Returns the cache of class ids used by this agent
+	 *
+	 * @return cache of class ids for this agent instance
+	 */
+	public ClassIdCache getClassIdCache() {
+		return classIds;
+	}
+
 	/**
 	 * Initializes this agent.
 	 *
@@ -132,6 +147,9 @@ public class Agent implements IAgent {
 			if (options.getJmx()) {
 				jmxRegistration = new JmxRegistration(this);
 			}
+			if (options.getPerTest()) {
+				TestMonitor.setListener(new TestCoverageWriter(data, logger));
+			}
 		} catch (final Exception e) {
 			logger.logExeption(e);
 			throw e;
@@ -143,34 +161,54 @@ public class Agent implements IAgent {
 	 */
 	public void shutdown() {
 		try {
+			if (options.getPerTest()) {
+				TestMonitor.setListener(null);
+			}
 			// Used to merge the old data with the new data which is collected
 			// after RTS.
-			if (options.getMergeOnExit()) {
-				ExecFileLoader loader = new ExecFileLoader();
-				// TODO: currently we're loading the last version's exec file
-				// from the output directory (/target/...), would it be better
-				// to save it together with the RTS's cache (/.ekstazi/)?
-				File execFile = new File(options.getDestfile())
-						.getAbsoluteFile();
-				loader.load(execFile);
-				ExecutionDataStore lastExecutionStore = loader
-						.getExecutionDataStore();
-				ExecutionDataStore currentExecutionStore = data
-						.getExecutionDataStore();
-				currentExecutionStore.merge(lastExecutionStore);
-			}
-			if (options.getDumpOnExit()) {
-				output.writeExecutionData(false);
+			if (options.getMergeOnExit() && options.getDumpOnExit()
+					&& output instanceof FileOutput) {
+				// Merges previous data while writing the new file.
+				((FileOutput) output).writeMergedExecutionData();
+			} else {
+				if (options.getMergeOnExit()) {
+					mergeLastExecutionData();
+				}
+				if (options.getDumpOnExit()) {
+					output.writeExecutionData(false);
+				}
 			}
 			output.shutdown();
 			if (jmxRegistration != null) {
 				jmxRegistration.call();
 			}
+			classIds.save();
 		} catch (final Exception e) {
 			logger.logExeption(e);
 		}
 	}
 
+	/**
+	 * Merges the coverage baseline (or, if there is none, the last exec file)
+	 * into the runtime data.
+	 */
+	private void mergeLastExecutionData() throws IOException {
+		final CoverageBaseline baseline = CoverageBaseline.inRTSDir();
+		final File execFile = new File(options.getDestfile()).getAbsoluteFile();
+		final ExecutionDataStore store = data.lockExecutionDataStore();
+		try {
+			if (!baseline.exists() && execFile.isFile()) {
+				FileOutput.readExecutionData(execFile, store.newMergeVisitor(),
+						null);
+			}
+			if (baseline.isWritable()) {
+				baseline.update(store, store);
+			}
+		} finally {
+			data.unlockExecutionDataStore();
+		}
+	}
+
 	/**
 	 * Create output implementation as given by the agent options.
 	 *
@@ -17,8 +17,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import org.ijacoco.core.coverage.internal.data.CRC64;
-import org.ijacoco.core.rts.hash.BytecodeCleaner;
+import org.ijacoco.core.coverage.data.ClassIdCache;
 
 /**
  * Internal dumper for class files.
@@ -27,14 +26,20 @@ class ClassFileDumper {
 
 	private final File location;
 
+	private final ClassIdCache classIds;
+
 	/**
-	 * Create a new dumper for the given location.
+	 * Create a new dumper for the given location, which looks up ids of dumped
+	 * classes in the given cache.
 	 *
 	 * @param location
 	 *            relative path to dump directory. <code>null</code> if no dumps
 	 *            should be written
+	 * @param classIds
+	 *            cache of class ids, or <code>null</code>
 	 */
-	ClassFileDumper(final String location) {
+	ClassFileDumper(final String location, final ClassIdCache classIds) {
+		this.classIds = classIds;
 		if (location == null) {
 			this.location = null;
 		} else {
@@ -66,10 +71,9 @@ class ClassFileDumper {
 				localname = name;
 			}
 			outputdir.mkdirs();
-			byte[] contentWithoutDebugInfo = BytecodeCleaner
-					.removeDebugInfo(contents);
-			final Long id = Long
-					.valueOf(CRC64.classId(contentWithoutDebugInfo));
+			final Long id = Long.valueOf(
+					classIds == null ? ClassIdCache.computeClassId(contents)
+							: classIds.classId(contents));
 			final File file = new File(outputdir,
 					String.format("%s.%016x.class", localname, id));
 			final OutputStream out = new FileOutputStream(file);
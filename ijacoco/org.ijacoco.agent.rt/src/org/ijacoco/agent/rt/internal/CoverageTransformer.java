@@ -17,6 +17,7 @@ import java.lang.instrument.IllegalClassFormatException;
 import java.security.CodeSource;
 import java.security.ProtectionDomain;
 
+import org.ijacoco.core.coverage.data.ClassIdCache;
 import org.ijacoco.core.coverage.instr.Instrumenter;
 import org.ijacoco.core.coverage.runtime.AgentOptions;
 import org.ijacoco.core.coverage.runtime.IRuntime;
@@ -50,6 +51,13 @@ public class CoverageTransformer implements ClassFileTransformer {
 
 	private final boolean inclNoLocationClasses;
 
+	private volatile boolean fused;
+
+	private volatile DependencyMonitors monitors;
+
+	/** Whether the monitors are being looked up (guarded by this) */
+	private boolean lookingUp;
+
 	/**
 	 * New transformer with the given delegates.
 	 *
@@ -62,15 +70,37 @@ public class CoverageTransformer implements ClassFileTransformer {
 	 */
 	public CoverageTransformer(final IRuntime runtime,
 			final AgentOptions options, final IExceptionLogger logger) {
+		this(runtime, options, logger, null);
+	}
+
+	/**
+	 * New transformer with the given delegates, which looks up ids of classes
+	 * in the given cache.
+	 *
+	 * @param runtime
+	 *            coverage runtime
+	 * @param options
+	 *            configuration options for the generator
+	 * @param logger
+	 *            logger for exceptions during instrumentation
+	 * @param classIds
+	 *            cache of class ids, or <code>null</code>
+	 */
+	public CoverageTransformer(final IRuntime runtime,
+			final AgentOptions options, final IExceptionLogger logger,
+			final ClassIdCache classIds) {
 		this.instrumenter = new Instrumenter(runtime);
+		this.instrumenter.setClassIdCache(classIds);
 		this.logger = logger;
 		// Class names will be reported in VM notation:
 		includes = new WildcardMatcher(toVMName(options.getIncludes()));
 		excludes = new WildcardMatcher(toVMName(options.getExcludes()));
 		exclClassloader = new WildcardMatcher(options.getExclClassloader());
-		classFileDumper = new ClassFileDumper(options.getClassDumpDir());
+		classFileDumper = new ClassFileDumper(options.getClassDumpDir(),
+				classIds);
 		inclBootstrapClasses = options.getInclBootstrapClasses();
 		inclNoLocationClasses = options.getInclNoLocationClasses();
+		fused = options.getFused();
 	}
 
 	public byte[] transform(final ClassLoader loader, final String classname,
@@ -89,7 +119,13 @@ public class CoverageTransformer implements ClassFileTransformer {
 
 		try {
 			classFileDumper.dump(classname, classfileBuffer);
-			return instrumenter.instrument(classfileBuffer, classname);
+			// Dependencies are collected in the same pass if RTS agent is
+			// configured so (see FusedInstrumentation).
+			final DependencyMonitors m = getMonitors();
+			return instrumenter.instrument(classfileBuffer, classname, m != null
+					&& m.isInstrumentable(loader, classname, classfileBuffer)
+							? m
+							: null);
 		} catch (final Exception ex) {
 			final IllegalClassFormatException wrapper = new IllegalClassFormatException(
 					ex.getMessage());
@@ -100,6 +136,28 @@ public class CoverageTransformer implements ClassFileTransformer {
 		}
 	}
 
+	private DependencyMonitors getMonitors() {
+		final DependencyMonitors m = monitors;
+		return m != null || !fused ? m : lookupMonitors();
+	}
+
+	private synchronized DependencyMonitors lookupMonitors() {
+		// Classes loaded during the lookup are transformed as well.
+		if (monitors != null || !fused || lookingUp) {
+			return monitors;
+		}
+		lookingUp = true;
+		try {
+			monitors = DependencyMonitors.lookup();
+		} catch (final Exception ex) {
+			fused = false;
+			logger.logExeption(ex);
+		} finally {
+			lookingUp = false;
+		}
+		return monitors;
+	}
+
 	/**
 	 * Checks whether this class should be instrumented.
 	 *
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.agent.rt.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.ijacoco.core.coverage.IJaCoCo;
+import org.ijacoco.core.coverage.instr.IDependencyMonitors;
+import org.ijacoco.core.rts.agent.FusedInstrumentation;
+
+/**
+ * Monitors of the RTS agent, which are looked up through
+ * {@link FusedInstrumentation} on the system class path. The copy of the RTS
+ * classes in this agent is relocated like the rest of the agent, so the entry
+ * point of the RTS agent is loaded by its original name and invoked
+ * reflectively.
+ */
+class DependencyMonitors implements IDependencyMonitors {
+
+	/** Package of this build before relocation (minus the core package) */
+	private static final String ORIGINAL_PACKAGE = "org.ijacoco";
+
+	private final Method isInstrumentable;
+
+	private final Method newProbeId;
+
+	private final String coverageMonitor;
+
+	private final String loaderMonitor;
+
+	private final String reflectionMonitor;
+
+	private final String systemMonitor;
+
+	private final String packageName;
+
+	private DependencyMonitors(final Class<?> entryPoint) throws Exception {
+		isInstrumentable = entryPoint.getMethod("isInstrumentable",
+				ClassLoader.class, String.class, byte[].class);
+		newProbeId = entryPoint.getMethod("newProbeId");
+		coverageMonitor = (String) invoke(entryPoint, "getCoverageMonitor");
+		loaderMonitor = (String) invoke(entryPoint, "getLoaderMonitor");
+		reflectionMonitor = (String) invoke(entryPoint, "getReflectionMonitor");
+		systemMonitor = (String) invoke(entryPoint, "getSystemMonitor");
+		packageName = (String) invoke(entryPoint, "getPackageName");
+	}
+
+	/**
+	 * Looks up the monitors of the RTS agent.
+	 *
+	 * @return monitors, or <code>null</code> if the RTS agent is not (yet) on
+	 *         the system class path
+	 * @throws Exception
+	 *             if the RTS agent is of another build or its entry point
+	 *             cannot be accessed
+	 */
+	static DependencyMonitors lookup() throws Exception {
+		final String name = getEntryPointName();
+		// Agents are added to the class path in the order they are given, so
+		// the RTS agent may not be there yet.
+		if (ClassLoader
+				.getSystemResource(name.replace('.', '/') + ".class") == null) {
+			return null;
+		}
+		final Class<?> entryPoint = Class.forName(name, true,
+				ClassLoader.getSystemClassLoader());
+		final String version = (String) invoke(entryPoint, "getVersion");
+		if (!IJaCoCo.VERSION.equals(version)) {
+			throw new IllegalStateException(String.format(
+					"RTS agent %s is not compatible with coverage agent %s, dependencies are left to the RTS agent.",
+					version, IJaCoCo.VERSION));
+		}
+		return new DependencyMonitors(entryPoint);
+	}
+
+	/**
+	 * Returns the original name of {@link FusedInstrumentation}. The name is
+	 * not given as a literal, as it would be relocated as well.
+	 */
+	static String getEntryPointName() {
+		final String name = FusedInstrumentation.class.getName();
+		if (!name.startsWith(IJaCoCo.RUNTIMEPACKAGE + ".")) {
+			return name;
+		}
+		return ORIGINAL_PACKAGE
+				+ name.substring(IJaCoCo.RUNTIMEPACKAGE.length());
+	}
+
+	/**
+	 * Checks if the given class should also be instrumented to collect
+	 * dependencies (see
+	 * {@link FusedInstrumentation#isInstrumentable(ClassLoader, String, byte[])}).
+	 *
+	 * @param loader
+	 *            loader of the class
+	 * @param className
+	 *            VM name of the class
+	 * @param classfileBuffer
+	 *            definition of the class
+	 * @return <code>true</code> if invocations of the monitors should be
+	 *         inserted
+	 */
+	boolean isInstrumentable(final ClassLoader loader, final String className,
+			final byte[] classfileBuffer) {
+		return ((Boolean) invoke(isInstrumentable, loader, className,
+				classfileBuffer)).booleanValue();
+	}
+
+	public int newProbeId() {
+		return ((Integer) invoke(newProbeId)).intValue();
+	}
+
+	public String getCoverageMonitor() {
+		return coverageMonitor;
+	}
+
+	public String getLoaderMonitor() {
+		return loaderMonitor;
+	}
+
+	public String getReflectionMonitor() {
+		return reflectionMonitor;
+	}
+
+	public String getSystemMonitor() {
+		return systemMonitor;
+	}
+
+	public String getPackageName() {
+		return packageName;
+	}
+
+	private static Object invoke(final Class<?> entryPoint, final String name)
+			throws Exception {
+		return entryPoint.getMethod(name).invoke(null);
+	}
+
+	private static Object invoke(final Method method, final Object... args) {
+		try {
+			return method.invoke(null, args);
+		} catch (final InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (final IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -57,8 +57,7 @@ public final class Offline {
 	 */
 	public static boolean[] getProbes(final long classid,
 			final String classname, final int probecount) {
-		return getRuntimeData()
-				.getExecutionData(Long.valueOf(classid), classname, probecount)
+		return getRuntimeData().getExecutionData(classid, classname, probecount)
 				.getProbes();
 	}
 
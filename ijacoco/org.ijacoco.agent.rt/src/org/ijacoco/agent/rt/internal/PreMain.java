@@ -52,7 +52,7 @@ public final class PreMain {
 		final IRuntime runtime = createRuntime(inst);
 		runtime.startup(agent.getData());
 		inst.addTransformer(new CoverageTransformer(runtime, agentOptions,
-				IExceptionLogger.SYSTEM_ERR));
+				IExceptionLogger.SYSTEM_ERR, agent.getClassIdCache()));
 	}
 
 	private static IRuntime createRuntime(final Instrumentation inst)
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.agent.rt.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.ijacoco.core.coverage.data.ExecutionDataWriter;
+import org.ijacoco.core.coverage.data.SessionInfo;
+import org.ijacoco.core.coverage.runtime.RuntimeData;
+import org.ijacoco.core.rts.Config;
+import org.ijacoco.core.rts.Names;
+import org.ijacoco.core.rts.monitor.TestMonitor;
+
+/**
+ * Writes the execution data of each test class into its own exec file in the
+ * RTS directory ({@link Names#TEST_COVERAGE_DIR_NAME}), named after the test
+ * class. The file has a single session whose id is the name of the test class;
+ * the file of a test class that runs again is replaced.
+ *
+ * Execution data of a test class is what the probe arrays collected since the
+ * test class started (see
+ * {@link RuntimeData#collectTestExecutionData(org.ijacoco.core.coverage.data.IExecutionDataVisitor)}),
+ * so classes executed before (e.g., by other test classes) are not included.
+ */
+class TestCoverageWriter implements TestMonitor.Listener {
+
+	private static final String EXEC_FILE_EXT = ".exec";
+
+	private final RuntimeData data;
+
+	private final IExceptionLogger logger;
+
+	private volatile long startTimeStamp;
+
+	/**
+	 * Creates a new writer for the given runtime data.
+	 *
+	 * @param data
+	 *            runtime data of the agent
+	 * @param logger
+	 *            logger for problems with the files
+	 */
+	TestCoverageWriter(final RuntimeData data, final IExceptionLogger logger) {
+		this.data = data;
+		this.logger = logger;
+	}
+
+	public void beginTest(final String className) {
+		// Execution data so far does not belong to this test.
+		data.collectTestExecutionData(null);
+		startTimeStamp = System.currentTimeMillis();
+	}
+
+	public void endTest(final String className) {
+		final File dir = new File(Config.RTS_DIR_V,
+				Names.TEST_COVERAGE_DIR_NAME);
+		try {
+			dir.mkdirs();
+			final OutputStream output = new BufferedOutputStream(
+					new FileOutputStream(
+							new File(dir, className + EXEC_FILE_EXT)));
+			try {
+				final ExecutionDataWriter writer = new ExecutionDataWriter(
+						output);
+				writer.visitSessionInfo(new SessionInfo(className,
+						startTimeStamp, System.currentTimeMillis()));
+				data.collectTestExecutionData(writer);
+			} finally {
+				output.close();
+			}
+		} catch (final IOException e) {
+			logger.logExeption(e);
+		}
+	}
+
+}
@@ -12,12 +12,31 @@
  *******************************************************************************/
 package org.ijacoco.agent.rt.internal.output;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.ijacoco.core.coverage.data.CoverageBaseline;
+import org.ijacoco.core.coverage.data.ExecutionData;
+import org.ijacoco.core.coverage.data.ExecutionDataReader;
+import org.ijacoco.core.coverage.data.ExecutionDataStore;
 import org.ijacoco.core.coverage.data.ExecutionDataWriter;
+import org.ijacoco.core.coverage.data.IExecutionDataVisitor;
+import org.ijacoco.core.coverage.data.ISessionInfoVisitor;
+import org.ijacoco.core.coverage.data.SessionInfoStore;
 import org.ijacoco.core.coverage.runtime.AgentOptions;
+import org.ijacoco.core.coverage.runtime.DumpBaseline;
 import org.ijacoco.core.coverage.runtime.RuntimeData;
 
 /**
@@ -26,21 +45,62 @@ import org.ijacoco.core.coverage.runtime.RuntimeData;
  * <ul>
  * <li>destfile</li>
  * <li>append</li>
+ * <li>incremental</li>
  * </ul>
+ *
+ * In incremental mode, a dump collects copies of the probes of classes that
+ * changed since the previous dump to the file (see
+ * {@link RuntimeData#collectChanges(DumpBaseline, IExecutionDataVisitor, ISessionInfoVisitor, boolean)})
+ * and a background thread appends them to the file, so the thread that dumps
+ * does not wait for the file. The next dump waits until the previous one was
+ * written (the snapshots are double buffered), and reports if writing it
+ * failed.
  */
 public class FileOutput implements IAgentOutput {
 
+	/** Extension of the file that is locked while merging */
+	private static final String LOCK_FILE_EXT = ".lck";
+
+	/** Extension of the file that is written while merging */
+	private static final String TMP_FILE_EXT = ".tmp";
+
+	/** Visitor that ignores execution data */
+	private static final IExecutionDataVisitor NO_EXECUTION_DATA = new IExecutionDataVisitor() {
+		public void visitClassExecution(final ExecutionData data) {
+		}
+	};
+
 	private RuntimeData data;
 
 	private File destFile;
 
 	private boolean append;
 
+	/** Writes incremental dumps, or null if dumps are not incremental */
+	private ExecutorService dumpWriter;
+
+	/** Dump that is being written by {@link #dumpWriter}, or null */
+	private Future<Void> pendingDump;
+
+	/** Probes as they were last dumped to the file (if incremental) */
+	private DumpBaseline baseline;
+
 	public final void startup(final AgentOptions options,
 			final RuntimeData data) throws IOException {
 		this.data = data;
 		this.destFile = new File(options.getDestfile()).getAbsoluteFile();
 		this.append = options.getAppend();
+		if (options.getIncremental()) {
+			baseline = new DumpBaseline();
+			dumpWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r);
+					thread.setName(FileOutput.class.getName());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
 		final File folder = destFile.getParentFile();
 		if (folder != null) {
 			folder.mkdirs();
@@ -49,7 +109,12 @@ public class FileOutput implements IAgentOutput {
 		openFile(true).close();
 	}
 
-	public void writeExecutionData(final boolean reset) throws IOException {
+	public synchronized void writeExecutionData(final boolean reset)
+			throws IOException {
+		if (dumpWriter != null) {
+			writeChangedExecutionData(reset);
+			return;
+		}
 		final OutputStream output = openFile(append);
 		try {
 			final ExecutionDataWriter writer = new ExecutionDataWriter(output);
@@ -59,8 +124,174 @@ public class FileOutput implements IAgentOutput {
 		}
 	}
 
-	public void shutdown() throws IOException {
-		// Nothing to do
+	/**
+	 * Writes the current execution data merged with the execution data of
+	 * previous runs. If the RTS directory exists, previous data is kept there
+	 * in a {@link CoverageBaseline}, which is updated and then written out (the
+	 * file is only read to start the baseline). Otherwise the file is streamed
+	 * record by record and merged (see
+	 * {@link ExecutionDataStore#newMergeVisitor(IExecutionDataVisitor)}). The
+	 * result is written into a temporary file next to the file, which then
+	 * replaces the file. A lock on a separate lock file is held the whole time,
+	 * so agents running in parallel merge one after another and each reads what
+	 * was written by the previous one.
+	 *
+	 * @throws IOException
+	 *             in case of problems with the file
+	 */
+	public synchronized void writeMergedExecutionData() throws IOException {
+		awaitPendingDump();
+		final FileOutputStream lock = new FileOutputStream(
+				new File(destFile.getPath() + LOCK_FILE_EXT));
+		try {
+			lock.getChannel().lock();
+			final File tmpFile = File.createTempFile(destFile.getName(),
+					TMP_FILE_EXT, destFile.getParentFile());
+			try {
+				writeMergedExecutionData(tmpFile);
+				// The lock is held, so replacing the file is safe even where
+				// renameTo does not overwrite an existing file.
+				if (!tmpFile.renameTo(destFile)
+						&& !(destFile.delete() && tmpFile.renameTo(destFile))) {
+					throw new IOException("Could not replace " + destFile);
+				}
+			} finally {
+				tmpFile.delete();
+			}
+		} finally {
+			lock.close();
+		}
+	}
+
+	public synchronized void shutdown() throws IOException {
+		if (dumpWriter != null) {
+			try {
+				awaitPendingDump();
+			} finally {
+				dumpWriter.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Collects the classes that changed since the previous dump and appends
+	 * them to the file in the background (the first dump replaces the file
+	 * unless appending is enabled).
+	 */
+	private void writeChangedExecutionData(final boolean reset)
+			throws IOException {
+		awaitPendingDump();
+		final SessionInfoStore sessionInfos = new SessionInfoStore();
+		final ExecutionDataStore executionData = new ExecutionDataStore();
+		data.collectChanges(baseline, executionData, sessionInfos, reset);
+		final boolean appendDump = append;
+		append = true;
+		pendingDump = dumpWriter.submit(new Callable<Void>() {
+			public Void call() throws IOException {
+				final OutputStream output = openFile(appendDump);
+				try {
+					final ExecutionDataWriter writer = new ExecutionDataWriter(
+							new BufferedOutputStream(output));
+					sessionInfos.accept(writer);
+					executionData.accept(writer);
+					writer.flush();
+				} finally {
+					output.close();
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Waits until the dump that is written in the background (if any) is
+	 * written.
+	 *
+	 * @throws IOException
+	 *             if the dump could not be written
+	 */
+	private void awaitPendingDump() throws IOException {
+		if (pendingDump == null) {
+			return;
+		}
+		try {
+			pendingDump.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while writing " + destFile);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			final IOException ex = new IOException(
+					"Could not write " + destFile);
+			ex.initCause(cause);
+			throw ex;
+		} finally {
+			pendingDump = null;
+		}
+	}
+
+	private void writeMergedExecutionData(final File tmpFile)
+			throws IOException {
+		final OutputStream output = new BufferedOutputStream(
+				new FileOutputStream(tmpFile));
+		try {
+			final ExecutionDataWriter writer = new ExecutionDataWriter(output);
+			final CoverageBaseline baseline = CoverageBaseline.inRTSDir();
+			final ExecutionDataStore store = data.lockExecutionDataStore();
+			try {
+				if (baseline.isWritable()) {
+					if (!baseline.exists()) {
+						// Start the baseline from the last exec file.
+						readExecutionData(destFile, store.newMergeVisitor(),
+								null);
+					}
+					data.collect(NO_EXECUTION_DATA, writer, false);
+					baseline.update(store, writer);
+				} else {
+					data.collect(writer, writer, false);
+					readExecutionData(destFile, store.newMergeVisitor(writer),
+							writer);
+				}
+			} finally {
+				data.unlockExecutionDataStore();
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Streams the given exec file to the given visitors.
+	 *
+	 * @param file
+	 *            exec file to read
+	 * @param executionDataVisitor
+	 *            visitor for execution data
+	 * @param sessionInfoVisitor
+	 *            visitor for session infos, may be <code>null</code> if session
+	 *            infos should be skipped
+	 * @throws IOException
+	 *             in case of problems with the file
+	 */
+	public static void readExecutionData(final File file,
+			final IExecutionDataVisitor executionDataVisitor,
+			final ISessionInfoVisitor sessionInfoVisitor) throws IOException {
+		final InputStream input = new BufferedInputStream(
+				new FileInputStream(file));
+		try {
+			final ExecutionDataReader reader = new ExecutionDataReader(input);
+			reader.setExecutionDataVisitor(executionDataVisitor);
+			reader.setSessionInfoVisitor(
+					sessionInfoVisitor != null ? sessionInfoVisitor
+							: new SessionInfoStore());
+			reader.read();
+		} finally {
+			input.close();
+		}
 	}
 
 	private OutputStream openFile(boolean append) throws IOException {
@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
 
+import org.ijacoco.core.coverage.runtime.DumpBaseline;
 import org.ijacoco.core.coverage.runtime.IRemoteCommandVisitor;
 import org.ijacoco.core.coverage.runtime.RemoteControlReader;
 import org.ijacoco.core.coverage.runtime.RemoteControlWriter;
@@ -30,15 +31,24 @@ class TcpConnection implements IRemoteCommandVisitor {
 
 	private final Socket socket;
 
+	/** Whether dumps only contain classes that changed since the last dump */
+	private final boolean incremental;
+
+	/** Probes as they were last dumped to this connection */
+	private final DumpBaseline baseline;
+
 	private RemoteControlWriter writer;
 
 	private RemoteControlReader reader;
 
 	private boolean initialized;
 
-	public TcpConnection(final Socket socket, final RuntimeData data) {
+	public TcpConnection(final Socket socket, final RuntimeData data,
+			final boolean incremental) {
 		this.socket = socket;
 		this.data = data;
+		this.incremental = incremental;
+		this.baseline = new DumpBaseline();
 		this.initialized = false;
 	}
 
@@ -100,7 +110,11 @@ class TcpConnection implements IRemoteCommandVisitor {
 	public void visitDumpCommand(final boolean dump, final boolean reset)
 			throws IOException {
 		if (dump) {
-			data.collect(writer, writer, reset);
+			if (incremental) {
+				data.collectChanges(baseline, writer, writer, reset);
+			} else {
+				data.collect(writer, writer, reset);
+			}
 		} else {
 			if (reset) {
 				data.reset();
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.agent.rt.internal.output;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+import org.ijacoco.core.coverage.data.ExecutionDataWriter;
+import org.ijacoco.core.coverage.data.IncompatibleExecDataVersionException;
+import org.ijacoco.core.coverage.runtime.DumpBaseline;
+import org.ijacoco.core.coverage.runtime.RemoteControlWriter;
+import org.ijacoco.core.coverage.runtime.RuntimeData;
+
+/**
+ * Handler for a single client of a {@link TcpServerOutput}. The selector thread
+ * of the server reads commands of the client and sends what commands write to
+ * the buffer of the client. Commands are executed by an {@link Executor}, one
+ * at a time (no command is read while one is executed). A command that writes
+ * to a full buffer waits until the selector thread sent some of it, so
+ * execution data is streamed to the client however slowly it reads.
+ */
+class TcpServerConnection {
+
+	/** Size of the buffer for data sent to the client */
+	private static final int BUFFER_SIZE = 0x10000;
+
+	/** Size of the header block */
+	private static final int HEADER_SIZE = 5;
+
+	/** Size of the dump command block */
+	private static final int CMDDUMP_SIZE = 3;
+
+	private final TcpServerOutput server;
+
+	private final SocketChannel channel;
+
+	private final RuntimeData data;
+
+	/** Whether dumps only contain classes that changed since the last dump */
+	private final boolean incremental;
+
+	/** Probes as they were last dumped to this connection */
+	private final DumpBaseline baseline;
+
+	private final ByteBuffer input;
+
+	private final Output output;
+
+	/** Buffered output that the writer writes to */
+	private final OutputStream buffered;
+
+	private final RemoteControlWriter writer;
+
+	private SelectionKey key;
+
+	/** Whether a command of this client is being executed */
+	private volatile boolean executing;
+
+	/** Whether the client closed its side of the connection */
+	private boolean inputClosed;
+
+	/**
+	 * Creates a connection and writes the header for the client.
+	 *
+	 * @param server
+	 *            server that accepted the connection
+	 * @param channel
+	 *            channel of the connection (non-blocking)
+	 * @param data
+	 *            runtime data to dump
+	 * @param incremental
+	 *            whether dumps only contain classes that changed
+	 * @throws IOException
+	 *             if the header cannot be written
+	 */
+	TcpServerConnection(final TcpServerOutput server,
+			final SocketChannel channel, final RuntimeData data,
+			final boolean incremental) throws IOException {
+		this.server = server;
+		this.channel = channel;
+		this.data = data;
+		this.incremental = incremental;
+		this.baseline = new DumpBaseline();
+		this.input = ByteBuffer.allocate(64);
+		this.output = new Output();
+		// Data is written in single bytes.
+		this.buffered = new BufferedOutputStream(output);
+		this.writer = new RemoteControlWriter(buffered);
+		writer.flush();
+	}
+
+	/**
+	 * Sets the key of this connection, once the channel is registered.
+	 */
+	void setKey(final SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Handles the operations the channel is ready for. Invoked by the selector
+	 * thread.
+	 *
+	 * @throws IOException
+	 *             in case of problems with the connection or protocol
+	 */
+	void handle() throws IOException {
+		if (key.isReadable()) {
+			read();
+		}
+		if (key.isValid() && key.isWritable()) {
+			output.sendTo(channel);
+		}
+	}
+
+	/**
+	 * Updates the operations the selector waits for. Invoked by the selector
+	 * thread.
+	 *
+	 * @param closing
+	 *            whether the server is shut down, so no more commands are read
+	 */
+	void updateInterest(final boolean closing) {
+		if (!key.isValid()) {
+			return;
+		}
+		int ops = 0;
+		if (!executing && !inputClosed && !closing) {
+			ops |= SelectionKey.OP_READ;
+		}
+		if (output.hasData()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		key.interestOps(ops);
+	}
+
+	/**
+	 * Checks whether neither a command is executed nor data is to be sent.
+	 */
+	boolean isIdle() {
+		return !executing && !output.hasData();
+	}
+
+	/**
+	 * Checks whether this connection is closed and can be dropped.
+	 */
+	boolean isClosed() {
+		return !channel.isOpen();
+	}
+
+	/**
+	 * Checks whether the client closed the connection and everything was sent.
+	 */
+	boolean isDone() {
+		return inputClosed && isIdle();
+	}
+
+	/**
+	 * Sends the given execution data to the client, like a response to the dump
+	 * command.
+	 *
+	 * @param dump
+	 *            serialized execution data
+	 * @param offset
+	 *            offset of the execution data (after the header) in the array
+	 * @throws IOException
+	 *             in case of problems with the connection
+	 */
+	synchronized void writeExecutionData(final byte[] dump, final int offset)
+			throws IOException {
+		if (!isClosed()) {
+			buffered.write(dump, offset, dump.length - offset);
+			writer.sendCmdOk();
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Closes the connection; commands that wait for the buffer fail.
+	 */
+	void close() throws IOException {
+		output.close();
+		if (key != null) {
+			key.cancel();
+		}
+		channel.close();
+	}
+
+	/**
+	 * Executes commands that were read while a command was executed. Invoked by
+	 * the selector thread.
+	 *
+	 * @throws IOException
+	 *             in case of problems with the protocol
+	 */
+	void resume() throws IOException {
+		input.flip();
+		try {
+			while (!executing && parseBlock()) {
+			}
+		} finally {
+			input.compact();
+		}
+	}
+
+	// INTERNAL
+
+	private void read() throws IOException {
+		if (channel.read(input) < 0) {
+			inputClosed = true;
+		}
+		resume();
+	}
+
+	/**
+	 * Parses and executes the next block of the input.
+	 *
+	 * @return <code>true</code>, if the block was complete
+	 */
+	private boolean parseBlock() throws IOException {
+		if (!input.hasRemaining()) {
+			return false;
+		}
+		final byte type = input.get(input.position());
+		switch (type) {
+		case ExecutionDataWriter.BLOCK_HEADER:
+			if (input.remaining() < HEADER_SIZE) {
+				return false;
+			}
+			input.get();
+			if (input.getChar() != ExecutionDataWriter.MAGIC_NUMBER) {
+				throw new IOException("Invalid execution data file.");
+			}
+			final char version = input.getChar();
+			if (version != ExecutionDataWriter.FORMAT_VERSION) {
+				throw new IncompatibleExecDataVersionException(version);
+			}
+			return true;
+		case RemoteControlWriter.BLOCK_CMDDUMP:
+			if (input.remaining() < CMDDUMP_SIZE) {
+				return false;
+			}
+			input.get();
+			final boolean dump = input.get() != 0;
+			final boolean reset = input.get() != 0;
+			execute(dump, reset);
+			return true;
+		default:
+			throw new IOException(String.format("Unknown block type %x.",
+					Byte.valueOf(type)));
+		}
+	}
+
+	private void execute(final boolean dump, final boolean reset) {
+		executing = true;
+		server.execute(new Runnable() {
+			public void run() {
+				try {
+					visitDumpCommand(dump, reset);
+				} catch (final IOException e) {
+					server.logExeption(TcpServerConnection.this, e);
+				} finally {
+					executing = false;
+					server.changed(TcpServerConnection.this);
+				}
+			}
+		});
+	}
+
+	private synchronized void visitDumpCommand(final boolean dump,
+			final boolean reset) throws IOException {
+		if (dump) {
+			if (incremental) {
+				data.collectChanges(baseline, writer, writer, reset);
+			} else {
+				data.collect(writer, writer, reset);
+			}
+		} else {
+			if (reset) {
+				data.reset();
+			}
+		}
+		writer.sendCmdOk();
+		writer.flush();
+	}
+
+	/**
+	 * Bounded buffer of data for the client. Commands write to it and wait
+	 * while it is full; the selector thread sends it when the channel is
+	 * writable.
+	 */
+	private final class Output extends OutputStream {
+
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		private boolean closed;
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(final byte[] b, int off, int len)
+				throws IOException {
+			while (len > 0) {
+				while (!closed && !buffer.hasRemaining()) {
+					server.changed(TcpServerConnection.this);
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+				if (closed) {
+					throw new SocketException("Socket closed");
+				}
+				final int n = Math.min(len, buffer.remaining());
+				buffer.put(b, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() {
+			server.changed(TcpServerConnection.this);
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+
+		synchronized boolean hasData() {
+			return buffer.position() > 0;
+		}
+
+		synchronized void sendTo(final SocketChannel channel)
+				throws IOException {
+			buffer.flip();
+			try {
+				channel.write(buffer);
+			} finally {
+				buffer.compact();
+			}
+			notifyAll();
+		}
+	}
+
+}
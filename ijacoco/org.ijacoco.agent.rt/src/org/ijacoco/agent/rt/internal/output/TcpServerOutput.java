@@ -12,12 +12,26 @@
  *******************************************************************************/
 package org.ijacoco.agent.rt.internal.output;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.ijacoco.agent.rt.internal.IExceptionLogger;
+import org.ijacoco.core.coverage.data.ExecutionDataWriter;
 import org.ijacoco.core.coverage.runtime.AgentOptions;
 import org.ijacoco.core.coverage.runtime.RuntimeData;
 
@@ -27,18 +41,43 @@ import org.ijacoco.core.coverage.runtime.RuntimeData;
  * <ul>
  * <li>address</li>
  * <li>port</li>
+ * <li>incremental</li>
  * </ul>
+ *
+ * Any number of clients can be connected at the same time. A single thread
+ * accepts clients, reads their commands and sends the responses with a
+ * {@link Selector}; commands are executed on a thread pool and stream their
+ * response through a bounded buffer per client (see
+ * {@link TcpServerConnection}). In incremental mode, a dump requested by a
+ * client contains the classes that changed since the previous dump to that
+ * client. Dumps sent to all clients (e.g., on exit) contain the execution data
+ * of all classes; it is collected once and the same bytes are sent to each
+ * client.
  */
 public class TcpServerOutput implements IAgentOutput {
 
-	private TcpConnection connection;
-
 	private final IExceptionLogger logger;
 
-	private ServerSocket serverSocket;
+	/** Clients that are connected */
+	private final Set<TcpServerConnection> connections;
+
+	/** Clients whose commands or buffers changed (in other threads) */
+	private final Queue<TcpServerConnection> changed;
+
+	private RuntimeData data;
+
+	private boolean incremental;
+
+	private Selector selector;
+
+	private ServerSocketChannel serverChannel;
+
+	private ExecutorService executor;
 
 	private Thread worker;
 
+	private volatile boolean closing;
+
 	/**
 	 * New controller instance.
 	 *
@@ -47,28 +86,32 @@ public class TcpServerOutput implements IAgentOutput {
 	 */
 	public TcpServerOutput(final IExceptionLogger logger) {
 		this.logger = logger;
+		this.connections = new CopyOnWriteArraySet<TcpServerConnection>();
+		this.changed = new ConcurrentLinkedQueue<TcpServerConnection>();
 	}
 
 	public void startup(final AgentOptions options, final RuntimeData data)
 			throws IOException {
-		serverSocket = createServerSocket(options);
+		this.data = data;
+		this.incremental = options.getIncremental();
+		selector = Selector.open();
+		serverChannel = createServerChannel(options);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r);
+				thread.setName(TcpServerConnection.class.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 		worker = new Thread(new Runnable() {
 			public void run() {
-				while (!serverSocket.isClosed()) {
-					try {
-						synchronized (serverSocket) {
-							connection = new TcpConnection(
-									serverSocket.accept(), data);
-						}
-						connection.init();
-						connection.run();
-					} catch (final IOException e) {
-						// If the serverSocket is closed while accepting
-						// connections a SocketException is expected.
-						if (!serverSocket.isClosed()) {
-							logger.logExeption(e);
-						}
-					}
+				try {
+					select();
+				} catch (final IOException e) {
+					logger.logExeption(e);
 				}
 			}
 		});
@@ -78,33 +121,156 @@ public class TcpServerOutput implements IAgentOutput {
 	}
 
 	public void shutdown() throws Exception {
-		serverSocket.close();
-		synchronized (serverSocket) {
-			if (connection != null) {
-				connection.close();
-			}
-		}
+		closing = true;
+		serverChannel.close();
+		selector.wakeup();
 		worker.join();
+		executor.shutdown();
 	}
 
 	public void writeExecutionData(final boolean reset) throws IOException {
-		if (connection != null) {
-			connection.writeExecutionData(reset);
+		if (connections.isEmpty()) {
+			if (reset) {
+				data.reset();
+			}
+			return;
+		}
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final ExecutionDataWriter writer = new ExecutionDataWriter(buffer);
+		data.collect(writer, writer, reset);
+		// Clients got the header when they connected.
+		final byte[] dump = buffer.toByteArray();
+		final int offset = ExecutionDataWriter.getFileHeader().length;
+		for (final TcpServerConnection connection : connections) {
+			connection.writeExecutionData(dump, offset);
 		}
 	}
 
 	/**
-	 * Open a server socket based on the given configuration.
+	 * Open a server socket channel based on the given configuration.
 	 *
 	 * @param options
 	 *            address and port configuration
-	 * @return opened server socket
+	 * @return opened server socket channel
 	 * @throws IOException
 	 */
-	protected ServerSocket createServerSocket(final AgentOptions options)
-			throws IOException {
+	protected ServerSocketChannel createServerChannel(
+			final AgentOptions options) throws IOException {
 		final InetAddress inetAddr = getInetAddress(options.getAddress());
-		return new ServerSocket(options.getPort(), 1, inetAddr);
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.socket()
+				.bind(new InetSocketAddress(inetAddr, options.getPort()));
+		return channel;
+	}
+
+	/**
+	 * Executes a command of a client.
+	 */
+	void execute(final Runnable command) {
+		executor.execute(command);
+	}
+
+	/**
+	 * Notifies the selector thread that the command or buffer of the given
+	 * client changed.
+	 */
+	void changed(final TcpServerConnection connection) {
+		changed.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Logs a problem with the given client, unless it is closed.
+	 */
+	void logExeption(final TcpServerConnection connection, final Exception e) {
+		if (!connection.isClosed()) {
+			logger.logExeption(e);
+		}
+	}
+
+	/**
+	 * Serves clients until the server is shut down and all responses are sent.
+	 */
+	private void select() throws IOException {
+		try {
+			while (!closing || !connections.isEmpty()) {
+				selector.select();
+				TcpServerConnection connection;
+				while ((connection = changed.poll()) != null) {
+					if (!connection.isClosed()) {
+						try {
+							connection.resume();
+						} catch (final IOException e) {
+							close(connection, e);
+						}
+					}
+				}
+				final Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						try {
+							accept();
+						} catch (final IOException e) {
+							// Expected if the server socket is closed while
+							// accepting connections.
+							if (!closing) {
+								logger.logExeption(e);
+							}
+						}
+					} else {
+						connection = (TcpServerConnection) key.attachment();
+						try {
+							connection.handle();
+						} catch (final IOException e) {
+							close(connection, e);
+						}
+					}
+				}
+				for (final TcpServerConnection c : connections) {
+					if (c.isDone() || (closing && c.isIdle())) {
+						close(c, null);
+					} else {
+						c.updateInterest(closing);
+					}
+				}
+			}
+		} finally {
+			for (final TcpServerConnection c : connections) {
+				close(c, null);
+			}
+			selector.close();
+		}
+	}
+
+	private void accept() throws IOException {
+		final SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		final TcpServerConnection connection = new TcpServerConnection(this,
+				channel, data, incremental);
+		connection.setKey(channel.register(selector, 0, connection));
+		connections.add(connection);
+	}
+
+	private void close(final TcpServerConnection connection,
+			final IOException cause) {
+		if (cause != null) {
+			logExeption(connection, cause);
+		}
+		connections.remove(connection);
+		try {
+			connection.close();
+		} catch (final IOException e) {
+			logger.logExeption(e);
+		}
 	}
 
 	/**
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.collector;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+
+import org.ijacoco.core.coverage.runtime.IRemoteCommandVisitor;
+import org.ijacoco.core.coverage.runtime.RemoteControlReader;
+import org.ijacoco.core.coverage.runtime.RemoteControlWriter;
+
+/**
+ * Connection of an agent (in tcpclient output mode). Execution data the agent
+ * sends (when it is asked to dump, or when it dumps on exit) is merged into the
+ * {@link Collector} record by record as it is read.
+ */
+class AgentConnection implements Runnable {
+
+	private final Socket socket;
+
+	private final Collector collector;
+
+	private final CollectorServer server;
+
+	private RemoteControlWriter writer;
+
+	/**
+	 * Creates a connection for the given socket.
+	 */
+	AgentConnection(final Socket socket, final Collector collector,
+			final CollectorServer server) {
+		this.socket = socket;
+		this.collector = collector;
+		this.server = server;
+	}
+
+	/**
+	 * Asks the agent to dump its execution data.
+	 *
+	 * @throws IOException
+	 *             in case of problems with the connection
+	 */
+	synchronized void requestDump() throws IOException {
+		if (writer != null) {
+			writer.visitDumpCommand(true, false);
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Closes the connection.
+	 */
+	void close() throws IOException {
+		socket.close();
+	}
+
+	/**
+	 * Reads execution data until the agent disconnects.
+	 */
+	public void run() {
+		try {
+			synchronized (this) {
+				writer = new RemoteControlWriter(
+						new BufferedOutputStream(socket.getOutputStream()));
+				writer.flush();
+			}
+			final RemoteControlReader reader = new RemoteControlReader(
+					socket.getInputStream());
+			reader.setExecutionDataVisitor(collector);
+			reader.setSessionInfoVisitor(collector);
+			reader.setRemoteCommandVisitor(new IRemoteCommandVisitor() {
+				public void visitDumpCommand(final boolean dump,
+						final boolean reset) {
+					// Agents do not send commands.
+				}
+			});
+			while (reader.read()) {
+			}
+		} catch (final SocketException e) {
+			// Expected if the socket is closed (e.g., on shutdown).
+			if (!socket.isClosed()) {
+				server.log(e);
+			}
+		} catch (final IOException e) {
+			server.log(e);
+		} finally {
+			server.disconnected(this);
+			try {
+				close();
+			} catch (final IOException e) {
+				server.log(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.collector;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ijacoco.core.coverage.data.ExecutionData;
+import org.ijacoco.core.coverage.data.ExecutionDataReader;
+import org.ijacoco.core.coverage.data.ExecutionDataStore;
+import org.ijacoco.core.coverage.data.ExecutionDataWriter;
+import org.ijacoco.core.coverage.data.IExecutionDataVisitor;
+import org.ijacoco.core.coverage.data.ISessionInfoVisitor;
+import org.ijacoco.core.coverage.data.SessionInfo;
+
+/**
+ * Execution data collected from many agents, merged as it arrives. Execution
+ * data of a class is merged into a single entry (as read, probes are packed),
+ * and the session infos of a session id are merged into a single session info
+ * (from the first start to the last dump), so memory does not grow with the
+ * number of dumps.
+ *
+ * An instance of this class is thread safe.
+ */
+public final class Collector
+		implements IExecutionDataVisitor, ISessionInfoVisitor {
+
+	private final ExecutionDataStore store = new ExecutionDataStore();
+
+	private final Map<String, SessionInfo> sessions = new TreeMap<String, SessionInfo>();
+
+	/** Whether execution data changed since it was last saved */
+	private boolean dirty;
+
+	/**
+	 * Merges the given execution data.
+	 *
+	 * @param data
+	 *            execution data of a class
+	 */
+	public synchronized void visitClassExecution(final ExecutionData data) {
+		store.put(data);
+		dirty = true;
+	}
+
+	/**
+	 * Merges the given session info with the session infos of the same id.
+	 *
+	 * @param info
+	 *            session info
+	 */
+	public synchronized void visitSessionInfo(final SessionInfo info) {
+		final SessionInfo previous = sessions.get(info.getId());
+		if (previous == null) {
+			sessions.put(info.getId(), info);
+		} else {
+			sessions.put(info.getId(),
+					new SessionInfo(info.getId(),
+							Math.min(previous.getStartTimeStamp(),
+									info.getStartTimeStamp()),
+							Math.max(previous.getDumpTimeStamp(),
+									info.getDumpTimeStamp())));
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Returns the number of classes with execution data.
+	 *
+	 * @return number of classes
+	 */
+	public synchronized int getClassCount() {
+		return store.getContents().size();
+	}
+
+	/**
+	 * Returns the collected execution data in exec format.
+	 *
+	 * @param reset
+	 *            if <code>true</code> the collected execution data is cleared
+	 *            afterwards
+	 * @return execution data (with session infos)
+	 */
+	public byte[] getExecutionData(final boolean reset) {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try {
+			final ExecutionDataWriter writer = new ExecutionDataWriter(buffer);
+			synchronized (this) {
+				for (final SessionInfo info : sessions.values()) {
+					writer.visitSessionInfo(info);
+				}
+				store.accept(writer);
+				if (reset) {
+					reset();
+				}
+			}
+		} catch (final IOException e) {
+			// Must not happen with ByteArrayOutputStream
+			throw new AssertionError(e);
+		}
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Clears the collected execution data.
+	 */
+	public synchronized void reset() {
+		store.reset();
+		sessions.clear();
+		dirty = true;
+	}
+
+	/**
+	 * Merges the execution data of the given exec file (if it exists).
+	 *
+	 * @param file
+	 *            exec file
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public void load(final File file) throws IOException {
+		if (!file.isFile()) {
+			return;
+		}
+		final InputStream input = new BufferedInputStream(
+				new FileInputStream(file));
+		try {
+			final ExecutionDataReader reader = new ExecutionDataReader(input);
+			reader.setExecutionDataVisitor(this);
+			reader.setSessionInfoVisitor(this);
+			reader.read();
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Writes the collected execution data to the given exec file, if it changed
+	 * since it was last written. The data is written to a temporary file next
+	 * to the file, which then replaces the file, so readers never see a partial
+	 * file.
+	 *
+	 * @param file
+	 *            exec file
+	 * @return <code>true</code>, if the file was written
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public boolean save(final File file) throws IOException {
+		final byte[] content;
+		synchronized (this) {
+			if (!dirty) {
+				return false;
+			}
+			dirty = false;
+			content = getExecutionData(false);
+		}
+		try {
+			final File dir = file.getAbsoluteFile().getParentFile();
+			dir.mkdirs();
+			final File tmpFile = File.createTempFile(file.getName(), ".tmp",
+					dir);
+			try {
+				final OutputStream output = new FileOutputStream(tmpFile);
+				try {
+					output.write(content);
+				} finally {
+					output.close();
+				}
+				if (!tmpFile.renameTo(file)
+						&& !(file.delete() && tmpFile.renameTo(file))) {
+					throw new IOException("Could not replace " + file);
+				}
+			} finally {
+				tmpFile.delete();
+			}
+		} catch (final IOException e) {
+			synchronized (this) {
+				dirty = true;
+			}
+			throw e;
+		}
+		return true;
+	}
+
+}
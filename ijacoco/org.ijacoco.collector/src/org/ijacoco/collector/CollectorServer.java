@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.collector;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Server that collects execution data from agents and answers queries. Agents
+ * in tcpclient output mode connect to the agent port; the server asks all of
+ * them to dump every interval (agents with the incremental option only send
+ * classes that changed), and agents that dump on exit send their last execution
+ * data when their VM exits. The collected execution data is written to the exec
+ * file every interval (if it changed) and when the server stops. Clients
+ * connected to the query port get the collected execution data as if they were
+ * connected to an agent in tcpserver output mode.
+ */
+public class CollectorServer {
+
+	private final Collector collector;
+
+	private final File execFile;
+
+	private final long interval;
+
+	private final Set<AgentConnection> agents;
+
+	private ServerSocket agentSocket;
+
+	private ServerSocket querySocket;
+
+	private Thread poller;
+
+	private volatile boolean stopped;
+
+	/**
+	 * Creates a server that keeps the collected execution data in the given
+	 * exec file.
+	 *
+	 * @param execFile
+	 *            exec file
+	 * @param interval
+	 *            milliseconds between dumps of the agents (and writes of the
+	 *            exec file)
+	 */
+	public CollectorServer(final File execFile, final long interval) {
+		this.collector = new Collector();
+		this.execFile = execFile;
+		this.interval = interval;
+		this.agents = new CopyOnWriteArraySet<AgentConnection>();
+	}
+
+	/**
+	 * Returns the collected execution data.
+	 *
+	 * @return collector of this server
+	 */
+	public Collector getCollector() {
+		return collector;
+	}
+
+	/**
+	 * Reads the exec file and starts to accept agents and queries.
+	 *
+	 * @param address
+	 *            address to bind to, or <code>null</code> for all addresses
+	 * @param agentPort
+	 *            port for agents
+	 * @param queryPort
+	 *            port for queries
+	 * @throws IOException
+	 *             if the exec file cannot be read or a port cannot be bound
+	 */
+	public void start(final InetAddress address, final int agentPort,
+			final int queryPort) throws IOException {
+		collector.load(execFile);
+		agentSocket = new ServerSocket(agentPort, 0, address);
+		querySocket = new ServerSocket(queryPort, 0, address);
+		startThread("agents", new Runnable() {
+			public void run() {
+				while (!agentSocket.isClosed()) {
+					final Socket socket = accept(agentSocket);
+					if (socket != null) {
+						final AgentConnection agent = new AgentConnection(
+								socket, collector, CollectorServer.this);
+						agents.add(agent);
+						startThread("agent " + socket.getRemoteSocketAddress(),
+								agent);
+					}
+				}
+			}
+		});
+		startThread("queries", new Runnable() {
+			public void run() {
+				while (!querySocket.isClosed()) {
+					final Socket socket = accept(querySocket);
+					if (socket != null) {
+						startThread("query " + socket.getRemoteSocketAddress(),
+								new QueryConnection(socket, collector,
+										CollectorServer.this));
+					}
+				}
+			}
+		});
+		poller = startThread("poller", new Runnable() {
+			public void run() {
+				while (!stopped) {
+					try {
+						Thread.sleep(interval);
+					} catch (final InterruptedException e) {
+						return;
+					}
+					poll();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops accepting agents and queries, disconnects agents and writes the
+	 * exec file.
+	 *
+	 * @throws IOException
+	 *             if the exec file cannot be written
+	 */
+	public void stop() throws IOException {
+		stopped = true;
+		poller.interrupt();
+		agentSocket.close();
+		querySocket.close();
+		for (final AgentConnection agent : agents) {
+			agent.close();
+		}
+		collector.save(execFile);
+	}
+
+	/**
+	 * Logs the given problem.
+	 */
+	void log(final Exception e) {
+		if (!stopped) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Removes the given agent, once it disconnected.
+	 */
+	void disconnected(final AgentConnection agent) {
+		agents.remove(agent);
+	}
+
+	// INTERNAL
+
+	private void poll() {
+		for (final AgentConnection agent : agents) {
+			try {
+				agent.requestDump();
+			} catch (final IOException e) {
+				// The agent disconnects.
+				log(e);
+			}
+		}
+		try {
+			collector.save(execFile);
+		} catch (final IOException e) {
+			log(e);
+		}
+	}
+
+	private Socket accept(final ServerSocket serverSocket) {
+		try {
+			return serverSocket.accept();
+		} catch (final IOException e) {
+			// Expected if the server socket is closed.
+			if (!serverSocket.isClosed()) {
+				log(e);
+			}
+			return null;
+		}
+	}
+
+	private static Thread startThread(final String name,
+			final Runnable runnable) {
+		final Thread thread = new Thread(runnable);
+		thread.setName(CollectorServer.class.getSimpleName() + " " + name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.collector;
+
+import java.io.File;
+import java.net.InetAddress;
+
+import org.ijacoco.core.coverage.runtime.AgentOptions;
+
+/**
+ * Command line entry point of the collector:
+ *
+ * <pre>
+ * java -jar org.ijacoco.collector-all.jar [--address &lt;address&gt;]
+ *     [--port &lt;agent port&gt;] [--queryport &lt;query port&gt;]
+ *     [--destfile &lt;exec file&gt;] [--interval &lt;seconds&gt;]
+ * </pre>
+ *
+ * Agents are started with <code>output=tcpclient</code> and the address and
+ * port of the collector; the collector runs until it is terminated.
+ */
+public final class Main {
+
+	/** Default port for queries */
+	public static final int DEFAULT_QUERY_PORT = AgentOptions.DEFAULT_PORT + 1;
+
+	/** Default seconds between dumps of the agents */
+	public static final int DEFAULT_INTERVAL = 10;
+
+	private static final String USAGE = "Usage: java -jar org.ijacoco.collector-all.jar"
+			+ " [--address <address>] [--port <agent port>]"
+			+ " [--queryport <query port>] [--destfile <exec file>]"
+			+ " [--interval <seconds>]";
+
+	private Main() {
+	}
+
+	/**
+	 * Starts the collector.
+	 *
+	 * @param args
+	 *            command line arguments
+	 * @throws Exception
+	 *             if the collector cannot be started
+	 */
+	public static void main(final String[] args) throws Exception {
+		String address = "*";
+		int port = AgentOptions.DEFAULT_PORT;
+		int queryPort = DEFAULT_QUERY_PORT;
+		String destFile = AgentOptions.DEFAULT_DESTFILE;
+		int interval = DEFAULT_INTERVAL;
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				usage();
+				return;
+			}
+			final String value = args[i + 1];
+			if ("--address".equals(args[i])) {
+				address = value;
+			} else if ("--port".equals(args[i])) {
+				port = Integer.parseInt(value);
+			} else if ("--queryport".equals(args[i])) {
+				queryPort = Integer.parseInt(value);
+			} else if ("--destfile".equals(args[i])) {
+				destFile = value;
+			} else if ("--interval".equals(args[i])) {
+				interval = Integer.parseInt(value);
+			} else {
+				usage();
+				return;
+			}
+		}
+		final File execFile = new File(destFile).getAbsoluteFile();
+		final CollectorServer server = new CollectorServer(execFile,
+				interval * 1000L);
+		server.start(
+				"*".equals(address) ? null : InetAddress.getByName(address),
+				port, queryPort);
+		System.out.printf(
+				"Collecting from agents on port %s, answering queries on port %s, writing %s%n",
+				Integer.valueOf(port), Integer.valueOf(queryPort), execFile);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					server.stop();
+					System.out.printf("Wrote %s classes to %s%n",
+							Integer.valueOf(
+									server.getCollector().getClassCount()),
+							execFile);
+				} catch (final Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		// Runs until the VM is terminated.
+		final Object forever = new Object();
+		synchronized (forever) {
+			while (true) {
+				forever.wait();
+			}
+		}
+	}
+
+	private static void usage() {
+		System.err.println(USAGE);
+		System.exit(1);
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.collector;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+
+import org.ijacoco.core.coverage.runtime.IRemoteCommandVisitor;
+import org.ijacoco.core.coverage.runtime.RemoteControlReader;
+import org.ijacoco.core.coverage.runtime.RemoteControlWriter;
+
+/**
+ * Connection of a client that queries the collected execution data. The
+ * protocol is the one of an agent in tcpserver output mode, so the client can
+ * be, e.g., the dump goal of the Maven plugin or {@code ExecDumpClient}.
+ */
+class QueryConnection implements Runnable, IRemoteCommandVisitor {
+
+	private final Socket socket;
+
+	private final Collector collector;
+
+	private final CollectorServer server;
+
+	private OutputStream output;
+
+	private RemoteControlWriter writer;
+
+	/**
+	 * Creates a connection for the given socket.
+	 */
+	QueryConnection(final Socket socket, final Collector collector,
+			final CollectorServer server) {
+		this.socket = socket;
+		this.collector = collector;
+		this.server = server;
+	}
+
+	/**
+	 * Answers commands until the client disconnects.
+	 */
+	public void run() {
+		try {
+			output = new BufferedOutputStream(socket.getOutputStream());
+			writer = new RemoteControlWriter(output);
+			writer.flush();
+			final RemoteControlReader reader = new RemoteControlReader(
+					socket.getInputStream());
+			reader.setRemoteCommandVisitor(this);
+			while (reader.read()) {
+			}
+		} catch (final SocketException e) {
+			// Expected if the socket is closed (e.g., on shutdown).
+			if (!socket.isClosed()) {
+				server.log(e);
+			}
+		} catch (final IOException e) {
+			server.log(e);
+		} finally {
+			try {
+				socket.close();
+			} catch (final IOException e) {
+				server.log(e);
+			}
+		}
+	}
+
+	public void visitDumpCommand(final boolean dump, final boolean reset)
+			throws IOException {
+		if (dump) {
+			// Header and blocks, as written by an ExecutionDataWriter.
+			output.write(collector.getExecutionData(reset));
+		} else if (reset) {
+			collector.reset();
+		}
+		writer.sendCmdOk();
+		writer.flush();
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ijacoco.core.coverage.tools.CoverageClassesFile;
+import org.ijacoco.core.rts.Config;
+import org.ijacoco.core.rts.Names;
+
+/**
+ * Measures merging execution data of a previous run into the store of the
+ * current run (as done on exit of each forked VM), both from a loaded store and
+ * streamed from serialized execution data. Classes to update coverage are
+ * written to a temporary RTS directory.
+ *
+ * Usage: ExecutionDataStoreBenchmark [numClasses [percentModified [rounds]]]
+ */
+public final class ExecutionDataStoreBenchmark {
+
+	/** Root of (fake) class URLs */
+	private static final String CLASSES_URL = "file:/home/user/project/target/classes/";
+
+	/** Number of probes per class */
+	private static final int PROBES = 32;
+
+	private ExecutionDataStoreBenchmark() {
+	}
+
+	// MAIN
+
+	public static void main(String[] args) throws IOException {
+		int numClasses = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int percentModified = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		File rtsDir = File.createTempFile("rts", "");
+		rtsDir.delete();
+		rtsDir.mkdir();
+		File coverageClassesFile = new File(rtsDir,
+				Names.CLASS_URLS_TO_UPDATE_COVERAGE_DATA_FILE);
+		Config.RTS_DIR_V = rtsDir.getAbsolutePath();
+		try {
+			Set<String> modified = new HashSet<String>();
+			for (int i = 0; i < numClasses * percentModified / 100; i++) {
+				modified.add(
+						CLASSES_URL + className(i * 100 / percentModified));
+			}
+			CoverageClassesFile.write(modified, coverageClassesFile);
+			byte[] previous = toBytes(newStore(numClasses, 0));
+
+			System.out.println(
+					"classes " + numClasses + " modified " + modified.size());
+			for (int round = 0; round < rounds; round++) {
+				ExecutionDataStore current = newStore(numClasses, 1);
+				ExecutionDataStore last = load(previous);
+				long start = System.nanoTime();
+				current.merge(last);
+				long merge = System.nanoTime() - start;
+
+				current = newStore(numClasses, 1);
+				start = System.nanoTime();
+				ExecutionDataReader reader = new ExecutionDataReader(
+						new ByteArrayInputStream(previous));
+				reader.setExecutionDataVisitor(current.newMergeVisitor());
+				reader.read();
+				long stream = System.nanoTime() - start;
+
+				System.out.println("merge " + merge / 1000000 + " ms, "
+						+ "read and merge " + stream / 1000000 + " ms");
+			}
+		} finally {
+			coverageClassesFile.delete();
+			rtsDir.delete();
+		}
+	}
+
+	// INTERNAL
+
+	private static String className(int i) {
+		return "org/example/p" + (i % 100) + "/C" + i;
+	}
+
+	/**
+	 * Creates a store with all classes, where every probe with the given
+	 * remainder (mod 2) is executed.
+	 */
+	private static ExecutionDataStore newStore(int numClasses, int remainder) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		for (int i = 0; i < numClasses; i++) {
+			boolean[] probes = new boolean[PROBES];
+			for (int j = remainder; j < PROBES; j += 2) {
+				probes[j] = true;
+			}
+			store.put(new ExecutionData(i, className(i), probes));
+		}
+		return store;
+	}
+
+	private static byte[] toBytes(ExecutionDataStore store) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		store.accept(new ExecutionDataWriter(out));
+		return out.toByteArray();
+	}
+
+	private static ExecutionDataStore load(byte[] bytes) throws IOException {
+		ExecutionDataStore store = new ExecutionDataStore();
+		ExecutionDataReader reader = new ExecutionDataReader(
+				new ByteArrayInputStream(bytes));
+		reader.setExecutionDataVisitor(store);
+		reader.read();
+		return store;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.monitor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ijacoco.core.rts.Config;
+import org.ijacoco.core.rts.asm.ClassWriter;
+import org.ijacoco.core.rts.asm.Opcodes;
+
+/**
+ * Measures throughput of {@link CoverageMonitor} touch methods for an
+ * increasing number of threads. Each thread repeatedly touches the same classes
+ * (as instrumented code does), so the measured path is the one taken for
+ * already seen classes. The cache of seen classes is disabled, so that each
+ * call reaches the set of collected classes.
+ *
+ * Usage: CoverageMonitorBenchmark [maxThreads [millis [numClasses]]]
+ */
+public final class CoverageMonitorBenchmark {
+
+	/** Package of generated classes (must not be ignorable) */
+	private static final String PACKAGE = "bench/monitor/";
+
+	private CoverageMonitorBenchmark() {
+	}
+
+	/**
+	 * Class loader used to define generated classes.
+	 */
+	private static final class Loader extends ClassLoader {
+		Loader() {
+			super(CoverageMonitorBenchmark.class.getClassLoader());
+		}
+
+		Class<?> define(String binName, byte[] bytes) {
+			return defineClass(binName, bytes, 0, bytes.length);
+		}
+	}
+
+	// MAIN
+
+	public static void main(String[] args) throws Exception {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+				: Runtime.getRuntime().availableProcessors();
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000L;
+		int numClasses = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+		Config.CACHE_SEEN_CLASSES_V = false;
+		Class<?>[] classes = generateClasses(numClasses);
+
+		System.out.println("threads ops/ms t(Class) ops/ms t(Class,int)");
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			CoverageMonitor.clean();
+			// Warm up.
+			run(classes, threads, millis / 4, false);
+			run(classes, threads, millis / 4, true);
+			long plain = run(classes, threads, millis, false);
+			long probed = run(classes, threads, millis, true);
+			System.out.println(
+					threads + " " + plain / millis + " " + probed / millis);
+		}
+	}
+
+	// INTERNAL
+
+	/**
+	 * Runs the given number of threads for the given time.
+	 *
+	 * @return Total number of touch calls made by all threads.
+	 */
+	private static long run(final Class<?>[] classes, int threads,
+			final long millis, final boolean withProbes)
+			throws InterruptedException {
+		final AtomicLong total = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int offset = i * 31;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException ex) {
+						return;
+					}
+					long ops = 0;
+					long end = System.currentTimeMillis() + millis;
+					while (System.currentTimeMillis() < end) {
+						for (int j = 0; j < 1024; j++) {
+							int index = (offset + j) % classes.length;
+							if (withProbes) {
+								CoverageMonitor.t(classes[index], j);
+							} else {
+								CoverageMonitor.t(classes[index]);
+							}
+						}
+						ops += 1024;
+					}
+					total.addAndGet(ops);
+				}
+			};
+			workers[i].start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return total.get();
+	}
+
+	private static Class<?>[] generateClasses(int numClasses) {
+		Loader loader = new Loader();
+		Class<?>[] classes = new Class<?>[numClasses];
+		for (int i = 0; i < numClasses; i++) {
+			String name = PACKAGE + "C" + i;
+			ClassWriter cw = new ClassWriter(0);
+			cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, name, null,
+					"java/lang/Object", null);
+			cw.visitEnd();
+			classes[i] = loader.define(name.replace('/', '.'),
+					cw.toByteArray());
+		}
+		return classes;
+	}
+}
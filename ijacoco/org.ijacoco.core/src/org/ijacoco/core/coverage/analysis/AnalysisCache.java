@@ -0,0 +1,394 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ijacoco.core.coverage.data.ExecutionData;
+import org.ijacoco.core.coverage.internal.analysis.ClassCoverageImpl;
+import org.ijacoco.core.coverage.internal.analysis.CounterImpl;
+import org.ijacoco.core.coverage.internal.analysis.MethodCoverageImpl;
+import org.ijacoco.core.coverage.internal.data.CompactDataInput;
+import org.ijacoco.core.coverage.internal.data.CompactDataOutput;
+
+/**
+ * Coverage of analyzed classes from previous reports, so that only classes
+ * whose class file or execution data changed are analyzed again (see
+ * {@link Analyzer#setAnalysisCache(AnalysisCache)}). The coverage of a class is
+ * keyed by the checksum of its class file (as it is, as line numbers matter for
+ * coverage) and a hash of its probes.
+ *
+ * The file is read on the first lookup. {@link #save()} writes only the entries
+ * that were looked up or added since, so entries of classes that changed or
+ * were removed are dropped.
+ *
+ * <pre>
+ * header:  int magic, int version, int count
+ * entries: count * (long checksum, long probes hash, int length, bytes)
+ * </pre>
+ *
+ * An instance of this class is thread safe.
+ */
+public final class AnalysisCache {
+
+	private static final int MAGIC = 0x636F7661;
+
+	/**
+	 * Version of the format; must change whenever the analysis (e.g., a filter)
+	 * calculates different coverage for the same class and probes
+	 */
+	private static final int VERSION = 1;
+
+	private final File file;
+
+	/** Entries from the file, or null if not read yet */
+	private Map<Key, byte[]> previous;
+
+	/** Entries looked up or added since the file was read */
+	private final Map<Key, byte[]> used = new HashMap<Key, byte[]>();
+
+	private int hits;
+
+	private int misses;
+
+	/**
+	 * Creates a cache that is kept in the given file.
+	 *
+	 * @param file
+	 *            file of the cache
+	 */
+	public AnalysisCache(final File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the number of classes whose coverage was found in the cache.
+	 *
+	 * @return number of hits
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of classes whose coverage was not found in the cache.
+	 *
+	 * @return number of misses
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Writes entries that were looked up or added to the file (if the directory
+	 * of the file exists).
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void save() throws IOException {
+		final Map<Key, byte[]> entries;
+		synchronized (this) {
+			entries = new HashMap<Key, byte[]>(used);
+		}
+		final File dir = file.getAbsoluteFile().getParentFile();
+		if (dir == null || !dir.isDirectory()) {
+			return;
+		}
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (final Map.Entry<Key, byte[]> entry : entries.entrySet()) {
+				out.writeLong(entry.getKey().checksum);
+				out.writeLong(entry.getKey().probes);
+				out.writeInt(entry.getValue().length);
+				out.write(entry.getValue());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the coverage of the class with the given key.
+	 *
+	 * @param checksum
+	 *            checksum of the class file
+	 * @param probes
+	 *            hash of the probes of the class (see
+	 *            {@link #probesHash(ExecutionData, boolean)})
+	 * @return coverage of the class, or <code>null</code> if not in the cache
+	 */
+	IClassCoverage get(final long checksum, final long probes) {
+		final Key key = new Key(checksum, probes);
+		final byte[] bytes;
+		synchronized (this) {
+			if (previous == null) {
+				previous = read();
+			}
+			bytes = previous.get(key);
+			if (bytes == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			used.put(key, bytes);
+		}
+		try {
+			return decode(bytes);
+		} catch (final IOException ex) {
+			// Corrupt entry; analyze again.
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the coverage of the class with the given key.
+	 */
+	void put(final long checksum, final long probes,
+			final IClassCoverage coverage) {
+		final byte[] bytes;
+		try {
+			bytes = encode(coverage);
+		} catch (final IOException ex) {
+			// Never (written to memory).
+			return;
+		}
+		synchronized (this) {
+			used.put(new Key(checksum, probes), bytes);
+		}
+	}
+
+	/**
+	 * Returns a hash of the given execution data of a class.
+	 *
+	 * @param data
+	 *            execution data of the class, or <code>null</code>
+	 * @param noMatch
+	 *            whether there is execution data with another id for the class
+	 * @return hash of the probes
+	 */
+	static long probesHash(final ExecutionData data, final boolean noMatch) {
+		if (data == null) {
+			return noMatch ? 1 : 0;
+		}
+		final boolean[] probes = data.copyProbes();
+		long hash = probes.length + 2;
+		long word = 0;
+		for (int i = 0; i < probes.length; i++) {
+			if (probes[i]) {
+				word |= 1L << (i & 63);
+			}
+			if ((i & 63) == 63 || i == probes.length - 1) {
+				hash = (hash ^ word) * 0x9E3779B97F4A7C15L;
+				hash ^= hash >>> 32;
+				word = 0;
+			}
+		}
+		return hash;
+	}
+
+	// INTERNAL
+
+	private Map<Key, byte[]> read() {
+		final Map<Key, byte[]> entries = new HashMap<Key, byte[]>();
+		if (!file.isFile()) {
+			return entries;
+		}
+		try {
+			final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					return entries;
+				}
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					final Key key = new Key(in.readLong(), in.readLong());
+					final byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					entries.put(key, bytes);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (final IOException ex) {
+			// Incomplete file; start over.
+			entries.clear();
+		}
+		return entries;
+	}
+
+	private static byte[] encode(final IClassCoverage coverage)
+			throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final CompactDataOutput out = new CompactDataOutput(bytes);
+		out.writeUTF(coverage.getName());
+		out.writeLong(coverage.getId());
+		out.writeBoolean(coverage.isNoMatch());
+		writeString(out, coverage.getSignature());
+		writeString(out, coverage.getSuperName());
+		final String[] interfaces = coverage.getInterfaceNames();
+		out.writeVarInt(interfaces == null ? 0 : interfaces.length + 1);
+		if (interfaces != null) {
+			for (final String name : interfaces) {
+				out.writeUTF(name);
+			}
+		}
+		writeString(out, coverage.getSourceFileName());
+		out.writeVarInt(coverage.getMethods().size());
+		for (final IMethodCoverage method : coverage.getMethods()) {
+			out.writeUTF(method.getName());
+			out.writeUTF(method.getDesc());
+			writeString(out, method.getSignature());
+			writeCounter(out, method.getInstructionCounter());
+			writeCounter(out, method.getBranchCounter());
+			writeCounter(out, method.getComplexityCounter());
+			writeCounter(out, method.getMethodCounter());
+			final int first = method.getFirstLine();
+			out.writeVarInt(first + 1);
+			if (first != ISourceNode.UNKNOWN_LINE) {
+				final int last = method.getLastLine();
+				out.writeVarInt(last - first);
+				for (int nr = first; nr <= last; nr++) {
+					final ILine line = method.getLine(nr);
+					writeCounter(out, line.getInstructionCounter());
+					writeCounter(out, line.getBranchCounter());
+				}
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static IClassCoverage decode(final byte[] bytes)
+			throws IOException {
+		final CompactDataInput in = new CompactDataInput(
+				new ByteArrayInputStream(bytes));
+		final String name = in.readUTF();
+		final long id = in.readLong();
+		final boolean noMatch = in.readBoolean();
+		final ClassCoverageImpl coverage = new ClassCoverageImpl(name, id,
+				noMatch);
+		coverage.setSignature(readString(in));
+		coverage.setSuperName(readString(in));
+		final int interfaceCount = in.readVarInt();
+		if (interfaceCount > 0) {
+			final String[] interfaces = new String[interfaceCount - 1];
+			for (int i = 0; i < interfaces.length; i++) {
+				interfaces[i] = in.readUTF();
+			}
+			coverage.setInterfaces(interfaces);
+		}
+		coverage.setSourceFileName(readString(in));
+		final int methodCount = in.readVarInt();
+		for (int i = 0; i < methodCount; i++) {
+			final MethodCoverageImpl method = new MethodCoverageImpl(
+					in.readUTF(), in.readUTF(), readString(in));
+			final CounterImpl instructions = readCounter(in);
+			final CounterImpl branches = readCounter(in);
+			final CounterImpl complexity = readCounter(in);
+			final CounterImpl methods = readCounter(in);
+			final int first = in.readVarInt() - 1;
+			if (first != ISourceNode.UNKNOWN_LINE) {
+				final int last = first + in.readVarInt();
+				method.ensureCapacity(first, last);
+				for (int nr = first; nr <= last; nr++) {
+					final CounterImpl lineInstructions = readCounter(in);
+					final CounterImpl lineBranches = readCounter(in);
+					if (lineInstructions.getTotalCount() > 0
+							|| lineBranches.getTotalCount() > 0) {
+						method.increment(lineInstructions, lineBranches, nr);
+					}
+				}
+			}
+			method.setCounters(instructions, branches, complexity, methods);
+			coverage.addMethod(method);
+		}
+		return coverage;
+	}
+
+	private static void writeString(final CompactDataOutput out, final String s)
+			throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static String readString(final CompactDataInput in)
+			throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeCounter(final CompactDataOutput out,
+			final ICounter counter) throws IOException {
+		out.writeVarInt(counter.getMissedCount());
+		out.writeVarInt(counter.getCoveredCount());
+	}
+
+	private static CounterImpl readCounter(final CompactDataInput in)
+			throws IOException {
+		final int missed = in.readVarInt();
+		return CounterImpl.getInstance(missed, in.readVarInt());
+	}
+
+	/**
+	 * Checksum of a class file and hash of its probes.
+	 */
+	private static final class Key {
+
+		final long checksum;
+
+		final long probes;
+
+		Key(final long checksum, final long probes) {
+			this.checksum = checksum;
+			this.probes = probes;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return checksum == other.checksum && probes == other.probes;
+		}
+
+		@Override
+		public int hashCode() {
+			final long h = checksum * 31 + probes;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+}
@@ -16,11 +16,19 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import org.ijacoco.core.coverage.data.ClassIdCache;
 import org.ijacoco.core.coverage.data.ExecutionData;
 import org.ijacoco.core.coverage.data.ExecutionDataStore;
 import org.ijacoco.core.coverage.internal.ContentTypeDetector;
@@ -32,7 +40,6 @@ import org.ijacoco.core.coverage.internal.analysis.StringPool;
 import org.ijacoco.core.coverage.internal.data.CRC64;
 import org.ijacoco.core.coverage.internal.flow.ClassProbesAdapter;
 import org.ijacoco.core.coverage.internal.instr.InstrSupport;
-import org.ijacoco.core.rts.hash.BytecodeCleaner;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Opcodes;
@@ -44,15 +51,41 @@ import org.objectweb.asm.Opcodes;
  * {@link Analyzer} requires a {@link ExecutionDataStore} instance that holds
  * the execution data for the classes to analyze. The {@link Analyzer} offers
  * several methods to analyze classes from a variety of sources.
+ *
+ * An {@link Analyzer} created with an {@link ExecutorService} analyzes classes
+ * in parallel: class files are still found and read by the calling thread, but
+ * parsed and analyzed by the executor. The coverage of classes is reported by
+ * the calling thread in the order the class files are found, i.e., in the same
+ * order as without executor, and each public method returns once all classes it
+ * found are reported.
  */
 public class Analyzer {
 
+	/**
+	 * Maximum number of classes that are read (by the calling thread) but not
+	 * yet reported, when analyzing in parallel
+	 */
+	private static final int MAX_PENDING = 256;
+
 	private final ExecutionDataStore executionData;
 
 	private final ICoverageVisitor coverageVisitor;
 
 	private final StringPool stringPool;
 
+	/** Executor that analyzes classes, or <code>null</code> */
+	private final ExecutorService executor;
+
+	/** Classes submitted to the executor, in the order they were found */
+	private final ArrayDeque<Future<IClassCoverage>> pending;
+
+	/** String pools of the executor threads */
+	private final ThreadLocal<StringPool> stringPools;
+
+	private ClassIdCache classIds;
+
+	private AnalysisCache analysisCache;
+
 	/**
 	 * Creates a new analyzer reporting to the given output.
 	 *
@@ -64,9 +97,61 @@ public class Analyzer {
 	 */
 	public Analyzer(final ExecutionDataStore executionData,
 			final ICoverageVisitor coverageVisitor) {
+		this(executionData, coverageVisitor, null);
+	}
+
+	/**
+	 * Creates a new analyzer reporting to the given output, which analyzes
+	 * classes with the given executor. The execution data must not be modified
+	 * while classes are analyzed. The executor is not shut down by the
+	 * analyzer.
+	 *
+	 * @param executionData
+	 *            execution data
+	 * @param coverageVisitor
+	 *            the output instance that will coverage data for every analyzed
+	 *            class
+	 * @param executor
+	 *            executor to analyze classes with, or <code>null</code> to
+	 *            analyze classes in the calling thread
+	 */
+	public Analyzer(final ExecutionDataStore executionData,
+			final ICoverageVisitor coverageVisitor,
+			final ExecutorService executor) {
 		this.executionData = executionData;
 		this.coverageVisitor = coverageVisitor;
 		this.stringPool = new StringPool();
+		this.executor = executor;
+		this.pending = new ArrayDeque<Future<IClassCoverage>>();
+		this.stringPools = new ThreadLocal<StringPool>() {
+			@Override
+			protected StringPool initialValue() {
+				return new StringPool();
+			}
+		};
+	}
+
+	/**
+	 * Sets a cache to look up ids of classes in. Without a cache, the id of
+	 * each class is computed from the class file.
+	 *
+	 * @param classIds
+	 *            cache of class ids, or <code>null</code>
+	 */
+	public void setClassIdCache(final ClassIdCache classIds) {
+		this.classIds = classIds;
+	}
+
+	/**
+	 * Sets a cache of the coverage of classes from previous analyses. With a
+	 * cache, a class is analyzed only if its class file or its execution data
+	 * changed; otherwise its coverage is taken from the cache.
+	 *
+	 * @param analysisCache
+	 *            cache of analyzed classes, or <code>null</code>
+	 */
+	public void setAnalysisCache(final AnalysisCache analysisCache) {
+		this.analysisCache = analysisCache;
 	}
 
 	/**
@@ -76,36 +161,37 @@ public class Analyzer {
 	 *            id of the class calculated with {@link CRC64}
 	 * @param className
 	 *            VM name of the class
+	 * @param data
+	 *            execution data of the class, or <code>null</code>
+	 * @param noMatch
+	 *            whether there is execution data with another id for the class
+	 * @param output
+	 *            visitor to report the coverage of the class to
 	 * @return ASM visitor to write class definition to
 	 */
 	private ClassVisitor createAnalyzingVisitor(final long classid,
-			final String className) {
-		final ExecutionData data = executionData.get(classid);
-		final boolean[] probes;
-		final boolean noMatch;
-		if (data == null) {
-			probes = null;
-			noMatch = executionData.contains(className);
-		} else {
-			probes = data.getProbes();
-			noMatch = false;
-		}
+			final String className, final ExecutionData data,
+			final boolean noMatch, final ICoverageVisitor output) {
+		// A copy, so packed probes stay packed in the store.
+		final boolean[] probes = data == null ? null : data.copyProbes();
 		final ClassCoverageImpl coverage = new ClassCoverageImpl(className,
 				classid, noMatch);
 		final ClassAnalyzer analyzer = new ClassAnalyzer(coverage, probes,
-				stringPool) {
+				executor == null ? stringPool : stringPools.get()) {
 			@Override
 			public void visitEnd() {
 				super.visitEnd();
-				coverageVisitor.visitCoverage(coverage);
+				output.visitCoverage(coverage);
 			}
 		};
 		return new ClassProbesAdapter(analyzer, false);
 	}
 
-	private void analyzeClass(final byte[] source) {
-		byte[] sourceWithoutDebugInfo = BytecodeCleaner.removeDebugInfo(source);
-		final long classId = CRC64.classId(sourceWithoutDebugInfo);
+	private void analyzeClass(final byte[] source,
+			final ICoverageVisitor output) {
+		final long classId = classIds == null
+				? ClassIdCache.computeClassId(source)
+				: classIds.classId(source);
 		final ClassReader reader = InstrSupport.classReaderFor(source);
 		if ((reader.getAccess() & Opcodes.ACC_MODULE) != 0) {
 			return;
@@ -113,9 +199,29 @@ public class Analyzer {
 		if ((reader.getAccess() & Opcodes.ACC_SYNTHETIC) != 0) {
 			return;
 		}
-		final ClassVisitor visitor = createAnalyzingVisitor(classId,
-				reader.getClassName());
-		reader.accept(visitor, 0);
+		final String className = reader.getClassName();
+		final ExecutionData data = executionData.get(classId);
+		final boolean noMatch = data == null
+				&& executionData.contains(className);
+		ICoverageVisitor visitor = output;
+		if (analysisCache != null) {
+			final long checksum = CRC64.checksum(source);
+			final long probesHash = AnalysisCache.probesHash(data, noMatch);
+			final IClassCoverage cached = analysisCache.get(checksum,
+					probesHash);
+			if (cached != null) {
+				output.visitCoverage(cached);
+				return;
+			}
+			visitor = new ICoverageVisitor() {
+				public void visitCoverage(final IClassCoverage coverage) {
+					analysisCache.put(checksum, probesHash, coverage);
+					output.visitCoverage(coverage);
+				}
+			};
+		}
+		reader.accept(createAnalyzingVisitor(classId, className, data, noMatch,
+				visitor), 0);
 	}
 
 	/**
@@ -131,9 +237,10 @@ public class Analyzer {
 	public void analyzeClass(final byte[] buffer, final String location)
 			throws IOException {
 		try {
-			analyzeClass(buffer);
-		} catch (final RuntimeException cause) {
-			throw analyzerError(location, cause);
+			analyze(buffer, location);
+			reportPending();
+		} finally {
+			cancelPending();
 		}
 	}
 
@@ -150,13 +257,94 @@ public class Analyzer {
 	 */
 	public void analyzeClass(final InputStream input, final String location)
 			throws IOException {
-		final byte[] buffer;
+		analyzeClass(readClass(input, location), location);
+	}
+
+	private byte[] readClass(final InputStream input, final String location)
+			throws IOException {
 		try {
-			buffer = InputStreams.readFully(input);
+			return InputStreams.readFully(input);
 		} catch (final IOException e) {
 			throw analyzerError(location, e);
 		}
-		analyzeClass(buffer, location);
+	}
+
+	/**
+	 * Analyzes the given class, or submits it to the executor. If too many
+	 * classes are pending, waits for the oldest one to be reported first.
+	 */
+	private void analyze(final byte[] buffer, final String location)
+			throws IOException {
+		if (executor == null) {
+			try {
+				analyzeClass(buffer, coverageVisitor);
+			} catch (final RuntimeException cause) {
+				throw analyzerError(location, cause);
+			}
+			return;
+		}
+		if (pending.size() >= MAX_PENDING) {
+			report(pending.removeFirst());
+		}
+		pending.addLast(executor.submit(new Callable<IClassCoverage>() {
+			public IClassCoverage call() throws IOException {
+				final IClassCoverage[] result = new IClassCoverage[1];
+				try {
+					analyzeClass(buffer, new ICoverageVisitor() {
+						public void visitCoverage(
+								final IClassCoverage coverage) {
+							result[0] = coverage;
+						}
+					});
+				} catch (final RuntimeException cause) {
+					throw analyzerError(location, cause);
+				}
+				return result[0];
+			}
+		}));
+	}
+
+	/**
+	 * Reports all pending classes in order.
+	 */
+	private void reportPending() throws IOException {
+		while (!pending.isEmpty()) {
+			report(pending.removeFirst());
+		}
+	}
+
+	private void report(final Future<IClassCoverage> future)
+			throws IOException {
+		final IClassCoverage coverage;
+		try {
+			coverage = future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw (RuntimeException) cause;
+		}
+		// Module and synthetic classes are not reported.
+		if (coverage != null) {
+			coverageVisitor.visitCoverage(coverage);
+		}
+	}
+
+	/**
+	 * Drops pending classes (after an error).
+	 */
+	private void cancelPending() {
+		for (final Future<IClassCoverage> future : pending) {
+			future.cancel(false);
+		}
+		pending.clear();
 	}
 
 	private IOException analyzerError(final String location,
@@ -184,6 +372,17 @@ public class Analyzer {
 	 */
 	public int analyzeAll(final InputStream input, final String location)
 			throws IOException {
+		try {
+			final int count = analyzeStream(input, location);
+			reportPending();
+			return count;
+		} finally {
+			cancelPending();
+		}
+	}
+
+	private int analyzeStream(final InputStream input, final String location)
+			throws IOException {
 		final ContentTypeDetector detector;
 		try {
 			detector = new ContentTypeDetector(input);
@@ -192,7 +391,7 @@ public class Analyzer {
 		}
 		switch (detector.getType()) {
 		case ContentTypeDetector.CLASSFILE:
-			analyzeClass(detector.getInputStream(), location);
+			analyze(readClass(detector.getInputStream(), location), location);
 			return 1;
 		case ContentTypeDetector.ZIPFILE:
 			return analyzeZip(detector.getInputStream(), location);
@@ -217,15 +416,49 @@ public class Analyzer {
 	 *             if the file can't be read or a class can't be analyzed
 	 */
 	public int analyzeAll(final File file) throws IOException {
+		try {
+			final int count = analyzeFile(file);
+			reportPending();
+			return count;
+		} finally {
+			cancelPending();
+		}
+	}
+
+	/**
+	 * Analyzes all class files contained in the given files or folders (see
+	 * {@link #analyzeAll(File)}). With an executor, classes of all files are
+	 * analyzed in parallel.
+	 *
+	 * @param files
+	 *            files or folders to look for class files
+	 * @return number of class files found
+	 * @throws IOException
+	 *             if a file can't be read or a class can't be analyzed
+	 */
+	public int analyzeAll(final Collection<File> files) throws IOException {
+		try {
+			int count = 0;
+			for (final File file : files) {
+				count += analyzeFile(file);
+			}
+			reportPending();
+			return count;
+		} finally {
+			cancelPending();
+		}
+	}
+
+	private int analyzeFile(final File file) throws IOException {
 		int count = 0;
 		if (file.isDirectory()) {
 			for (final File f : file.listFiles()) {
-				count += analyzeAll(f);
+				count += analyzeFile(f);
 			}
 		} else {
 			final InputStream in = new FileInputStream(file);
 			try {
-				count += analyzeAll(in, file.getPath());
+				count += analyzeStream(in, file.getPath());
 			} finally {
 				in.close();
 			}
@@ -249,13 +482,18 @@ public class Analyzer {
 	 */
 	public int analyzeAll(final String path, final File basedir)
 			throws IOException {
-		int count = 0;
-		final StringTokenizer st = new StringTokenizer(path,
-				File.pathSeparator);
-		while (st.hasMoreTokens()) {
-			count += analyzeAll(new File(basedir, st.nextToken()));
+		try {
+			int count = 0;
+			final StringTokenizer st = new StringTokenizer(path,
+					File.pathSeparator);
+			while (st.hasMoreTokens()) {
+				count += analyzeFile(new File(basedir, st.nextToken()));
+			}
+			reportPending();
+			return count;
+		} finally {
+			cancelPending();
 		}
-		return count;
 	}
 
 	private int analyzeZip(final InputStream input, final String location)
@@ -264,7 +502,7 @@ public class Analyzer {
 		ZipEntry entry;
 		int count = 0;
 		while ((entry = nextEntry(zip, location)) != null) {
-			count += analyzeAll(zip, location + "@" + entry.getName());
+			count += analyzeStream(zip, location + "@" + entry.getName());
 		}
 		return count;
 	}
@@ -286,7 +524,7 @@ public class Analyzer {
 		} catch (final IOException e) {
 			throw analyzerError(location, e);
 		}
-		return analyzeAll(gzipInputStream, location);
+		return analyzeStream(gzipInputStream, location);
 	}
 
 	private int analyzePack200(final InputStream input, final String location)
@@ -297,7 +535,7 @@ public class Analyzer {
 		} catch (final IOException e) {
 			throw analyzerError(location, e);
 		}
-		return analyzeAll(unpackedInput, location);
+		return analyzeStream(unpackedInput, location);
 	}
 
 }
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ijacoco.core.coverage.internal.data.CRC64;
+import org.ijacoco.core.rts.Config;
+import org.ijacoco.core.rts.Names;
+import org.ijacoco.core.rts.hash.BytecodeCleaner;
+import org.ijacoco.core.rts.util.FileUtil;
+
+/**
+ * Class ids by checksum of class files. The id of a class is the checksum of
+ * the class file without debug info ({@link #computeClassId(byte[])}), which
+ * takes an extra parse of the class file; the cache maps the (much cheaper)
+ * checksum of the class file as it is to the id instead.
+ *
+ * Ids from previous runs are kept in a file in the RTS directory
+ * ({@link Names#CLASS_IDS_FILE_NAME}), so that classes that did not change are
+ * not parsed again when they are instrumented (in each forked VM) or analyzed.
+ * The file is read once, when the first id is looked up, and ids computed since
+ * are added to the file with {@link #save()}.
+ *
+ * <pre>
+ * header:  int magic, int version, int count
+ * entries: count * (long checksum, long id), sorted by checksum
+ * </pre>
+ *
+ * An instance of this class is thread safe.
+ */
+public final class ClassIdCache {
+
+	private static final int MAGIC = 0x636F7669;
+
+	/**
+	 * Version of the format; must change whenever ids change, e.g., if
+	 * {@link BytecodeCleaner} keeps other parts of class files
+	 */
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 12;
+
+	private static final int ENTRY_SIZE = 16;
+
+	/** Maximum number of ids in the file; if exceeded, the file starts over */
+	private static final int MAX_ENTRIES = 1 << 20;
+
+	/** File of the cache, or null if in the RTS directory (not resolved yet) */
+	private File file;
+
+	/** Ids from the file (pairs of checksum and id), or null if not read yet */
+	private long[] previous;
+
+	/** Ids computed since the file was read */
+	private final Map<Long, Long> computed = new HashMap<Long, Long>();
+
+	/**
+	 * Creates a cache that is kept in the given file.
+	 *
+	 * @param file
+	 *            file of the cache
+	 */
+	public ClassIdCache(final File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Creates a cache that is kept in the (configured) RTS directory. The
+	 * directory is resolved on first use, so the cache can be created before
+	 * the configuration is loaded (e.g., by another agent).
+	 *
+	 * @return cache in the RTS directory
+	 */
+	public static ClassIdCache inRTSDir() {
+		return new ClassIdCache(null);
+	}
+
+	/**
+	 * Computes the id of the given class (without looking it up).
+	 *
+	 * @param source
+	 *            class file
+	 * @return id of the class
+	 */
+	public static long computeClassId(final byte[] source) {
+		return CRC64.classId(BytecodeCleaner.removeDebugInfo(source));
+	}
+
+	/**
+	 * Returns the id of the given class.
+	 *
+	 * @param source
+	 *            class file
+	 * @return id of the class
+	 */
+	public long classId(final byte[] source) {
+		final long checksum = CRC64.checksum(source);
+		synchronized (this) {
+			if (previous == null) {
+				previous = read(file());
+			}
+			final int index = indexOf(previous, checksum);
+			if (index >= 0) {
+				return previous[index + 1];
+			}
+			final Long id = computed.get(Long.valueOf(checksum));
+			if (id != null) {
+				return id.longValue();
+			}
+		}
+		// Computed outside of the lock, as classes may be loaded in parallel.
+		final long id = computeClassId(source);
+		synchronized (this) {
+			computed.put(Long.valueOf(checksum), Long.valueOf(id));
+		}
+		return id;
+	}
+
+	/**
+	 * Adds ids computed since the file was read to the file (if the directory
+	 * of the file exists).
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read or written
+	 */
+	public void save() throws IOException {
+		final Map<Long, Long> entries = new TreeMap<Long, Long>();
+		final File target;
+		synchronized (this) {
+			if (computed.isEmpty()) {
+				return;
+			}
+			entries.putAll(computed);
+			target = file();
+		}
+		final File dir = target.getAbsoluteFile().getParentFile();
+		if (dir == null || !dir.isDirectory()) {
+			return;
+		}
+		final RandomAccessFile raf = new RandomAccessFile(target, "rw");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final FileLock lock = channel.lock();
+			try {
+				// Entries may have been added by other VMs since.
+				final long[] current = parse(readFully(channel));
+				if (current.length / 2 + entries.size() <= MAX_ENTRIES) {
+					for (int i = 0; i < current.length; i += 2) {
+						final Long checksum = Long.valueOf(current[i]);
+						if (!entries.containsKey(checksum)) {
+							entries.put(checksum, Long.valueOf(current[i + 1]));
+						}
+					}
+				}
+				final ByteBuffer content = ByteBuffer
+						.allocate(HEADER_SIZE + entries.size() * ENTRY_SIZE);
+				content.putInt(MAGIC);
+				content.putInt(VERSION);
+				content.putInt(entries.size());
+				for (final Map.Entry<Long, Long> entry : entries.entrySet()) {
+					content.putLong(entry.getKey().longValue());
+					content.putLong(entry.getValue().longValue());
+				}
+				content.flip();
+				channel.truncate(0);
+				long position = 0;
+				while (content.hasRemaining()) {
+					position += channel.write(content, position);
+				}
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(raf);
+		}
+	}
+
+	// INTERNAL
+
+	private File file() {
+		if (file == null) {
+			file = new File(Config.RTS_DIR_V, Names.CLASS_IDS_FILE_NAME);
+		}
+		return file;
+	}
+
+	/**
+	 * Reads ids from the given file; the file is not kept open (or mapped), as
+	 * other VMs may rewrite it.
+	 */
+	private static long[] read(final File file) {
+		if (!file.isFile()) {
+			return new long[0];
+		}
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				final FileChannel channel = raf.getChannel();
+				final FileLock lock = channel.lock(0L, Long.MAX_VALUE, true);
+				try {
+					return parse(readFully(channel));
+				} finally {
+					lock.release();
+				}
+			} finally {
+				FileUtil.closeAndIgnoreExceptions(raf);
+			}
+		} catch (final IOException ex) {
+			// Ids are computed again.
+			return new long[0];
+		}
+	}
+
+	private static ByteBuffer readFully(final FileChannel channel)
+			throws IOException {
+		final ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+		while (content.hasRemaining()) {
+			if (channel.read(content, content.position()) < 0) {
+				break;
+			}
+		}
+		content.flip();
+		return content;
+	}
+
+	/**
+	 * Parses the given content.
+	 *
+	 * @return checksums and ids (sorted by checksum); empty if the content is
+	 *         not of the current version
+	 */
+	private static long[] parse(final ByteBuffer content) {
+		if (content.remaining() < HEADER_SIZE || content.getInt(0) != MAGIC
+				|| content.getInt(4) != VERSION) {
+			return new long[0];
+		}
+		final int count = content.getInt(8);
+		if (count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > content
+				.remaining()) {
+			return new long[0];
+		}
+		final long[] entries = new long[count * 2];
+		content.position(HEADER_SIZE);
+		content.asLongBuffer().get(entries);
+		return entries;
+	}
+
+	/**
+	 * Returns the index of the given checksum in the given entries, or -1.
+	 */
+	private static int indexOf(final long[] entries, final long checksum) {
+		int low = 0;
+		int high = entries.length / 2 - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final long value = entries[mid * 2];
+			if (value < checksum) {
+				low = mid + 1;
+			} else if (value > checksum) {
+				high = mid - 1;
+			} else {
+				return mid * 2;
+			}
+		}
+		return -1;
+	}
+
+}
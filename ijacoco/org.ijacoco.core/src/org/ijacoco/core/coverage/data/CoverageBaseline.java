@@ -0,0 +1,347 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.ijacoco.core.rts.Config;
+import org.ijacoco.core.rts.Names;
+import org.ijacoco.core.rts.util.ByteBufferInputStream;
+import org.ijacoco.core.rts.util.FileUtil;
+
+/**
+ * Execution data of all classes from previous runs, kept in the RTS directory
+ * ({@link Names#COVERAGE_BASELINE_FILE_NAME}) so that it survives clean builds
+ * (unlike the exec file in the build output directory). Entries are keyed by VM
+ * name and sorted; an index at the beginning of the file gives the offset of
+ * each entry, so an entry can be read without decoding others. Updating the
+ * baseline decodes only entries of classes that are in the current run; other
+ * kept entries are copied as they are.
+ *
+ * <pre>
+ * header:  UTF magic, int version, int count
+ * index:   count * (UTF name, int offset from the end of index, int length)
+ * entries: for each name: int count,
+ *          count * (long id, int probe count, (probe count + 7) / 8 bytes)
+ * </pre>
+ *
+ * The file is read and rewritten in place under a file lock, as several
+ * (forked) processes may update it at the same time.
+ */
+public final class CoverageBaseline {
+
+	private static final String MAGIC = "iJaCoCo coverage baseline";
+
+	/** Version of the format; a file with another version is ignored */
+	private static final int VERSION = 1;
+
+	private final File file;
+
+	/**
+	 * Creates a baseline that is kept in the given file.
+	 *
+	 * @param file
+	 *            file of the baseline
+	 */
+	public CoverageBaseline(final File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Creates a baseline that is kept in the (configured) RTS directory.
+	 *
+	 * @return baseline in the RTS directory
+	 */
+	public static CoverageBaseline inRTSDir() {
+		return new CoverageBaseline(
+				new File(Config.RTS_DIR_V, Names.COVERAGE_BASELINE_FILE_NAME));
+	}
+
+	/**
+	 * Checks whether the baseline has been written.
+	 *
+	 * @return <code>true</code> if the file of the baseline exists
+	 */
+	public boolean exists() {
+		return file.length() > 0;
+	}
+
+	/**
+	 * Checks whether the baseline can be written, i.e., whether the directory
+	 * of the baseline exists.
+	 *
+	 * @return <code>true</code> if the baseline can be written
+	 */
+	public boolean isWritable() {
+		final File dir = file.getAbsoluteFile().getParentFile();
+		return dir != null && dir.isDirectory();
+	}
+
+	/**
+	 * Reads execution data of the class with the given name.
+	 *
+	 * @param name
+	 *            VM name of the class
+	 * @return execution data of the class (empty if the class is not in the
+	 *         baseline)
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public Collection<ExecutionData> get(final String name) throws IOException {
+		if (!exists()) {
+			return Collections.emptyList();
+		}
+		final ByteBuffer entry = parse(read()).get(name);
+		final ExecutionDataStore store = new ExecutionDataStore();
+		if (entry != null) {
+			decode(name, entry, store);
+		}
+		return store.getContents();
+	}
+
+	/**
+	 * Merges execution data of the current run into the baseline and passes the
+	 * content of the updated baseline to the given visitor. Execution data in
+	 * the baseline is dropped for classes that the current store ignores (see
+	 * {@link ExecutionDataStore#getIgnoredPreviousClasses()}); otherwise it is
+	 * merged with the current data. The current store is not modified (unless
+	 * it is the given visitor).
+	 *
+	 * @param current
+	 *            execution data of the current run
+	 * @param visitor
+	 *            visitor that receives merged execution data of all classes
+	 * @throws IOException
+	 *             if the file cannot be read or written
+	 */
+	public void update(final ExecutionDataStore current,
+			final IExecutionDataVisitor visitor) throws IOException {
+		final ExecutionDataStore.ClassNames ignored = current
+				.getIgnoredPreviousClasses();
+		final Map<String, List<ExecutionData>> currentEntries = new HashMap<String, List<ExecutionData>>();
+		for (final ExecutionData data : current.getContents()) {
+			List<ExecutionData> list = currentEntries.get(data.getName());
+			if (list == null) {
+				list = new ArrayList<ExecutionData>(1);
+				currentEntries.put(data.getName(), list);
+			}
+			list.add(data);
+		}
+
+		final SortedMap<String, ByteBuffer> entries;
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final FileLock lock = channel.lock();
+			try {
+				final SortedMap<String, ByteBuffer> previous = parse(
+						readFully(channel));
+				entries = new TreeMap<String, ByteBuffer>();
+				for (final Map.Entry<String, ByteBuffer> entry : previous
+						.entrySet()) {
+					final String name = entry.getKey();
+					if (!ignored.contains(name)
+							&& !currentEntries.containsKey(name)) {
+						entries.put(name, entry.getValue());
+					}
+				}
+				for (final Map.Entry<String, List<ExecutionData>> entry : currentEntries
+						.entrySet()) {
+					final String name = entry.getKey();
+					// Previous data is decoded first, so merging does not
+					// change the current data.
+					final ExecutionDataStore merged = new ExecutionDataStore();
+					final ByteBuffer previousEntry = previous.get(name);
+					if (previousEntry != null && !ignored.contains(name)) {
+						decode(name, previousEntry, merged);
+					}
+					for (final ExecutionData data : entry.getValue()) {
+						merged.put(data);
+					}
+					entries.put(name, ByteBuffer.wrap(encode(merged)));
+				}
+				final byte[] content = encode(entries);
+				channel.truncate(0);
+				final ByteBuffer buffer = ByteBuffer.wrap(content);
+				long position = 0;
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+				channel.force(true);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(raf);
+		}
+
+		for (final Map.Entry<String, ByteBuffer> entry : entries.entrySet()) {
+			final ExecutionDataStore store = new ExecutionDataStore();
+			decode(entry.getKey(), entry.getValue(), store);
+			store.accept(visitor);
+		}
+	}
+
+	// INTERNAL
+
+	private ByteBuffer read() throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final FileLock lock = channel.lock(0L, Long.MAX_VALUE, true);
+			try {
+				return readFully(channel);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(raf);
+		}
+	}
+
+	private static ByteBuffer readFully(final FileChannel channel)
+			throws IOException {
+		final ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+		while (content.hasRemaining()) {
+			if (channel.read(content, content.position()) < 0) {
+				break;
+			}
+		}
+		content.flip();
+		return content;
+	}
+
+	/**
+	 * Parses the index of the given content.
+	 *
+	 * @return Entries (not decoded) by name; empty if the content is not a
+	 *         baseline of the current version.
+	 */
+	private static SortedMap<String, ByteBuffer> parse(final ByteBuffer content)
+			throws IOException {
+		final SortedMap<String, ByteBuffer> entries = new TreeMap<String, ByteBuffer>();
+		if (!content.hasRemaining()) {
+			return entries;
+		}
+		final ByteBuffer buffer = content.duplicate();
+		final DataInputStream in = new DataInputStream(
+				new ByteBufferInputStream(buffer));
+		try {
+			if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+				return entries;
+			}
+			final int count = in.readInt();
+			final String[] names = new String[count];
+			final int[] offsets = new int[count];
+			final int[] lengths = new int[count];
+			for (int i = 0; i < count; i++) {
+				names[i] = in.readUTF();
+				offsets[i] = in.readInt();
+				lengths[i] = in.readInt();
+			}
+			final int start = buffer.position();
+			for (int i = 0; i < count; i++) {
+				final ByteBuffer entry = content.duplicate();
+				entry.position(start + offsets[i]);
+				entry.limit(start + offsets[i] + lengths[i]);
+				entries.put(names[i], entry.slice());
+			}
+		} catch (final IOException ex) {
+			// Incomplete file; start over.
+			entries.clear();
+		} catch (final IllegalArgumentException ex) {
+			entries.clear();
+		}
+		return entries;
+	}
+
+	private static byte[] encode(final SortedMap<String, ByteBuffer> entries)
+			throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(baos);
+		out.writeUTF(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(entries.size());
+		int offset = 0;
+		for (final Map.Entry<String, ByteBuffer> entry : entries.entrySet()) {
+			final int length = entry.getValue().remaining();
+			out.writeUTF(entry.getKey());
+			out.writeInt(offset);
+			out.writeInt(length);
+			offset += length;
+		}
+		for (final ByteBuffer entry : entries.values()) {
+			final ByteBuffer bytes = entry.duplicate();
+			while (bytes.hasRemaining()) {
+				out.write(bytes.get());
+			}
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private static byte[] encode(final ExecutionDataStore store)
+			throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(baos);
+		final Collection<ExecutionData> contents = store.getContents();
+		out.writeInt(contents.size());
+		for (final ExecutionData data : contents) {
+			final long[] words = data.getPackedProbes();
+			final int probeCount = data.getProbeCount();
+			out.writeLong(data.getId());
+			out.writeInt(probeCount);
+			for (int i = 0; i < (probeCount + 7) / 8; i++) {
+				out.write((int) (words[i >>> 3] >>> ((i & 7) << 3)));
+			}
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private static void decode(final String name, final ByteBuffer entry,
+			final ExecutionDataStore store) throws IOException {
+		final DataInputStream in = new DataInputStream(
+				new ByteBufferInputStream(entry.duplicate()));
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			final long id = in.readLong();
+			final int probeCount = in.readInt();
+			final long[] words = new long[ExecutionData.wordCount(probeCount)];
+			for (int j = 0; j < (probeCount + 7) / 8; j++) {
+				words[j >>> 3] |= (0xFFL & in.readByte()) << ((j & 7) << 3);
+			}
+			store.put(new ExecutionData(id, name, probeCount, words));
+		}
+	}
+}
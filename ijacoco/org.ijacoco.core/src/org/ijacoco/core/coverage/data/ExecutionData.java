@@ -20,6 +20,14 @@ import java.util.Arrays;
  * Execution data for a single Java class. While instances are immutable care
  * has to be taken about the probe data array of type <code>boolean[]</code>
  * which can be modified.
+ *
+ * Probes are kept either as a <code>boolean[]</code> (as used by instrumented
+ * code) or packed into bits of <code>long</code> words (as read from execution
+ * data files), which takes an eighth of the memory and lets merging and
+ * subtracting work on whole words. Packed probes are unpacked once
+ * {@link #getProbes()} is called; unpacking may happen concurrently with
+ * reading the probes (e.g., while execution data is dumped), so both forms are
+ * kept in a single field that each method reads once.
  */
 public final class ExecutionData {
 
@@ -27,7 +35,13 @@ public final class ExecutionData {
 
 	private final String name;
 
-	private final boolean[] probes;
+	private final int probeCount;
+
+	/**
+	 * Probe data, either a <code>boolean[]</code> or packed into a
+	 * <code>long[]</code> (probe i is bit i % 64 of word i / 64)
+	 */
+	private volatile Object data;
 
 	/**
 	 * Creates a new {@link ExecutionData} object with the given probe data.
@@ -43,7 +57,8 @@ public final class ExecutionData {
 			final boolean[] probes) {
 		this.id = id;
 		this.name = name;
-		this.probes = probes;
+		this.probeCount = probes.length;
+		this.data = probes;
 	}
 
 	/**
@@ -61,7 +76,36 @@ public final class ExecutionData {
 			final int probeCount) {
 		this.id = id;
 		this.name = name;
-		this.probes = new boolean[probeCount];
+		this.probeCount = probeCount;
+		this.data = new boolean[probeCount];
+	}
+
+	/**
+	 * Creates a new {@link ExecutionData} object with the given packed probe
+	 * data. Probe <code>i</code> is bit <code>i % 64</code> of word
+	 * <code>i / 64</code>; bits above the probe count must not be set.
+	 *
+	 * @param id
+	 *            class identifier
+	 * @param name
+	 *            VM name
+	 * @param probeCount
+	 *            probe count
+	 * @param words
+	 *            packed probe data of length
+	 *            <code>(probeCount + 63) / 64</code>
+	 */
+	public ExecutionData(final long id, final String name, final int probeCount,
+			final long[] words) {
+		if (words.length != wordCount(probeCount)) {
+			throw new IllegalArgumentException(format(
+					"Invalid packed probe data for class %s with id %016x.",
+					name, Long.valueOf(id)));
+		}
+		this.id = id;
+		this.name = name;
+		this.probeCount = probeCount;
+		this.data = words;
 	}
 
 	/**
@@ -83,21 +127,62 @@ public final class ExecutionData {
 		return name;
 	}
 
+	/**
+	 * Returns the number of probes.
+	 *
+	 * @return probe count
+	 */
+	public int getProbeCount() {
+		return probeCount;
+	}
+
 	/**
 	 * Returns the execution data probes. A value of <code>true</code> indicates
-	 * that the corresponding probe was executed.
+	 * that the corresponding probe was executed. Packed probes are unpacked, so
+	 * the returned array can be modified as before.
 	 *
 	 * @return probe data
 	 */
 	public boolean[] getProbes() {
+		final Object d = data;
+		if (d instanceof boolean[]) {
+			return (boolean[]) d;
+		}
+		return unpackProbes();
+	}
+
+	private synchronized boolean[] unpackProbes() {
+		final Object d = data;
+		if (d instanceof boolean[]) {
+			return (boolean[]) d;
+		}
+		final boolean[] probes = unpack((long[]) d, probeCount);
+		data = probes;
 		return probes;
 	}
 
+	/**
+	 * Returns a copy of the execution data probes, without unpacking packed
+	 * probes.
+	 *
+	 * @return copy of probe data
+	 */
+	public boolean[] copyProbes() {
+		final Object d = data;
+		return d instanceof long[] ? unpack((long[]) d, probeCount)
+				: ((boolean[]) d).clone();
+	}
+
 	/**
 	 * Sets all probes to <code>false</code>.
 	 */
-	public void reset() {
-		Arrays.fill(probes, false);
+	public synchronized void reset() {
+		final Object d = data;
+		if (d instanceof long[]) {
+			Arrays.fill((long[]) d, 0L);
+		} else {
+			Arrays.fill((boolean[]) d, false);
+		}
 	}
 
 	/**
@@ -106,7 +191,16 @@ public final class ExecutionData {
 	 * @return <code>true</code>, if at least one probe has been hit
 	 */
 	public boolean hasHits() {
-		for (final boolean p : probes) {
+		final Object d = data;
+		if (d instanceof long[]) {
+			for (final long w : (long[]) d) {
+				if (w != 0L) {
+					return true;
+				}
+			}
+			return false;
+		}
+		for (final boolean p : (boolean[]) d) {
 			if (p) {
 				return true;
 			}
@@ -156,17 +250,73 @@ public final class ExecutionData {
 	 * @param flag
 	 *            merge mode
 	 */
-	public void merge(final ExecutionData other, final boolean flag) {
+	public synchronized void merge(final ExecutionData other,
+			final boolean flag) {
 		assertCompatibility(other.getId(), other.getName(),
-				other.getProbes().length);
-		final boolean[] otherData = other.getProbes();
-		for (int i = 0; i < probes.length; i++) {
-			if (otherData[i]) {
-				probes[i] = flag;
+				other.getProbeCount());
+		final Object d = data;
+		final Object otherData = other.data;
+		if (d instanceof long[]) {
+			final long[] words = (long[]) d;
+			final long[] otherWords = otherData instanceof long[]
+					? (long[]) otherData
+					: pack((boolean[]) otherData);
+			for (int i = 0; i < words.length; i++) {
+				words[i] = flag ? words[i] | otherWords[i]
+						: words[i] & ~otherWords[i];
+			}
+		} else if (otherData instanceof long[]) {
+			final boolean[] probes = (boolean[]) d;
+			final long[] otherWords = (long[]) otherData;
+			for (int i = 0; i < probeCount; i++) {
+				if ((otherWords[i >>> 6] & (1L << i)) != 0L) {
+					probes[i] = flag;
+				}
+			}
+		} else {
+			final boolean[] probes = (boolean[]) d;
+			final boolean[] otherProbes = (boolean[]) otherData;
+			for (int i = 0; i < probes.length; i++) {
+				if (otherProbes[i]) {
+					probes[i] = flag;
+				}
 			}
 		}
 	}
 
+	/**
+	 * Checks whether every probe executed in the given execution data is also
+	 * executed in this object, i.e., whether merging the given execution data
+	 * into this object would not change it.
+	 *
+	 * @param other
+	 *            execution data to compare with
+	 * @return <code>true</code>, if no probe is executed only in the other
+	 *         execution data
+	 */
+	public boolean contains(final ExecutionData other) {
+		assertCompatibility(other.getId(), other.getName(),
+				other.getProbeCount());
+		final Object d = data;
+		final Object otherData = other.data;
+		if (d instanceof long[] && otherData instanceof long[]) {
+			final long[] words = (long[]) d;
+			final long[] otherWords = (long[]) otherData;
+			for (int i = 0; i < words.length; i++) {
+				if ((otherWords[i] & ~words[i]) != 0L) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (int i = 0; i < probeCount; i++) {
+			if (isExecuted(otherData, i) && !isExecuted(d, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Asserts that this execution data object is compatible with the given
 	 * parameters. The purpose of this check is to detect a very unlikely class
@@ -193,13 +343,64 @@ public final class ExecutionData {
 					format("Different class names %s and %s for id %016x.",
 							this.name, name, Long.valueOf(id)));
 		}
-		if (this.probes.length != probecount) {
+		if (this.probeCount != probecount) {
 			throw new IllegalStateException(format(
 					"Incompatible execution data for class %s with id %016x.",
 					name, Long.valueOf(id)));
 		}
 	}
 
+	private static boolean isExecuted(final Object data, final int probe) {
+		return data instanceof long[]
+				? (((long[]) data)[probe >>> 6] & (1L << probe)) != 0L
+				: ((boolean[]) data)[probe];
+	}
+
+	/**
+	 * Returns whether probes are packed.
+	 */
+	boolean isPacked() {
+		return data instanceof long[];
+	}
+
+	/**
+	 * Returns packed probe data; a copy is packed if probes are not packed. The
+	 * returned words must not be modified.
+	 */
+	long[] getPackedProbes() {
+		final Object d = data;
+		return d instanceof long[] ? (long[]) d : pack((boolean[]) d);
+	}
+
+	/**
+	 * Returns the number of words needed to pack the given number of probes.
+	 *
+	 * @param probeCount
+	 *            probe count
+	 * @return number of words
+	 */
+	public static int wordCount(final int probeCount) {
+		return (probeCount + 63) >>> 6;
+	}
+
+	private static long[] pack(final boolean[] probes) {
+		final long[] words = new long[wordCount(probes.length)];
+		for (int i = 0; i < probes.length; i++) {
+			if (probes[i]) {
+				words[i >>> 6] |= 1L << i;
+			}
+		}
+		return words;
+	}
+
+	private static boolean[] unpack(final long[] words, final int probeCount) {
+		final boolean[] probes = new boolean[probeCount];
+		for (int i = 0; i < probeCount; i++) {
+			probes[i] = (words[i >>> 6] & (1L << i)) != 0L;
+		}
+		return probes;
+	}
+
 	@Override
 	public String toString() {
 		return String.format("ExecutionData[name=%s, id=%016x]", name,
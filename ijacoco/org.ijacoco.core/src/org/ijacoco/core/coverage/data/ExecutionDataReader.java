@@ -14,10 +14,15 @@ package org.ijacoco.core.coverage.data;
 
 import static java.lang.String.format;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import org.ijacoco.core.coverage.internal.data.CompactDataInput;
+import org.ijacoco.core.rts.util.ByteBufferInputStream;
 
 /**
  * Deserialization of execution data from binary streams.
@@ -33,6 +38,12 @@ public class ExecutionDataReader {
 
 	private boolean firstBlock = true;
 
+	/** Buffer that backs the input, or <code>null</code> */
+	private final ByteBuffer buffer;
+
+	/** Characters of the last name read from the buffer */
+	private char[] nameChars = new char[64];
+
 	/**
 	 * Creates a new reader based on the given input stream input. Depending on
 	 * the nature of the underlying stream input should be buffered as most data
@@ -43,6 +54,21 @@ public class ExecutionDataReader {
 	 */
 	public ExecutionDataReader(final InputStream input) {
 		this.in = new CompactDataInput(input);
+		this.buffer = null;
+	}
+
+	/**
+	 * Creates a new reader that reads execution data from the remaining content
+	 * of the given buffer (e.g., a mapped file). Execution data blocks are
+	 * decoded directly from the buffer, and packed probes are read a word at a
+	 * time. The position of the given buffer is not changed.
+	 *
+	 * @param buffer
+	 *            buffer to read execution data from
+	 */
+	public ExecutionDataReader(final ByteBuffer buffer) {
+		this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		this.in = new CompactDataInput(new ByteBufferInputStream(this.buffer));
 	}
 
 	/**
@@ -145,11 +171,102 @@ public class ExecutionDataReader {
 		if (executionDataVisitor == null) {
 			throw new IOException("No execution data visitor.");
 		}
+		if (buffer != null) {
+			readExecutionDataFromBuffer();
+			return;
+		}
 		final long id = in.readLong();
 		final String name = in.readUTF();
-		final boolean[] probes = in.readBooleanArray();
-		executionDataVisitor
-				.visitClassExecution(new ExecutionData(id, name, probes));
+		final int probeCount = in.readVarInt();
+		final long[] probes = in.readPackedBooleanArray(probeCount);
+		executionDataVisitor.visitClassExecution(
+				new ExecutionData(id, name, probeCount, probes));
+	}
+
+	private void readExecutionDataFromBuffer() throws IOException {
+		try {
+			final long id = buffer.getLong();
+			final String name = readName();
+			final int probeCount = readVarInt();
+			final long[] probes = readPackedBooleanArray(probeCount);
+			executionDataVisitor.visitClassExecution(
+					new ExecutionData(id, name, probeCount, probes));
+		} catch (final BufferUnderflowException ex) {
+			throw new EOFException();
+		}
+	}
+
+	/**
+	 * Reads a name (written with {@link java.io.DataOutput#writeUTF(String)})
+	 * from the buffer. ASCII names (i.e., most class names) are decoded in
+	 * place; others are read with {@link CompactDataInput#readUTF()}.
+	 */
+	private String readName() throws IOException {
+		final int position = buffer.position();
+		final int length = buffer.getShort() & 0xFFFF;
+		if (buffer.remaining() < length) {
+			throw new EOFException();
+		}
+		if (nameChars.length < length) {
+			nameChars = new char[Math.max(length, nameChars.length * 2)];
+		}
+		final int start = buffer.position();
+		for (int i = 0; i < length; i++) {
+			final byte b = buffer.get(start + i);
+			if (b <= 0) {
+				buffer.position(position);
+				return in.readUTF();
+			}
+			nameChars[i] = (char) b;
+		}
+		buffer.position(start + length);
+		return new String(nameChars, 0, length);
+	}
+
+	/**
+	 * Reads a value written with
+	 * {@link org.ijacoco.core.coverage.internal.data.CompactDataOutput#writeVarInt(int)}
+	 * from the buffer.
+	 */
+	private int readVarInt() {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Reads packed probes from the buffer; same as
+	 * {@link CompactDataInput#readPackedBooleanArray(int)}, but whole words are
+	 * read at once.
+	 */
+	private long[] readPackedBooleanArray(final int length) throws IOException {
+		final int byteCount = (length + 7) >>> 3;
+		final int position = buffer.position();
+		if (buffer.remaining() < byteCount) {
+			throw new EOFException();
+		}
+		final long[] words = new long[(length + 63) >>> 6];
+		final int fullWords = byteCount >>> 3;
+		for (int i = 0; i < fullWords; i++) {
+			// Probes are packed from the lowest bit of the first byte.
+			words[i] = Long.reverseBytes(buffer.getLong(position + (i << 3)));
+		}
+		for (int i = fullWords << 3; i < byteCount; i++) {
+			words[i >>> 3] |= (0xFFL
+					& buffer.get(position + i)) << ((i & 7) << 3);
+		}
+		if ((length & 63) != 0) {
+			// Ignore bits above the length.
+			words[words.length - 1] &= (1L << length) - 1;
+		}
+		buffer.position(position + byteCount);
+		return words;
 	}
 
 }
@@ -12,16 +12,14 @@
  *******************************************************************************/
 package org.ijacoco.core.coverage.data;
 
-import org.ijacoco.core.coverage.tools.FileUtils;
+import org.ijacoco.core.coverage.tools.CoverageClassesFile;
 import org.ijacoco.core.rts.Config;
 import org.ijacoco.core.rts.Names;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -34,7 +32,7 @@ import java.util.Set;
  */
 public final class ExecutionDataStore implements IExecutionDataVisitor {
 
-	private final Map<Long, ExecutionData> entries = new HashMap<Long, ExecutionData>();
+	private final ExecutionDataTable entries = new ExecutionDataTable();
 
 	private final Set<String> names = new HashSet<String>();
 
@@ -46,65 +44,116 @@ public final class ExecutionDataStore implements IExecutionDataVisitor {
 	 * @param other
 	 *            the other execution data store that overwrites the current
 	 *            store
+	 * @throws IOException
+	 *             if the RTS classes to update coverage file cannot be read
 	 */
-	public void merge(ExecutionDataStore other) {
-		File classesToOverwriteFile = new File(Config.RTS_DIR_V,
-				Names.CLASS_URLS_TO_UPDATE_COVERAGE_DATA_FILE);
-		if (classesToOverwriteFile.exists()) {
-			mergeWithCoverageClassFile(classesToOverwriteFile, other);
-			return;
-		}
-		Set<String> ignoredPreviousCoverageClasses = new HashSet<String>();
-		for (ExecutionData executionData : entries.values()) {
-			String className = executionData.getName();
-			ignoredPreviousCoverageClasses.add(className);
-		}
-		for (ExecutionData otherExecutionData : other.entries.values()) {
-			String otherClassName = otherExecutionData.getName();
-			if (!ignoredPreviousCoverageClasses.contains(otherClassName)) {
-				put(otherExecutionData);
-			}
+	public void merge(ExecutionDataStore other) throws IOException {
+		final IExecutionDataVisitor visitor = newMergeVisitor();
+		for (final ExecutionData otherExecutionData : other.entries.values()) {
+			visitor.visitClassExecution(otherExecutionData);
 		}
 	}
 
-	private void mergeWithCoverageClassFile(File classesToOverwriteFile,
-			ExecutionDataStore other) {
-		Set<String> classesToOverwriteCoverage = (Set<String>) FileUtils
-				.deserialize(classesToOverwriteFile);
-		Set<String> ignoredPreviousCoverageClasses = new HashSet<String>();
-		// Remove irrelevant coverage data
-		for (Map.Entry<Long, ExecutionData> entry : entries.entrySet()) {
-			String className = entry.getValue().getName();
-			for (String classToOverwriteCoverage : classesToOverwriteCoverage) {
-				if (classToOverwriteCoverage.endsWith(className)) {
-					// We keep the coverage data for the current run
-					ignoredPreviousCoverageClasses.add(className);
-					break;
+	/**
+	 * Returns a visitor that merges execution data of a previous run into this
+	 * store, with the same rules as {@link #merge(ExecutionDataStore)}. The
+	 * visitor can be given to an {@link ExecutionDataReader}, so the data of
+	 * the previous run is merged while it is read and never kept in a store of
+	 * its own.
+	 *
+	 * @return visitor that merges previous execution data into this store
+	 * @throws IOException
+	 *             if the RTS classes to update coverage file cannot be read
+	 * @see #newMergeVisitor(IExecutionDataVisitor)
+	 */
+	public IExecutionDataVisitor newMergeVisitor() throws IOException {
+		return newMergeVisitor(this);
+	}
+
+	/**
+	 * Returns a visitor that passes execution data of a previous run that
+	 * should be kept to the given visitor. If the RTS classes to update
+	 * coverage file exists, previous data is dropped for the classes listed
+	 * there (they are either covered by the current run or deleted); otherwise
+	 * previous data is dropped for the classes that are in this store when the
+	 * visitor is created. The store itself is not modified, unless it is the
+	 * given visitor.
+	 *
+	 * @param next
+	 *            visitor that receives previous execution data to keep, e.g., a
+	 *            writer that already got the content of this store
+	 * @return visitor that filters previous execution data
+	 * @throws IOException
+	 *             if the RTS classes to update coverage file cannot be read
+	 */
+	public IExecutionDataVisitor newMergeVisitor(
+			final IExecutionDataVisitor next) throws IOException {
+		return new MergeVisitor(getIgnoredPreviousClasses(), next);
+	}
+
+	/**
+	 * Returns classes for which execution data of a previous run is dropped
+	 * when merged into this store (see
+	 * {@link #newMergeVisitor(IExecutionDataVisitor)}).
+	 */
+	ClassNames getIgnoredPreviousClasses() throws IOException {
+		final File classesToOverwriteFile = new File(Config.RTS_DIR_V,
+				Names.CLASS_URLS_TO_UPDATE_COVERAGE_DATA_FILE);
+		final CoverageClassesFile classesToOverwriteCoverage = classesToOverwriteFile
+				.exists() ? CoverageClassesFile.read(classesToOverwriteFile)
+						: null;
+		if (classesToOverwriteCoverage != null) {
+			// A class that is in classesToOverwriteCoverage either has the
+			// coverage data of the current run or it is deleted (not executed);
+			// in both cases the previous data is ignored. We should not remove
+			// current execution data because a new class may not appear in
+			// classesToOverwriteCoverage.
+			return new ClassNames() {
+				@Override
+				boolean contains(final String name) {
+					return classesToOverwriteCoverage.containsClass(name);
 				}
-			}
-			// We should not remove execution data because a new class may not
-			// appear in classesToOverwriteCoverage.
+			};
 		}
-		// Merge previous coverage data
-		for (ExecutionData otherExecutionData : other.entries.values()) {
-			String otherClassName = otherExecutionData.getName();
-			if (ignoredPreviousCoverageClasses.contains(otherClassName)) {
-				continue;
-			}
-			// If a class in the classesToOverwriteCoverage is not in the
-			// current data (not executed), it means that the class is deleted
-			// so we should ignore the previous data for the class.
-			boolean shouldIgnore = false;
-			for (String classToOverwriteCoverage : classesToOverwriteCoverage) {
-				if (classToOverwriteCoverage.endsWith(otherClassName)) {
-					shouldIgnore = true;
-					break;
-				}
+		final Set<String> ignoredPreviousCoverageClasses = new HashSet<String>(
+				names);
+		return new ClassNames() {
+			@Override
+			boolean contains(final String name) {
+				return ignoredPreviousCoverageClasses.contains(name);
 			}
-			if (shouldIgnore) {
-				continue;
+		};
+	}
+
+	/**
+	 * Set of classes that is only used for lookups.
+	 */
+	abstract static class ClassNames {
+		/**
+		 * @return true if the class with the given VM name is in the set.
+		 */
+		abstract boolean contains(String name);
+	}
+
+	/**
+	 * Passes previous execution data on unless its class is ignored.
+	 */
+	private static final class MergeVisitor implements IExecutionDataVisitor {
+
+		private final ClassNames ignoredPreviousCoverageClasses;
+
+		private final IExecutionDataVisitor next;
+
+		MergeVisitor(final ClassNames ignoredPreviousCoverageClasses,
+				final IExecutionDataVisitor next) {
+			this.ignoredPreviousCoverageClasses = ignoredPreviousCoverageClasses;
+			this.next = next;
+		}
+
+		public void visitClassExecution(final ExecutionData data) {
+			if (!ignoredPreviousCoverageClasses.contains(data.getName())) {
+				next.visitClassExecution(data);
 			}
-			put(otherExecutionData);
 		}
 	}
 
@@ -121,7 +170,7 @@ public final class ExecutionDataStore implements IExecutionDataVisitor {
 	 * @see ExecutionData#assertCompatibility(long, String, int)
 	 */
 	public void put(final ExecutionData data) throws IllegalStateException {
-		final Long id = Long.valueOf(data.getId());
+		final long id = data.getId();
 		final ExecutionData entry = entries.get(id);
 		if (entry == null) {
 			entries.put(id, data);
@@ -146,8 +195,7 @@ public final class ExecutionDataStore implements IExecutionDataVisitor {
 	 */
 	public void subtract(final ExecutionData data)
 			throws IllegalStateException {
-		final Long id = Long.valueOf(data.getId());
-		final ExecutionData entry = entries.get(id);
+		final ExecutionData entry = entries.get(data.getId());
 		if (entry != null) {
 			entry.merge(data, false);
 		}
@@ -175,7 +223,7 @@ public final class ExecutionDataStore implements IExecutionDataVisitor {
 	 * @return execution data or <code>null</code>
 	 */
 	public ExecutionData get(final long id) {
-		return entries.get(Long.valueOf(id));
+		return entries.get(id);
 	}
 
 	/**
@@ -205,10 +253,10 @@ public final class ExecutionDataStore implements IExecutionDataVisitor {
 	 */
 	public ExecutionData get(final Long id, final String name,
 			final int probecount) {
-		ExecutionData entry = entries.get(id);
+		ExecutionData entry = entries.get(id.longValue());
 		if (entry == null) {
 			entry = new ExecutionData(id.longValue(), name, probecount);
-			entries.put(id, entry);
+			entries.put(id.longValue(), entry);
 			names.add(name);
 		} else {
 			entry.assertCompatibility(id.longValue(), name, probecount);
@@ -232,7 +280,7 @@ public final class ExecutionDataStore implements IExecutionDataVisitor {
 	 * @return current contents
 	 */
 	public Collection<ExecutionData> getContents() {
-		return new ArrayList<ExecutionData>(entries.values());
+		return entries.values();
 	}
 
 	/**
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Map from class id to {@link ExecutionData} with open addressing (linear
+ * probing) over primitive keys, so there is no boxed key and no entry object
+ * per class. Entries are never removed. A instance of this class is not thread
+ * safe.
+ */
+final class ExecutionDataTable {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** Keys; a slot is empty if its value is null */
+	private long[] keys = new long[INITIAL_CAPACITY];
+
+	private ExecutionData[] values = new ExecutionData[INITIAL_CAPACITY];
+
+	private int size;
+
+	/**
+	 * Returns the entry with the given id, or <code>null</code>.
+	 */
+	ExecutionData get(final long id) {
+		final int mask = keys.length - 1;
+		int i = slot(id, mask);
+		while (values[i] != null) {
+			if (keys[i] == id) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Puts the given entry under the given id (which must not be in the table).
+	 */
+	void put(final long id, final ExecutionData data) {
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+		}
+		insert(keys, values, id, data);
+		size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns all entries (in no particular order).
+	 */
+	List<ExecutionData> values() {
+		final List<ExecutionData> list = new ArrayList<ExecutionData>(size);
+		for (final ExecutionData data : values) {
+			if (data != null) {
+				list.add(data);
+			}
+		}
+		return list;
+	}
+
+	// INTERNAL
+
+	private void grow() {
+		final long[] newKeys = new long[keys.length * 2];
+		final ExecutionData[] newValues = new ExecutionData[keys.length * 2];
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				insert(newKeys, newValues, keys[i], values[i]);
+			}
+		}
+		keys = newKeys;
+		values = newValues;
+	}
+
+	private static void insert(final long[] keys, final ExecutionData[] values,
+			final long id, final ExecutionData data) {
+		final int mask = keys.length - 1;
+		int i = slot(id, mask);
+		while (values[i] != null) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = id;
+		values[i] = data;
+	}
+
+	private static int slot(final long id, final int mask) {
+		final long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
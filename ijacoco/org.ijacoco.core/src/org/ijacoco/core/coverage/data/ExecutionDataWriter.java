@@ -103,7 +103,12 @@ public class ExecutionDataWriter
 				out.writeByte(BLOCK_EXECUTIONDATA);
 				out.writeLong(data.getId());
 				out.writeUTF(data.getName());
-				out.writeBooleanArray(data.getProbes());
+				if (data.isPacked()) {
+					out.writePackedBooleanArray(data.getPackedProbes(),
+							data.getProbeCount());
+				} else {
+					out.writeBooleanArray(data.getProbes());
+				}
 			} catch (final IOException e) {
 				throw new RuntimeException(e);
 			}
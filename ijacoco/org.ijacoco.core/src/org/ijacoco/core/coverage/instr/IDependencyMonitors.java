@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.instr;
+
+/**
+ * Monitors of the RTS agent whose invocations are inserted when classes are
+ * instrumented for coverage and dependencies in one pass (see
+ * {@link Instrumenter#instrument(byte[], String, IDependencyMonitors)}). Names
+ * and probe ids are provided by the RTS agent, so that inserted code invokes
+ * its monitors, whatever the classes of the instrumenting agent are named.
+ */
+public interface IDependencyMonitors {
+
+	/**
+	 * Returns the VM name of the monitor that records used classes.
+	 *
+	 * @return VM name of the coverage monitor
+	 */
+	String getCoverageMonitor();
+
+	/**
+	 * Returns the VM name of the monitor invoked by class loaders.
+	 *
+	 * @return VM name of the loader monitor
+	 */
+	String getLoaderMonitor();
+
+	/**
+	 * Returns the VM name of the monitor that replaces reflective calls.
+	 *
+	 * @return VM name of the reflection monitor
+	 */
+	String getReflectionMonitor();
+
+	/**
+	 * Returns the VM name of the monitor that replaces calls to
+	 * <code>java.lang.System</code>.
+	 *
+	 * @return VM name of the system monitor
+	 */
+	String getSystemMonitor();
+
+	/**
+	 * Returns the name of the package of the RTS agent; class loaders delegate
+	 * loading of classes in this package to the loader monitor.
+	 *
+	 * @return binary name of the package
+	 */
+	String getPackageName();
+
+	/**
+	 * Returns a new probe id, which does not collide with ids of probes
+	 * inserted by the RTS agent itself.
+	 *
+	 * @return probe id
+	 */
+	int newProbeId();
+
+}
@@ -23,18 +23,18 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import org.ijacoco.core.coverage.data.ClassIdCache;
 import org.ijacoco.core.coverage.internal.ContentTypeDetector;
 import org.ijacoco.core.coverage.internal.InputStreams;
 import org.ijacoco.core.coverage.internal.Pack200Streams;
-import org.ijacoco.core.coverage.internal.data.CRC64;
 import org.ijacoco.core.coverage.internal.flow.ClassProbesAdapter;
 import org.ijacoco.core.coverage.internal.instr.ClassInstrumenter;
+import org.ijacoco.core.coverage.internal.instr.DependencyClassInstrumenter;
 import org.ijacoco.core.coverage.internal.instr.IProbeArrayStrategy;
 import org.ijacoco.core.coverage.internal.instr.InstrSupport;
 import org.ijacoco.core.coverage.internal.instr.ProbeArrayStrategyFactory;
 import org.ijacoco.core.coverage.internal.instr.SignatureRemover;
 import org.ijacoco.core.coverage.runtime.IExecutionDataAccessorGenerator;
-import org.ijacoco.core.rts.hash.BytecodeCleaner;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -48,6 +48,8 @@ public class Instrumenter {
 
 	private final SignatureRemover signatureRemover;
 
+	private ClassIdCache classIds;
+
 	/**
 	 * Creates a new instance based on the given runtime.
 	 *
@@ -72,9 +74,22 @@ public class Instrumenter {
 		signatureRemover.setActive(flag);
 	}
 
-	private byte[] instrument(final byte[] source) {
-		byte[] sourceWithoutDebugInfo = BytecodeCleaner.removeDebugInfo(source);
-		final long classId = CRC64.classId(sourceWithoutDebugInfo);
+	/**
+	 * Sets a cache to look up ids of classes in. Without a cache, the id of
+	 * each class is computed from the class file.
+	 *
+	 * @param classIds
+	 *            cache of class ids, or <code>null</code>
+	 */
+	public void setClassIdCache(final ClassIdCache classIds) {
+		this.classIds = classIds;
+	}
+
+	private byte[] instrument(final byte[] source,
+			final IDependencyMonitors monitors) {
+		final long classId = classIds == null
+				? ClassIdCache.computeClassId(source)
+				: classIds.classId(source);
 		final ClassReader reader = InstrSupport.classReaderFor(source);
 		final ClassWriter writer = new ClassWriter(reader, 0) {
 			@Override
@@ -86,8 +101,10 @@ public class Instrumenter {
 		final IProbeArrayStrategy strategy = ProbeArrayStrategyFactory
 				.createFor(classId, reader, accessorGenerator);
 		final int version = InstrSupport.getMajorVersion(reader);
-		final ClassVisitor visitor = new ClassProbesAdapter(
-				new ClassInstrumenter(strategy, writer),
+		final ClassInstrumenter instrumenter = monitors != null
+				? new DependencyClassInstrumenter(strategy, monitors, writer)
+				: new ClassInstrumenter(strategy, writer);
+		final ClassVisitor visitor = new ClassProbesAdapter(instrumenter,
 				InstrSupport.needsFrames(version));
 		reader.accept(visitor, ClassReader.EXPAND_FRAMES);
 		return writer.toByteArray();
@@ -106,8 +123,29 @@ public class Instrumenter {
 	 */
 	public byte[] instrument(final byte[] buffer, final String name)
 			throws IOException {
+		return instrument(buffer, name, null);
+	}
+
+	/**
+	 * Creates a instrumented version of the given class if possible. If
+	 * monitors are given, invocations of the RTS monitors (that collect
+	 * dependencies of tests) are inserted in the same pass.
+	 *
+	 * @param buffer
+	 *            definition of the class
+	 * @param name
+	 *            a name used for exception messages
+	 * @param monitors
+	 *            monitors that collect dependencies, or <code>null</code> if
+	 *            the class should only collect coverage
+	 * @return instrumented definition
+	 * @throws IOException
+	 *             if the class can't be instrumented
+	 */
+	public byte[] instrument(final byte[] buffer, final String name,
+			final IDependencyMonitors monitors) throws IOException {
 		try {
-			return instrument(buffer);
+			return instrument(buffer, monitors);
 		} catch (final RuntimeException e) {
 			throw instrumentError(name, e);
 		}
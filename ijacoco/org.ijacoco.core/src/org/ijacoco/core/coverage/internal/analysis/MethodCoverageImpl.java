@@ -66,6 +66,30 @@ public class MethodCoverageImpl extends SourceNodeImpl
 		this.complexityCounter = this.complexityCounter.increment(base);
 	}
 
+	/**
+	 * Sets the counters of this method node to the given (previously
+	 * calculated) counters. This is used instead of
+	 * {@link #incrementMethodCounter()} when a node is restored from its lines
+	 * and counters; the line counter follows from the incremented lines.
+	 *
+	 * @param instructions
+	 *            instruction counter (including instructions without line)
+	 * @param branches
+	 *            branch counter (including branches without line)
+	 * @param complexity
+	 *            complexity counter
+	 * @param method
+	 *            method counter
+	 */
+	public void setCounters(final CounterImpl instructions,
+			final CounterImpl branches, final CounterImpl complexity,
+			final CounterImpl method) {
+		this.instructionCounter = instructions;
+		this.branchCounter = branches;
+		this.complexityCounter = complexity;
+		this.methodCounter = method;
+	}
+
 	// === IMethodCoverage implementation ===
 
 	public String getDesc() {
@@ -79,6 +79,17 @@ public final class CRC64 {
 		return sum;
 	}
 
+	/**
+	 * Calculates the checksum of the given bytes.
+	 *
+	 * @param bytes
+	 *            bytes to calculate the checksum of
+	 * @return checksum
+	 */
+	public static long checksum(final byte[] bytes) {
+		return update(0, bytes, 0, bytes.length);
+	}
+
 	/**
 	 * Calculates class identifier for the given class bytes.
 	 *
@@ -69,4 +69,30 @@ public class CompactDataInput extends DataInputStream {
 		return value;
 	}
 
+	/**
+	 * Reads a boolean array packed into long words (element <code>i</code> is
+	 * bit <code>i % 64</code> of word <code>i / 64</code>). The format is the
+	 * same as for {@link #readBooleanArray()}.
+	 *
+	 * @param length
+	 *            length of the array, which has already been read with
+	 *            {@link #readVarInt()}
+	 * @return packed boolean array
+	 * @throws IOException
+	 *             if thrown by the underlying stream
+	 */
+	public long[] readPackedBooleanArray(final int length) throws IOException {
+		final long[] words = new long[(length + 63) >>> 6];
+		final byte[] bytes = new byte[(length + 7) >>> 3];
+		readFully(bytes);
+		for (int i = 0; i < bytes.length; i++) {
+			words[i >>> 3] |= (0xFFL & bytes[i]) << ((i & 7) << 3);
+		}
+		if ((length & 63) != 0) {
+			// Ignore bits above the length.
+			words[words.length - 1] &= (1L << length) - 1;
+		}
+		return words;
+	}
+
 }
@@ -15,6 +15,7 @@ package org.ijacoco.core.coverage.internal.data;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * Additional data output methods for compact storage of data structures.
@@ -23,6 +24,9 @@ import java.io.OutputStream;
  */
 public class CompactDataOutput extends DataOutputStream {
 
+	/** Bytes of packed boolean arrays, reused for each array */
+	private byte[] scratch = new byte[64];
+
 	/**
 	 * Creates a new {@link CompactDataOutput} instance that writes data to the
 	 * specified underlying output stream
@@ -64,21 +68,49 @@ public class CompactDataOutput extends DataOutputStream {
 	 */
 	public void writeBooleanArray(final boolean[] value) throws IOException {
 		writeVarInt(value.length);
-		int buffer = 0;
-		int bufferSize = 0;
-		for (final boolean b : value) {
-			if (b) {
-				buffer |= 0x01 << bufferSize;
-			}
-			if (++bufferSize == 8) {
-				writeByte(buffer);
-				buffer = 0;
-				bufferSize = 0;
+		final byte[] bytes = scratch((value.length + 7) >>> 3);
+		for (int i = 0; i < value.length; i++) {
+			if (value[i]) {
+				bytes[i >>> 3] |= 0x01 << (i & 7);
 			}
 		}
-		if (bufferSize > 0) {
-			writeByte(buffer);
+		write(bytes, 0, (value.length + 7) >>> 3);
+	}
+
+	/**
+	 * Writes a boolean array packed into long words (element <code>i</code> is
+	 * bit <code>i % 64</code> of word <code>i / 64</code>). The format is the
+	 * same as for {@link #writeBooleanArray(boolean[])}.
+	 *
+	 * @param words
+	 *            packed boolean array
+	 * @param length
+	 *            length of the array
+	 * @throws IOException
+	 *             if thrown by the underlying stream
+	 */
+	public void writePackedBooleanArray(final long[] words, final int length)
+			throws IOException {
+		writeVarInt(length);
+		final int byteCount = (length + 7) >>> 3;
+		final byte[] bytes = scratch(byteCount);
+		for (int i = 0; i < byteCount; i++) {
+			bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) << 3));
+		}
+		write(bytes, 0, byteCount);
+	}
+
+	/**
+	 * Returns the scratch array with at least the given number of bytes, where
+	 * the first given number of bytes are zero.
+	 */
+	private byte[] scratch(final int length) {
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		} else {
+			Arrays.fill(scratch, 0, length, (byte) 0);
 		}
+		return scratch;
 	}
 
 }
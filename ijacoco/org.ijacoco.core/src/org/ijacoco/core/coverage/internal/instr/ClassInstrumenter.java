@@ -73,10 +73,32 @@ public class ClassInstrumenter extends ClassProbesVisitor {
 		final MethodVisitor frameEliminator = new DuplicateFrameEliminator(mv);
 		final ProbeInserter probeVariableInserter = new ProbeInserter(access,
 				name, desc, frameEliminator, probeArrayStrategy);
-		return new MethodInstrumenter(probeVariableInserter,
+		return new MethodInstrumenter(
+				decorate(access, name, desc, probeVariableInserter),
 				probeVariableInserter);
 	}
 
+	/**
+	 * Hook to instrument a method with more than probes. The returned visitor
+	 * receives the code of the method (with the original local variable
+	 * indices) and has to pass it to the given visitor, which inserts the probe
+	 * array.
+	 *
+	 * @param access
+	 *            access flags of the method
+	 * @param name
+	 *            name of the method
+	 * @param desc
+	 *            descriptor of the method
+	 * @param mv
+	 *            visitor that inserts the probe array
+	 * @return visitor for the code of the method (the given visitor by default)
+	 */
+	protected MethodVisitor decorate(final int access, final String name,
+			final String desc, final MethodVisitor mv) {
+		return mv;
+	}
+
 	@Override
 	public void visitTotalProbeCount(final int count) {
 		probeArrayStrategy.addMembers(cv, count);
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.internal.instr;
+
+import org.ijacoco.core.coverage.instr.IDependencyMonitors;
+import org.ijacoco.core.rts.agent.Instr;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * {@link ClassInstrumenter} that in the same pass also inserts invocations of
+ * the RTS monitors, i.e., it does what
+ * {@link org.ijacoco.core.rts.instrument.CoverageClassVisitor} does (see that
+ * class for comments). RTS code is inserted after coverage probes are computed,
+ * so the probes are the same as for the original class.
+ */
+public class DependencyClassInstrumenter extends ClassInstrumenter {
+
+	/** Max supported Java class file version */
+	private static final int MAX_SUPPORTED_JAVA_VERSION = 53;
+
+	private final IDependencyMonitors monitors;
+
+	private final int classProbeId;
+
+	private String className;
+
+	private int version;
+
+	private boolean isModifiable = true;
+
+	/**
+	 * Emits a instrumented version of this class to the given class visitor.
+	 *
+	 * @param probeArrayStrategy
+	 *            this strategy will be used to access the probe array
+	 * @param monitors
+	 *            monitors whose invocations are inserted
+	 * @param cv
+	 *            next delegate in the visitor chain will receive the
+	 *            instrumented class
+	 */
+	public DependencyClassInstrumenter(
+			final IProbeArrayStrategy probeArrayStrategy,
+			final IDependencyMonitors monitors, final ClassVisitor cv) {
+		super(probeArrayStrategy, cv);
+		this.monitors = monitors;
+		this.classProbeId = monitors.newProbeId();
+	}
+
+	@Override
+	public void visit(int version, final int access, final String name,
+			final String signature, final String superName,
+			final String[] interfaces) {
+		this.className = name;
+		if (version == 196653
+				|| name.equals(
+						"org/apache/xerces/impl/xpath/regex/ParserForXMLSchema")
+				|| name.equals("org/apache/xerces/impl/xpath/regex/Token")) {
+			isModifiable = false;
+		} else if (version < 49) {
+			// Needed to load .class with ldc.
+			version = 49;
+		}
+		this.version = version;
+		super.visit(version, access, name, signature, superName, interfaces);
+	}
+
+	/**
+	 * Returns true if invocations of the RTS monitors may be inserted in the
+	 * visited class. Newer classes are left to the RTS agent.
+	 */
+	public boolean isModifiable() {
+		return isModifiable && version <= MAX_SUPPORTED_JAVA_VERSION;
+	}
+
+	@Override
+	protected MethodVisitor decorate(final int access, final String name,
+			final String desc, final MethodVisitor mv) {
+		if (!isModifiable() || (access & Opcodes.ACC_SYNTHETIC) != 0
+				|| (access & Opcodes.ACC_BRIDGE) != 0
+				|| (access & Opcodes.ACC_NATIVE) != 0
+				|| (access & Opcodes.ACC_ABSTRACT) != 0) {
+			return mv;
+		}
+		final boolean isLoadClass = (access & Opcodes.ACC_STATIC) == 0
+				&& name.equals("loadClass")
+				&& (desc.equals(Instr.STRING_Z_CLASS_DESC)
+						|| desc.equals(Instr.STRING_CLASS_DESC));
+		return new DependencyMethodVisitor(monitors, className, classProbeId,
+				access, name, desc, isLoadClass, version >= Opcodes.V1_6, mv);
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.internal.instr;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ijacoco.core.coverage.instr.IDependencyMonitors;
+import org.ijacoco.core.rts.agent.Instr;
+import org.ijacoco.core.rts.util.Types;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * {@link MethodVisitor} that inserts invocations of the RTS monitors; this is
+ * what {@link org.ijacoco.core.rts.instrument.CoverageMethodVisitor},
+ * {@link org.ijacoco.core.rts.instrument.LoaderMethodVisitor}, and
+ * {@link org.ijacoco.core.rts.instrument.SystemMethodVisitor} do (see those
+ * classes for comments), but for code that is instrumented for coverage at the
+ * same time.
+ *
+ * The visitor is placed before the visitor that inserts the probe array, so
+ * frames emitted here get the probe array local as well. Inserted code needs at
+ * most two stack slots, which is less than the stack that is reserved for
+ * probes, so max stack is not changed.
+ */
+class DependencyMethodVisitor extends MethodVisitor {
+
+	private final IDependencyMonitors monitors;
+
+	private final String className;
+
+	private final int classProbeId;
+
+	private final int access;
+
+	private final String methodName;
+
+	private final String desc;
+
+	private final boolean isLoadClass;
+
+	private final boolean needsFrames;
+
+	/** Classes that have been seen since the last label */
+	private final Set<String> seenClasses;
+
+	DependencyMethodVisitor(final IDependencyMonitors monitors,
+			final String className, final int classProbeId, final int access,
+			final String methodName, final String desc,
+			final boolean isLoadClass, final boolean needsFrames,
+			final MethodVisitor mv) {
+		super(InstrSupport.ASM_API_VERSION, mv);
+		this.monitors = monitors;
+		this.className = className;
+		this.classProbeId = classProbeId;
+		this.access = access;
+		this.methodName = methodName;
+		this.desc = desc;
+		this.isLoadClass = isLoadClass;
+		this.needsFrames = needsFrames;
+		this.seenClasses = new HashSet<String>();
+	}
+
+	@Override
+	public void visitCode() {
+		super.visitCode();
+		if (isLoadClass) {
+			insertLoaderInvocation();
+		} else if (isNonPrivateStaticMethod() || methodName.equals("<init>")
+				|| methodName.equals("<clinit>")) {
+			insertTInvocation(className, classProbeId);
+		}
+	}
+
+	@Override
+	public void visitLdcInsn(final Object cst) {
+		if (cst instanceof Type && ((Type) cst).getSort() == Type.OBJECT) {
+			insertTInvocation(
+					Types.descToInternalName(((Type) cst).getDescriptor()),
+					monitors.newProbeId());
+		}
+		mv.visitLdcInsn(cst);
+	}
+
+	@Override
+	public void visitMethodInsn(final int opcode, final String owner,
+			final String name, final String desc, final boolean itf) {
+		if (opcode == Opcodes.INVOKESTATIC
+				&& owner.equals(Instr.SYSTEM_CLASS_INTERNAL_NAME) && !itf
+				&& (name.equals(Instr.RUN_FINALIZATION_MNAME)
+						&& desc.equals(Instr.RUN_FINALIZATION_MDESC)
+						|| name.equals(Instr.GC_MNAME)
+								&& desc.equals(Instr.GC_MDESC))) {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC,
+					monitors.getSystemMonitor(), name, desc, false);
+		} else if (opcode == Opcodes.INVOKEINTERFACE) {
+			insertTInvocation(owner, monitors.newProbeId());
+			mv.visitMethodInsn(opcode, owner, name, desc, itf);
+		} else if (owner.equals(Instr.CLASS_CLASS_INTERNAL_NAME)
+				&& !name.equals("forName") && !name.equals("newInstance")) {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC,
+					monitors.getReflectionMonitor(), name,
+					desc.replaceFirst("\\(", "(Ljava/lang/Class;"), false);
+		} else {
+			mv.visitMethodInsn(opcode, owner, name, desc, itf);
+		}
+	}
+
+	@Override
+	public void visitFieldInsn(final int opcode, final String owner,
+			final String name, final String desc) {
+		if (opcode == Opcodes.GETSTATIC) {
+			final String fieldClassName = Types.descToInternalName(desc);
+			if (!Types.isPrimitiveDesc(desc)
+					&& !fieldClassName.equals(className)
+					&& !Types.isIgnorableBinName(fieldClassName)) {
+				mv.visitFieldInsn(Opcodes.GETSTATIC, owner, name, desc);
+				pushProbeId(monitors.newProbeId());
+				mv.visitMethodInsn(Opcodes.INVOKESTATIC,
+						monitors.getCoverageMonitor(),
+						Instr.COVERAGE_MONITOR_FIELD_MNAME,
+						Instr.OBJECT_I_V_DESC, false);
+			}
+			if (!owner.equals(className)) {
+				insertTInvocation(owner, monitors.newProbeId());
+			}
+		}
+		mv.visitFieldInsn(opcode, owner, name, desc);
+	}
+
+	@Override
+	public void visitLabel(final Label label) {
+		seenClasses.clear();
+		mv.visitLabel(label);
+	}
+
+	private void insertTInvocation(final String name, final int probeId) {
+		if (!seenClasses.add(name) || Types.isIgnorableInternalName(name)) {
+			return;
+		}
+		mv.visitLdcInsn(Type.getObjectType(name));
+		pushProbeId(probeId);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, monitors.getCoverageMonitor(),
+				Instr.COVERAGE_MONITOR_MNAME, Instr.CLASS_I_V_DESC, false);
+	}
+
+	private void insertLoaderInvocation() {
+		mv.visitVarInsn(Opcodes.ALOAD, 1);
+		mv.visitLdcInsn(monitors.getPackageName());
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+				Instr.STRING_CLASS_INTERNAL_NAME, Instr.STARTS_WITH_MNAME,
+				Instr.STARTS_WITH_MDESC, false);
+		final Label l0 = new Label();
+		mv.visitJumpInsn(Opcodes.IFEQ, l0);
+		mv.visitVarInsn(Opcodes.ALOAD, 1);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, monitors.getLoaderMonitor(),
+				Instr.LOADER_MONITOR_MNAME, Instr.LOADER_MONITOR_MDESC, false);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitLabel(l0);
+		if (needsFrames) {
+			// Frames are expanded when instrumenting for coverage.
+			final Object[] locals = desc.equals(Instr.STRING_Z_CLASS_DESC)
+					? new Object[] { className,
+							Instr.STRING_CLASS_INTERNAL_NAME, Opcodes.INTEGER }
+					: new Object[] { className,
+							Instr.STRING_CLASS_INTERNAL_NAME };
+			mv.visitFrame(Opcodes.F_NEW, locals.length, locals, 0,
+					new Object[0]);
+		}
+	}
+
+	private void pushProbeId(final int probeId) {
+		InstrSupport.push(mv, probeId);
+	}
+
+	private boolean isNonPrivateStaticMethod() {
+		return (access & Opcodes.ACC_PRIVATE) == 0
+				&& (access & Opcodes.ACC_STATIC) != 0;
+	}
+
+}
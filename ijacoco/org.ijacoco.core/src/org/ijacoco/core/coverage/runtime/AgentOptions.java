@@ -195,10 +195,34 @@ public final class AgentOptions {
 	 */
 	public static final String JMX = "jmx";
 
+	/**
+	 * Specifies whether the agent writes the execution data of each test class
+	 * (executed since the test class started) to a separate file in the RTS
+	 * directory. Default is <code>false</code>.
+	 */
+	public static final String PERTEST = "pertest";
+
+	/**
+	 * Specifies whether dumps only contain classes whose execution data changed
+	 * since the previous dump, so the execution data of all dumps has to be
+	 * merged (e.g., appended to the same file). In file output mode, dumps are
+	 * also written by a background thread. Default is <code>false</code>.
+	 */
+	public static final String INCREMENTAL = "incremental";
+
+	/**
+	 * Specifies whether the agent also inserts invocations of the monitors of
+	 * the RTS agent (which has to be started with option
+	 * <code>instrument.fused</code>), so classes are instrumented in one pass.
+	 * Default is <code>false</code>.
+	 */
+	public static final String FUSED = "fused";
+
 	private static final Collection<String> VALID_OPTIONS = Arrays.asList(
 			DESTFILE, APPEND, INCLUDES, EXCLUDES, EXCLCLASSLOADER,
 			INCLBOOTSTRAPCLASSES, INCLNOLOCATIONCLASSES, SESSIONID, MERGEONEXIT,
-			DUMPONEXIT, OUTPUT, ADDRESS, PORT, CLASSDUMPDIR, JMX);
+			DUMPONEXIT, OUTPUT, ADDRESS, PORT, CLASSDUMPDIR, JMX, PERTEST,
+			INCREMENTAL, FUSED);
 
 	private final Map<String, String> options;
 
@@ -582,6 +606,65 @@ public final class AgentOptions {
 		setOption(JMX, jmx);
 	}
 
+	/**
+	 * Returns whether the agent writes the execution data of each test class.
+	 *
+	 * @return <code>true</code> if execution data is written per test class
+	 */
+	public boolean getPerTest() {
+		return getOption(PERTEST, false);
+	}
+
+	/**
+	 * Sets whether the agent writes the execution data of each test class.
+	 *
+	 * @param perTest
+	 *            <code>true</code> if execution data should be written per test
+	 *            class
+	 */
+	public void setPerTest(final boolean perTest) {
+		setOption(PERTEST, perTest);
+	}
+
+	/**
+	 * Returns whether dumps only contain classes whose execution data changed.
+	 *
+	 * @return <code>true</code> if dumps are incremental
+	 */
+	public boolean getIncremental() {
+		return getOption(INCREMENTAL, false);
+	}
+
+	/**
+	 * Sets whether dumps only contain classes whose execution data changed.
+	 *
+	 * @param incremental
+	 *            <code>true</code> if dumps should be incremental
+	 */
+	public void setIncremental(final boolean incremental) {
+		setOption(INCREMENTAL, incremental);
+	}
+
+	/**
+	 * Returns whether invocations of the RTS monitors are inserted as well.
+	 *
+	 * @return <code>true</code> if classes are instrumented in one pass
+	 */
+	public boolean getFused() {
+		return getOption(FUSED, false);
+	}
+
+	/**
+	 * Sets whether invocations of the RTS monitors are inserted as well.
+	 *
+	 * @param fused
+	 *            <code>true</code> if classes should be instrumented in one
+	 *            pass
+	 */
+	public void setFused(final boolean fused) {
+		setOption(FUSED, fused);
+	}
+
 	private void setOption(final String key, final int value) {
 		setOption(key, Integer.toString(value));
 	}
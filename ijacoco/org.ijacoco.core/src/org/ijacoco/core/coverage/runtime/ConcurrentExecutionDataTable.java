@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.ijacoco.core.coverage.data.ExecutionData;
+
+/**
+ * Map from class id to {@link ExecutionData} for classes that register their
+ * probes at runtime. The map is split into segments by the hash of the id; each
+ * segment is a table with open addressing (linear probing) over the ids of its
+ * entries. Lookups take no lock: entries are published with volatile writes,
+ * and a segment that grows is replaced as a whole. Entries are added under the
+ * lock of their segment only, so classes with ids in different segments are
+ * registered in parallel. Entries are never removed. An instance of this class
+ * is thread safe.
+ */
+final class ConcurrentExecutionDataTable {
+
+	/** Number of segments (a power of two) */
+	private static final int SEGMENTS = 64;
+
+	private static final int SEGMENT_SHIFT = 32 - 6;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Segment[] segments;
+
+	ConcurrentExecutionDataTable() {
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * Returns the entry with the given id, or <code>null</code>.
+	 */
+	ExecutionData get(final long id) {
+		final int hash = hash(id);
+		return segments[hash >>> SEGMENT_SHIFT].get(id, hash);
+	}
+
+	/**
+	 * Adds the given entry unless there is an entry with its id already.
+	 *
+	 * @return the entry in the table
+	 */
+	ExecutionData putIfAbsent(final ExecutionData data) {
+		final int hash = hash(data.getId());
+		return segments[hash >>> SEGMENT_SHIFT].putIfAbsent(data, hash);
+	}
+
+	/**
+	 * Returns all entries (in no particular order). Entries that were added
+	 * before this method was called are included.
+	 */
+	List<ExecutionData> values() {
+		final List<ExecutionData> list = new ArrayList<ExecutionData>();
+		for (final Segment segment : segments) {
+			segment.addValuesTo(list);
+		}
+		return list;
+	}
+
+	private static int hash(final long id) {
+		final long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static final class Segment {
+
+		/** Entries; replaced (never modified) when the segment grows */
+		private volatile AtomicReferenceArray<ExecutionData> table = new AtomicReferenceArray<ExecutionData>(
+				INITIAL_CAPACITY);
+
+		/** Number of entries (guarded by this) */
+		private int size;
+
+		ExecutionData get(final long id, final int hash) {
+			final AtomicReferenceArray<ExecutionData> t = table;
+			final int mask = t.length() - 1;
+			int i = hash & mask;
+			ExecutionData data;
+			while ((data = t.get(i)) != null) {
+				if (data.getId() == id) {
+					return data;
+				}
+				i = (i + 1) & mask;
+			}
+			return null;
+		}
+
+		synchronized ExecutionData putIfAbsent(final ExecutionData data,
+				final int hash) {
+			final ExecutionData existing = get(data.getId(), hash);
+			if (existing != null) {
+				return existing;
+			}
+			if ((size + 1) * 2 > table.length()) {
+				grow();
+			}
+			insert(table, data, hash);
+			size++;
+			return data;
+		}
+
+		void addValuesTo(final List<ExecutionData> list) {
+			final AtomicReferenceArray<ExecutionData> t = table;
+			for (int i = 0; i < t.length(); i++) {
+				final ExecutionData data = t.get(i);
+				if (data != null) {
+					list.add(data);
+				}
+			}
+		}
+
+		private void grow() {
+			final AtomicReferenceArray<ExecutionData> t = table;
+			final AtomicReferenceArray<ExecutionData> newTable = new AtomicReferenceArray<ExecutionData>(
+					t.length() * 2);
+			for (int i = 0; i < t.length(); i++) {
+				final ExecutionData data = t.get(i);
+				if (data != null) {
+					insert(newTable, data, hash(data.getId()));
+				}
+			}
+			table = newTable;
+		}
+
+		private static void insert(final AtomicReferenceArray<ExecutionData> t,
+				final ExecutionData data, final int hash) {
+			final int mask = t.length() - 1;
+			int i = hash & mask;
+			while (t.get(i) != null) {
+				i = (i + 1) & mask;
+			}
+			t.set(i, data);
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ijacoco.core.coverage.data.ExecutionData;
+
+/**
+ * Probes of classes as they were last dumped to one consumer of incremental
+ * dumps (see
+ * {@link RuntimeData#collectChanges(DumpBaseline, org.ijacoco.core.coverage.data.IExecutionDataVisitor, org.ijacoco.core.coverage.data.ISessionInfoVisitor, boolean)}).
+ * Each consumer (e.g., a file or a connection) owns its baseline, so every
+ * consumer gets all changes, no matter what was dumped to the others. An
+ * instance of this class is thread safe.
+ */
+public final class DumpBaseline {
+
+	/** Packed probes of classes as they were last dumped */
+	final Map<Long, ExecutionData> dumped;
+
+	/** Number of resets of the runtime data when the probes were dumped */
+	long resets;
+
+	/**
+	 * Creates an empty baseline, i.e., the next dump includes all classes with
+	 * hits.
+	 */
+	public DumpBaseline() {
+		dumped = new HashMap<Long, ExecutionData>();
+	}
+
+}
@@ -12,6 +12,12 @@
  *******************************************************************************/
 package org.ijacoco.core.coverage.runtime;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 import org.ijacoco.core.coverage.data.ExecutionData;
 import org.ijacoco.core.coverage.data.ExecutionDataStore;
 import org.ijacoco.core.coverage.data.IExecutionDataVisitor;
@@ -24,27 +30,73 @@ import org.objectweb.asm.Opcodes;
 /**
  * Container for runtime execution and meta data. All access to the runtime data
  * is thread safe.
+ *
+ * Classes register their probes in a table keyed by class id that is looked up
+ * without locks and split into segments that are locked separately when a class
+ * is added, so classes loaded by many threads at once do not wait for each
+ * other. Execution data is collected and reset from this table without a global
+ * lock. Code that merges execution data (e.g., of previous runs) into the
+ * {@link ExecutionDataStore} of this runtime has to lock the store (see
+ * {@link #lockExecutionDataStore()}).
+ *
+ * Execution data can also be collected per test (see
+ * {@link #collectTestExecutionData(IExecutionDataVisitor)}): the probes hit by
+ * a test are moved to a second table at the end of the test, so probes are
+ * still set by instrumented code as usual and the execution data of a test is
+ * only what is left in the probe arrays.
+ *
+ * Dumps can be incremental (see
+ * {@link #collectChanges(DumpBaseline, IExecutionDataVisitor, ISessionInfoVisitor, boolean)}):
+ * the consumer of the dumps keeps a copy of the probes of each class as they
+ * were last dumped to it, so classes whose probes did not change since are not
+ * dumped again.
  */
 public class RuntimeData {
 
 	/** store for execution data */
 	protected final ExecutionDataStore store;
 
-	private long startTimeStamp;
+	/** Execution data of all classes, as registered with the probes */
+	private final ConcurrentExecutionDataTable entries;
+
+	/**
+	 * Classes are registered with the read lock; the store is locked with the
+	 * write lock
+	 */
+	private final ReentrantReadWriteLock storeLock;
+
+	/**
+	 * Execution data moved out of the probe arrays at the end of tests, or null
+	 * if execution data is not collected per test
+	 */
+	private volatile ConcurrentExecutionDataTable previousTests;
+
+	/**
+	 * Number of resets; baselines of incremental dumps taken before a reset are
+	 * discarded
+	 */
+	private final AtomicLong resets;
 
-	private String sessionId;
+	private volatile long startTimeStamp;
+
+	private volatile String sessionId;
 
 	/**
 	 * Creates a new runtime.
 	 */
 	public RuntimeData() {
 		store = new ExecutionDataStore();
+		entries = new ConcurrentExecutionDataTable();
+		storeLock = new ReentrantReadWriteLock();
+		resets = new AtomicLong();
 		sessionId = "<none>";
 		startTimeStamp = System.currentTimeMillis();
 	}
 
 	/**
-	 * Get the current execution data store for this runtime.
+	 * Get the current execution data store for this runtime. The store only
+	 * contains the execution data of all classes while it is locked (see
+	 * {@link #lockExecutionDataStore()}).
 	 *
 	 * @return current execution data store
 	 */
@@ -52,6 +104,49 @@ public class RuntimeData {
 		return store;
 	}
 
+	/**
+	 * Locks the execution data store of this runtime and returns it. While the
+	 * store is locked, it contains the execution data of all classes, and no
+	 * new class is registered (classes that are loaded wait). Execution data
+	 * that is added to the store is used by classes that are loaded after the
+	 * store is unlocked with {@link #unlockExecutionDataStore()}.
+	 *
+	 * @return execution data store of this runtime
+	 */
+	public final ExecutionDataStore lockExecutionDataStore() {
+		storeLock.writeLock().lock();
+		final ConcurrentExecutionDataTable previous = previousTests;
+		if (previous != null) {
+			// Moved back, as the store has to contain the probe arrays.
+			for (final ExecutionData data : previous.values()) {
+				entries.get(data.getId()).merge(data);
+				data.reset();
+			}
+		}
+		for (final ExecutionData data : entries.values()) {
+			if (store.get(data.getId()) == null) {
+				store.put(data);
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Unlocks the execution data store of this runtime (see
+	 * {@link #lockExecutionDataStore()}).
+	 */
+	public final void unlockExecutionDataStore() {
+		try {
+			for (final ExecutionData data : store.getContents()) {
+				// Unpacked once, as the probes are shared by instrumented code.
+				data.getProbes();
+				entries.putIfAbsent(data);
+			}
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+
 	/**
 	 * Sets a session identifier for this runtime. The identifier is used when
 	 * execution data is collected. If no identifier is explicitly set a
@@ -78,7 +173,8 @@ public class RuntimeData {
 
 	/**
 	 * Collects the current execution data and writes it to the given
-	 * {@link IExecutionDataVisitor} object.
+	 * {@link IExecutionDataVisitor} object. The execution data of all classes
+	 * that were registered before this method was called is written.
 	 *
 	 * @param executionDataVisitor
 	 *            handler to write coverage data to
@@ -90,14 +186,147 @@ public class RuntimeData {
 	 */
 	public final void collect(final IExecutionDataVisitor executionDataVisitor,
 			final ISessionInfoVisitor sessionInfoVisitor, final boolean reset) {
-		synchronized (store) {
+		final List<ExecutionData> contents = entries.values();
+		final SessionInfo info = new SessionInfo(sessionId, startTimeStamp,
+				System.currentTimeMillis());
+		sessionInfoVisitor.visitSessionInfo(info);
+		final ConcurrentExecutionDataTable previous = previousTests;
+		for (final ExecutionData data : contents) {
+			final ExecutionData earlier = previous == null ? null
+					: previous.get(data.getId());
+			if (earlier == null) {
+				executionDataVisitor.visitClassExecution(data);
+			} else {
+				final ExecutionData merged = new ExecutionData(data.getId(),
+						data.getName(), data.copyProbes());
+				merged.merge(earlier);
+				executionDataVisitor.visitClassExecution(merged);
+			}
+		}
+		if (reset) {
+			reset(contents);
+		}
+	}
+
+	/**
+	 * Collects the execution data of classes whose probes changed since they
+	 * were last collected with the given baseline (or that were not collected
+	 * with it yet) and writes it to the given {@link IExecutionDataVisitor}
+	 * object. So the execution data of all calls with the same baseline merged
+	 * is the current execution data. Probes are not marked dirty by
+	 * instrumented code; instead the probes of each class are compared with a
+	 * packed copy of them in the baseline, so unchanged classes cost a pass
+	 * over their probes but no allocation.
+	 *
+	 * The visitor gets copies of the probes, so they can be written later
+	 * (e.g., by another thread) while classes keep executing.
+	 *
+	 * @param baseline
+	 *            probes as they were last collected for the consumer of the
+	 *            execution data; updated by this method
+	 * @param executionDataVisitor
+	 *            handler to write coverage data to
+	 * @param sessionInfoVisitor
+	 *            handler to write session information to
+	 * @param reset
+	 *            if <code>true</code> the current coverage information is also
+	 *            cleared
+	 */
+	public final void collectChanges(final DumpBaseline baseline,
+			final IExecutionDataVisitor executionDataVisitor,
+			final ISessionInfoVisitor sessionInfoVisitor, final boolean reset) {
+		final List<ExecutionData> contents = entries.values();
+		final ConcurrentExecutionDataTable previous = previousTests;
+		synchronized (baseline) {
+			final Map<Long, ExecutionData> dumped = baseline.dumped;
+			final long currentResets = resets.get();
+			if (baseline.resets != currentResets) {
+				dumped.clear();
+				baseline.resets = currentResets;
+			}
 			final SessionInfo info = new SessionInfo(sessionId, startTimeStamp,
 					System.currentTimeMillis());
 			sessionInfoVisitor.visitSessionInfo(info);
-			store.accept(executionDataVisitor);
+			for (final ExecutionData data : contents) {
+				final ExecutionData earlier = previous == null ? null
+						: previous.get(data.getId());
+				final Long id = Long.valueOf(data.getId());
+				ExecutionData last = dumped.get(id);
+				if (last == null) {
+					if (!data.hasHits()
+							&& (earlier == null || !earlier.hasHits())) {
+						continue;
+					}
+					last = new ExecutionData(data.getId(), data.getName(),
+							data.getProbeCount(), new long[ExecutionData
+									.wordCount(data.getProbeCount())]);
+					dumped.put(id, last);
+				} else if (last.contains(data)
+						&& (earlier == null || last.contains(earlier))) {
+					continue;
+				}
+				last.merge(data);
+				if (earlier != null) {
+					last.merge(earlier);
+				}
+				executionDataVisitor.visitClassExecution(new ExecutionData(
+						data.getId(), data.getName(), last.copyProbes()));
+			}
 			if (reset) {
-				reset();
+				reset(contents);
+			}
+		}
+	}
+
+	/**
+	 * Collects the execution data of the current test, i.e., of all classes
+	 * executed since the last call of this method, and writes it to the given
+	 * {@link IExecutionDataVisitor} object. The probes are reset afterwards, so
+	 * the next call collects the execution data of the next test; they are kept
+	 * in this runtime and included when execution data is collected (see
+	 * {@link #collect(IExecutionDataVisitor, ISessionInfoVisitor, boolean)}).
+	 *
+	 * Probes hit by other threads while this method runs may be attributed to
+	 * the next test (or to none, if they are hit between collecting and
+	 * resetting a class), so tests should not run concurrently.
+	 *
+	 * @param executionDataVisitor
+	 *            handler to write coverage data of the test to, or
+	 *            <code>null</code> to only start the next test
+	 */
+	public final void collectTestExecutionData(
+			final IExecutionDataVisitor executionDataVisitor) {
+		final Lock lock = storeLock.readLock();
+		lock.lock();
+		try {
+			ConcurrentExecutionDataTable previous = previousTests;
+			if (previous == null) {
+				synchronized (this) {
+					previous = previousTests;
+					if (previous == null) {
+						previous = new ConcurrentExecutionDataTable();
+						previousTests = previous;
+					}
+				}
 			}
+			for (final ExecutionData data : entries.values()) {
+				if (!data.hasHits()) {
+					continue;
+				}
+				if (executionDataVisitor != null) {
+					executionDataVisitor.visitClassExecution(data);
+				}
+				ExecutionData earlier = previous.get(data.getId());
+				if (earlier == null) {
+					earlier = previous
+							.putIfAbsent(new ExecutionData(data.getId(),
+									data.getName(), data.getProbeCount()));
+				}
+				earlier.merge(data);
+				data.reset();
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -105,16 +334,26 @@ public class RuntimeData {
 	 * Resets all coverage information.
 	 */
 	public final void reset() {
-		synchronized (store) {
-			store.reset();
-			startTimeStamp = System.currentTimeMillis();
+		reset(entries.values());
+	}
+
+	private void reset(final List<ExecutionData> contents) {
+		for (final ExecutionData data : contents) {
+			data.reset();
+		}
+		final ConcurrentExecutionDataTable previous = previousTests;
+		if (previous != null) {
+			for (final ExecutionData data : previous.values()) {
+				data.reset();
+			}
 		}
+		resets.incrementAndGet();
+		startTimeStamp = System.currentTimeMillis();
 	}
 
 	/**
 	 * Returns the coverage data for the class with the given identifier. If
 	 * there is no data available under the given id a new entry is created.
-	 * This is a synchronized access to the underlying store.
 	 *
 	 * @param id
 	 *            class identifier
@@ -126,9 +365,37 @@ public class RuntimeData {
 	 */
 	public ExecutionData getExecutionData(final Long id, final String name,
 			final int probecount) {
-		synchronized (store) {
-			return store.get(id, name, probecount);
+		return getExecutionData(id.longValue(), name, probecount);
+	}
+
+	/**
+	 * Returns the coverage data for the class with the given identifier. If
+	 * there is no data available under the given id a new entry is created.
+	 * Existing entries are looked up without locks.
+	 *
+	 * @param id
+	 *            class identifier
+	 * @param name
+	 *            VM name of the class
+	 * @param probecount
+	 *            probe data length
+	 * @return execution data
+	 */
+	public ExecutionData getExecutionData(final long id, final String name,
+			final int probecount) {
+		ExecutionData entry = entries.get(id);
+		if (entry == null) {
+			final Lock lock = storeLock.readLock();
+			lock.lock();
+			try {
+				entry = entries
+						.putIfAbsent(new ExecutionData(id, name, probecount));
+			} finally {
+				lock.unlock();
+			}
 		}
+		entry.assertCompatibility(id, name, probecount);
+		return entry;
 	}
 
 	/**
@@ -152,7 +419,7 @@ public class RuntimeData {
 	 *            parameter array of length 3
 	 */
 	public void getProbes(final Object[] args) {
-		final Long classid = (Long) args[0];
+		final long classid = ((Long) args[0]).longValue();
 		final String name = (String) args[1];
 		final int probecount = ((Integer) args[2]).intValue();
 		args[0] = getExecutionData(classid, name, probecount).getProbes();
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.coverage.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Classes to update coverage for
+ * ({@link org.ijacoco.core.rts.Names#CLASS_URLS_TO_UPDATE_COVERAGE_DATA_FILE}).
+ * The file is written by the checker and read by each forked VM that merges
+ * coverage, so it is looked up in place (in its serialized form) rather than
+ * decoded into a set. It is read into memory, not mapped: the checker replaces
+ * it on each selection, possibly in the same VM. The checker writes a temporary
+ * file and renames it, so readers never see a partial file.
+ *
+ * URLs (without extension) are stored reversed and sorted (by UTF-8 bytes), so
+ * that all URLs ending with a given VM name share a prefix and are found by
+ * binary search.
+ *
+ * <pre>
+ * header:  int magic, int count
+ * offsets: count * int offset (from the end of offsets)
+ * urls:    count * (int length, UTF-8 bytes of reversed url)
+ * </pre>
+ */
+public final class CoverageClassesFile {
+
+	private static final int MAGIC = 0x636F7663;
+
+	private static final int HEADER_SIZE = 8;
+
+	/** Extension of the file that is written before it replaces the file */
+	private static final String TMP_FILE_EXT = ".tmp";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Content of the file */
+	private final ByteBuffer buffer;
+
+	/** Number of urls */
+	private final int count;
+
+	/** Position of the first url */
+	private final int start;
+
+	private CoverageClassesFile(final ByteBuffer buffer, final int count) {
+		this.buffer = buffer;
+		this.count = count;
+		this.start = HEADER_SIZE + count * 4;
+	}
+
+	/**
+	 * Writes the given class URLs to the given file.
+	 *
+	 * @param urls
+	 *            URLs of classes without extension
+	 * @param file
+	 *            file to write
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void write(final Collection<String> urls, final File file)
+			throws IOException {
+		final byte[][] keys = new byte[urls.size()][];
+		int i = 0;
+		for (final String url : urls) {
+			keys[i++] = reversed(url);
+		}
+		Arrays.sort(keys, new Comparator<byte[]>() {
+			public int compare(final byte[] a, final byte[] b) {
+				return CoverageClassesFile.compare(ByteBuffer.wrap(a), 0,
+						a.length, b);
+			}
+		});
+		final File tmpFile = File.createTempFile(file.getName(), TMP_FILE_EXT,
+				file.getAbsoluteFile().getParentFile());
+		try {
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(keys.length);
+				int offset = 0;
+				for (final byte[] key : keys) {
+					out.writeInt(offset);
+					offset += 4 + key.length;
+				}
+				for (final byte[] key : keys) {
+					out.writeInt(key.length);
+					out.write(key);
+				}
+			} finally {
+				out.close();
+			}
+			// renameTo does not overwrite an existing file everywhere.
+			if (!tmpFile.renameTo(file)
+					&& !(file.delete() && tmpFile.renameTo(file))) {
+				throw new IOException("Could not replace " + file);
+			}
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Reads the given file.
+	 *
+	 * @param file
+	 *            file written by {@link #write(Collection, File)}
+	 * @return classes in the file, or <code>null</code> if the file has another
+	 *         format (e.g., written by an older version)
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static CoverageClassesFile read(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final ByteBuffer buffer = readFully(raf.getChannel());
+			if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+				return null;
+			}
+			final int count = buffer.getInt(4);
+			if (count < 0 || HEADER_SIZE + (long) count * 4 > buffer.limit()) {
+				return null;
+			}
+			return new CoverageClassesFile(buffer, count);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the number of URLs in the file.
+	 *
+	 * @return number of URLs
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Checks whether any URL ends with the given VM name (where the name starts
+	 * after a '/' in the URL).
+	 *
+	 * @param name
+	 *            VM name of a class
+	 * @return <code>true</code> if the class is in the file
+	 */
+	public boolean containsClass(final String name) {
+		final byte[] key = reversed('/' + name);
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (compare(mid, key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low < count && startsWith(low, key);
+	}
+
+	// INTERNAL
+
+	private static ByteBuffer readFully(final FileChannel channel)
+			throws IOException {
+		final ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+		while (content.hasRemaining()) {
+			if (channel.read(content, content.position()) < 0) {
+				break;
+			}
+		}
+		content.flip();
+		return content;
+	}
+
+	private static byte[] reversed(final String url) {
+		return new StringBuilder(url).reverse().toString().getBytes(UTF8);
+	}
+
+	private int position(final int index) {
+		return start + buffer.getInt(HEADER_SIZE + index * 4);
+	}
+
+	private int compare(final int index, final byte[] key) {
+		final int position = position(index);
+		return compare(buffer, position + 4, buffer.getInt(position), key);
+	}
+
+	private boolean startsWith(final int index, final byte[] key) {
+		final int position = position(index);
+		final int length = buffer.getInt(position);
+		return length >= key.length
+				&& compare(buffer, position + 4, key.length, key) == 0;
+	}
+
+	/**
+	 * Compares (unsigned) bytes of the given buffer region with the given key.
+	 */
+	private static int compare(final ByteBuffer buffer, final int offset,
+			final int length, final byte[] key) {
+		final int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			final int diff = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return length - key.length;
+	}
+}
@@ -15,11 +15,14 @@ package org.ijacoco.core.coverage.tools;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 import org.ijacoco.core.coverage.data.ExecutionDataReader;
 import org.ijacoco.core.coverage.data.ExecutionDataStore;
@@ -32,9 +35,15 @@ import org.ijacoco.core.coverage.data.SessionInfoStore;
  */
 public class ExecFileLoader {
 
+	/** Files of at least this size are memory-mapped rather than read */
+	private static final long MAP_THRESHOLD = 1024 * 1024;
+
 	private final SessionInfoStore sessionInfos;
 	private final ExecutionDataStore executionData;
 
+	/** Buffer reused for reading (small) files */
+	private ByteBuffer readBuffer;
+
 	/**
 	 * New instance to combine session infos and execution data from multiple
 	 * files.
@@ -69,14 +78,48 @@ public class ExecFileLoader {
 	 *             in case of problems while reading from the stream
 	 */
 	public void load(final File file) throws IOException {
-		final InputStream stream = new FileInputStream(file);
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
 		try {
-			load(stream);
+			final FileChannel channel = raf.getChannel();
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				load(Channels.newInputStream(channel));
+			} else if (size >= MAP_THRESHOLD) {
+				load(channel.map(FileChannel.MapMode.READ_ONLY, 0L, size));
+			} else {
+				if (readBuffer == null || readBuffer.capacity() < size) {
+					readBuffer = ByteBuffer.allocate((int) size);
+				}
+				readBuffer.clear();
+				readBuffer.limit((int) size);
+				while (readBuffer.hasRemaining()) {
+					if (channel.read(readBuffer) < 0) {
+						break;
+					}
+				}
+				readBuffer.flip();
+				load(readBuffer);
+			}
 		} finally {
-			stream.close();
+			raf.close();
 		}
 	}
 
+	/**
+	 * Reads all data from the remaining content of the given buffer.
+	 *
+	 * @param buffer
+	 *            buffer to read data from
+	 * @throws IOException
+	 *             in case of problems while reading from the buffer
+	 */
+	public void load(final ByteBuffer buffer) throws IOException {
+		final ExecutionDataReader reader = new ExecutionDataReader(buffer);
+		reader.setExecutionDataVisitor(executionData);
+		reader.setSessionInfoVisitor(sessionInfos);
+		reader.read();
+	}
+
 	/**
 	 * Saves the current content into the given output stream.
 	 *
@@ -30,6 +30,7 @@ import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.ijacoco.core.rts.data.BinStorer;
+import org.ijacoco.core.rts.data.DbStorer;
 import org.ijacoco.core.rts.data.DependencyAnalyzer;
 import org.ijacoco.core.rts.data.PrefixTxtStorer;
 import org.ijacoco.core.rts.data.Storer;
@@ -37,6 +38,7 @@ import org.ijacoco.core.rts.data.TxtStorer;
 import org.ijacoco.core.rts.hash.FileCachingHasher;
 import org.ijacoco.core.rts.hash.Hasher;
 import org.ijacoco.core.rts.hash.Hasher.Algorithm;
+import org.ijacoco.core.rts.hash.StatIndex;
 import org.ijacoco.core.rts.log.Log;
 import org.ijacoco.core.rts.log.TimeLog;
 
@@ -132,6 +134,14 @@ public final class Config {
 	public static boolean DEPENDENCIES_APPEND_V = false;
 	protected static final String DEPENDENCIES_APPEND_N = "dependencies.append";
 
+	@Opt(desc = "Collect dependencies separately for each thread that runs tests (needed if tests run in parallel in one VM).")
+	public static boolean DEPENDENCIES_PER_THREAD_V = false;
+	protected static final String DEPENDENCIES_PER_THREAD_N = "dependencies.per.thread";
+
+	@Opt(desc = "Keep index from dependencies to tests (used to find affected tests without loading all dependencies).")
+	public static boolean DEPENDENCIES_INDEX_V = false;
+	protected static final String DEPENDENCIES_INDEX_N = "dependencies.index";
+
 	@Opt(desc = "Parts of paths to dependencies that should not be collected.")
 	public static Pattern DEPENDENCIES_IGNORED_PATHS_V = null;
 	protected static final String DEPENDENCIES_IGNORED_PATHS_N = "dependencies.ignored.paths";
@@ -162,6 +172,14 @@ public final class Config {
 	private static boolean HASH_WITHOUT_DEBUGINFO_V = true;
 	protected static final String HASH_WITHOUT_DEBUGINFO_N = "hash.without.debuginfo";
 
+	@Opt(desc = "Hash a file only if its size, modification time, or inode changed since it was last hashed (used to find affected tests).")
+	public static boolean HASH_STAT_INDEX_V = false;
+	protected static final String HASH_STAT_INDEX_N = "hash.stat.index";
+
+	@Opt(desc = "Share hashes among all VMs of a build through the stat index; the build plugin fills the index when it finds affected tests and agents (e.g., in forked VMs) look up hashes in it.")
+	public static boolean HASH_SHARED_V = false;
+	protected static final String HASH_SHARED_N = "hash.shared";
+
 	@Opt(desc = "Sizes of several caches.")
 	public static int CACHE_SIZES_V = 1000;
 	protected static final String CACHE_SIZES_N = "cache.sizes";
@@ -174,7 +192,7 @@ public final class Config {
 	public static boolean X_SAVE_INSTRUMENTED_CODE_V = false;
 	protected static final String X_SAVE_INSTRUMENTED_CODE_N = "x.save.instrumented.code";
 
-	@Opt(desc = "X: Enable/disable storing hasher cache to file.")
+	@Opt(desc = "X: Enable/disable storing hasher cache to file (shared by all VMs; entries are validated with file metadata).")
 	public static boolean X_SAVE_HASHER_CACHE_V = false;
 	protected static final String X_SAVE_HASHER_CACHE_N = "x.save.hasher.cache";
 
@@ -236,12 +254,20 @@ public final class Config {
 	private static String[] SELECTION_INCLUDES_V = null;
 	protected static final String SELECTION_INCLUDES_N = "selection.includes";
 
+	@Opt(desc = "Number of threads used to find affected tests (sequential if not greater than 1).")
+	public static int SELECTION_THREADS_V = 1;
+	protected static final String SELECTION_THREADS_N = "selection.threads";
+
 	// OTHER
 
 	@Opt(desc = "X: Enable/disable code instrumentation.")
 	public static boolean X_INSTRUMENT_CODE_V = true;
 	protected static final String X_INSTRUMENT_CODE_N = "x.instrument.code";
 
+	@Opt(desc = "Classes are instrumented to collect dependencies by the coverage agent in the same pass as for coverage; the RTS agent instruments only classes that the coverage agent did not.")
+	public static boolean INSTRUMENT_FUSED_V = false;
+	protected static final String INSTRUMENT_FUSED_N = "instrument.fused";
+
 	@Opt(desc = "X: Enable/disable dependency storing.")
 	public static boolean X_DEPENDENCIES_SAVE_V = true;
 	protected static final String X_DEPENDENCIES_SAVE_N = "x.dependencies.save";
@@ -379,6 +405,8 @@ public final class Config {
 		X_LOG_RUNS_V = getBoolean(props, X_LOG_RUNS_N, X_LOG_RUNS_V);
 		X_INSTRUMENT_CODE_V = getBoolean(props, X_INSTRUMENT_CODE_N,
 				X_INSTRUMENT_CODE_V);
+		INSTRUMENT_FUSED_V = getBoolean(props, INSTRUMENT_FUSED_N,
+				INSTRUMENT_FUSED_V);
 		X_DEPENDENCIES_SAVE_V = getBoolean(props, X_DEPENDENCIES_SAVE_N,
 				X_DEPENDENCIES_SAVE_V);
 		DEBUG_V = getBoolean(props, DEBUG_N, DEBUG_V);
@@ -394,16 +422,25 @@ public final class Config {
 				SELECTION_EXCLUDES_V);
 		SELECTION_INCLUDES_V = getArray(props, SELECTION_INCLUDES_N,
 				SELECTION_INCLUDES_V);
+		SELECTION_THREADS_V = getInteger(props, SELECTION_THREADS_N,
+				SELECTION_THREADS_V);
 		FORCE_ALL_V = getBoolean(props, FORCE_ALL_N, FORCE_ALL_V);
 		FORCE_FAILING_V = getBoolean(props, FORCE_FAILING_N, FORCE_FAILING_V);
 		HASH_WITHOUT_DEBUGINFO_V = getBoolean(props, HASH_WITHOUT_DEBUGINFO_N,
 				HASH_WITHOUT_DEBUGINFO_V);
+		HASH_STAT_INDEX_V = getBoolean(props, HASH_STAT_INDEX_N,
+				HASH_STAT_INDEX_V);
+		HASH_SHARED_V = getBoolean(props, HASH_SHARED_N, HASH_SHARED_V);
 		CACHE_SEEN_CLASSES_V = getBoolean(props, CACHE_SEEN_CLASSES_N,
 				CACHE_SEEN_CLASSES_V);
 		X_IGNORE_ALL_TESTS_V = getBoolean(props, X_IGNORE_ALL_TESTS_N,
 				X_IGNORE_ALL_TESTS_V);
 		DEPENDENCIES_APPEND_V = getBoolean(props, DEPENDENCIES_APPEND_N,
 				DEPENDENCIES_APPEND_V);
+		DEPENDENCIES_INDEX_V = getBoolean(props, DEPENDENCIES_INDEX_N,
+				DEPENDENCIES_INDEX_V);
+		DEPENDENCIES_PER_THREAD_V = getBoolean(props, DEPENDENCIES_PER_THREAD_N,
+				DEPENDENCIES_PER_THREAD_V);
 		X_SAVE_INSTRUMENTED_CODE_V = getBoolean(props,
 				X_SAVE_INSTRUMENTED_CODE_N, X_SAVE_INSTRUMENTED_CODE_V);
 		X_SAVE_HASHER_CACHE_V = getBoolean(props, X_SAVE_HASHER_CACHE_N,
@@ -600,6 +637,8 @@ public final class Config {
 			return new BinStorer();
 		} else if (mode == Storer.Mode.PREFIX_TXT) {
 			return new PrefixTxtStorer();
+		} else if (mode == Storer.Mode.DB) {
+			return new DbStorer();
 		} else {
 			Log.e("Storer must have default value.");
 			throw new RuntimeException();
@@ -607,14 +646,40 @@ public final class Config {
 	}
 
 	public static Hasher createHasher() {
+		if (HASH_SHARED_V) {
+			return new FileCachingHasher(Config.HASH_ALGORITHM_V,
+					Config.CACHE_SIZES_V, Config.HASH_WITHOUT_DEBUGINFO_V,
+					new File(Config.RTS_DIR_V, Names.STAT_INDEX_FILE_NAME));
+		}
 		return X_SAVE_HASHER_CACHE_V
 				? new FileCachingHasher(Config.HASH_ALGORITHM_V,
 						Config.CACHE_SIZES_V, Config.HASH_WITHOUT_DEBUGINFO_V,
-						new File(Config.RTS_DIR_V, "hasher-cache.txt"))
+						new File(Config.RTS_DIR_V,
+								Names.HASHER_CACHE_FILE_NAME))
 				: new Hasher(Config.HASH_ALGORITHM_V, Config.CACHE_SIZES_V,
 						Config.HASH_WITHOUT_DEBUGINFO_V);
 	}
 
+	/**
+	 * Creates a hasher without any cache (e.g., for threads that share a cache
+	 * of hashes).
+	 */
+	public static Hasher createNonCachingHasher() {
+		return new Hasher(Config.HASH_ALGORITHM_V, 0,
+				Config.HASH_WITHOUT_DEBUGINFO_V);
+	}
+
+	/**
+	 * Creates stat index, or returns null if the index is not used.
+	 */
+	public static StatIndex createStatIndex() {
+		if (!HASH_STAT_INDEX_V && !HASH_SHARED_V) {
+			return null;
+		}
+		return new StatIndex(new File(RTS_DIR_V, Names.STAT_INDEX_FILE_NAME),
+				HASH_ALGORITHM_V + " " + HASH_WITHOUT_DEBUGINFO_V);
+	}
+
 	public static DependencyAnalyzer createDepenencyAnalyzer() {
 		return new DependencyAnalyzer(CACHE_SIZES_V, createHasher(),
 				createStorer(), SELECTION_EXCLUDES_V, SELECTION_INCLUDES_V);
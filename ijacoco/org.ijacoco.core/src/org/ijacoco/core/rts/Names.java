@@ -29,6 +29,18 @@ public final class Names {
 
 	public static final String CLASS_URLS_TO_UPDATE_COVERAGE_DATA_FILE = "cov_classes";
 
+	/** Coverage of all classes from previous runs (survives clean builds) */
+	public static final String COVERAGE_BASELINE_FILE_NAME = "cov.db";
+
+	/** Class ids (for coverage) by checksum of class files */
+	public static final String CLASS_IDS_FILE_NAME = "cov.ids";
+
+	/** Coverage of analyzed classes from previous reports */
+	public static final String ANALYSIS_CACHE_FILE_NAME = "cov.analysis";
+
+	/** Directory (inside root directory) for coverage of each test class */
+	public static final String TEST_COVERAGE_DIR_NAME = "cov-tests";
+
 	/** Directory (inside root directory) for test results */
 	public static final String TEST_RESULTS_DIR_NAME = "test-results";
 
@@ -72,11 +84,18 @@ public final class Names {
 	public static final String RUN_INFO_FILE_NAME = "run.info";
 	public static final String TIME_LOG_FILE_NAME = "time-logs";
 	public static final String VERBOSE_FILE_NAME = "verbose.output";
-	public static final String HASHER_CACHE_FILE_NAME = "hasher-cache.txt";
+	public static final String HASHER_CACHE_FILE_NAME = "hasher-cache";
 	public static final String META_FILE_NAME = "META";
+	/** Single file that keeps all dependencies (when db format is used) */
+	public static final String DEPENDENCIES_DB_FILE_NAME = "deps.db";
+	/** Inverted index from dependencies to tests */
+	public static final String DEPENDENCIES_INDEX_FILE_NAME = "deps.idx";
+	/** Metadata and hashes of files seen when finding affected tests */
+	public static final String STAT_INDEX_FILE_NAME = "stat.idx";
 
 	/** Names of all files used by the tool */
 	public static final String[] ALL_FILE_NAMES = { RUN_INFO_FILE_NAME,
 			TIME_LOG_FILE_NAME, VERBOSE_FILE_NAME, HASHER_CACHE_FILE_NAME,
-			META_FILE_NAME, };
+			META_FILE_NAME, DEPENDENCIES_DB_FILE_NAME,
+			DEPENDENCIES_INDEX_FILE_NAME, STAT_INDEX_FILE_NAME, };
 }
@@ -25,6 +25,7 @@ import java.lang.instrument.Instrumentation;
 import java.util.concurrent.locks.ReentrantLock;
 import org.ijacoco.core.rts.data.DependencyAnalyzer;
 import org.ijacoco.core.rts.log.Log;
+import org.ijacoco.core.rts.monitor.TestMonitor;
 
 /**
  * Tool Facade/Singleton. This class should be the only interaction between
@@ -124,10 +125,12 @@ public final class RTS {
 		if (mIsEnabled) {
 			mDependencyAnalyzer.beginClassCoverage(className);
 		}
+		TestMonitor.beginTest(className);
 	}
 
 	private void endClassCoverage(String className) {
 		Log.d("End measuring coverage: " + className);
+		TestMonitor.endTest(className);
 		if (mIsEnabled) {
 			mDependencyAnalyzer.endClassCoverage(className);
 		}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.agent;
+
+import org.ijacoco.core.coverage.IJaCoCo;
+import org.ijacoco.core.rts.Config;
+import org.ijacoco.core.rts.Names;
+import org.ijacoco.core.rts.instrument.CoverageClassVisitor;
+
+/**
+ * Entry point of the RTS agent for the coverage agent, which inserts
+ * invocations of the RTS monitors when it instruments classes for coverage (see
+ * {@link Config#INSTRUMENT_FUSED_V}). The coverage agent relocates its own copy
+ * of the RTS classes, so it looks up this class by its original name on the
+ * system class path and invokes these methods reflectively (only if it is
+ * started with option fused). Names of the monitors are taken from here too.
+ */
+public final class FusedInstrumentation {
+
+	private FusedInstrumentation() {
+	}
+
+	/**
+	 * Returns the build version of the RTS agent; the coverage agent does not
+	 * insert invocations of monitors of another build.
+	 */
+	public static String getVersion() {
+		return IJaCoCo.VERSION;
+	}
+
+	/**
+	 * Checks if the given class should be instrumented by the coverage agent to
+	 * collect dependencies (see
+	 * {@link RTSCFT#isInstrumentable(ClassLoader, String, byte[])}).
+	 */
+	public static boolean isInstrumentable(ClassLoader loader, String className,
+			byte[] classfileBuffer) {
+		return RTSCFT.isInstrumentable(loader, className, classfileBuffer);
+	}
+
+	/**
+	 * Returns a new probe id (see {@link CoverageClassVisitor#newProbeId()}).
+	 */
+	public static int newProbeId() {
+		return CoverageClassVisitor.newProbeId();
+	}
+
+	public static String getCoverageMonitor() {
+		return Names.COVERAGE_MONITOR_VM;
+	}
+
+	public static String getLoaderMonitor() {
+		return Instr.LOADER_MONITOR_CLASS_INTERNAL_NAME;
+	}
+
+	public static String getReflectionMonitor() {
+		return Instr.REFLECTION_MONITOR_CLASS_INTERNAL_NAME;
+	}
+
+	public static String getSystemMonitor() {
+		return Instr.SYSTEM_MONITOR_CLASS_INTERNAL_NAME;
+	}
+
+	public static String getPackageName() {
+		return Names.RTS_PACKAGE_BIN;
+	}
+}
@@ -54,6 +54,10 @@ public final class RTSCFT implements ClassFileTransformer {
 	private static final String COVERAGE_MONITOR_RESOURCE = Names.COVERAGE_MONITOR_VM
 			.concat(".class");
 
+	/** Name of the monitor as it appears in the constant pool */
+	private static final byte[] COVERAGE_MONITOR_NAME_BYTES = toBytes(
+			Names.COVERAGE_MONITOR_VM);
+
 	/** Cache for redefined classes; avoiding to redefine any class twice */
 	private final Set<String> mCacheRedefinedClasses;
 
@@ -65,6 +69,9 @@ public final class RTSCFT implements ClassFileTransformer {
 	/** Pattern that describes classes to be included */
 	private final Pattern mClassesInclude;
 
+	/** Classes may have been instrumented by the coverage agent */
+	private final boolean mIsFused;
+
 	/**
 	 * Constructor.
 	 */
@@ -73,6 +80,27 @@ public final class RTSCFT implements ClassFileTransformer {
 				.newSetFromMap(new LRUMap<String, Boolean>(1000));
 		this.mIsSaveInstrumentedHash = Config.X_SAVE_INSTRUMENTED_CODE_V;
 		this.mClassesInclude = Config.DEPENDENCIES_CLASSES_INSTRUMENT_V;
+		this.mIsFused = Config.INSTRUMENT_FUSED_V;
+	}
+
+	/**
+	 * Checks if the given class should be instrumented to collect dependencies.
+	 * This method is used by the coverage agent when classes are instrumented
+	 * in one pass (see {@link FusedInstrumentation}); it performs the same
+	 * checks as this transformer. Classes that this transformer has already
+	 * instrumented (i.e., if it runs before the coverage agent) are skipped, so
+	 * the order of agents does not matter.
+	 */
+	public static boolean isInstrumentable(ClassLoader loader, String className,
+			byte[] classfileBuffer) {
+		return Config.INSTRUMENT_FUSED_V && Config.X_INSTRUMENT_CODE_V
+				&& (Config.DEPENDENCIES_CLASSES_INSTRUMENT_V == null
+						|| Config.DEPENDENCIES_CLASSES_INSTRUMENT_V
+								.matcher(className).find())
+				&& !className.contains("$Proxy")
+				&& !Types.isIgnorableInternalName(className)
+				&& isMonitorAccessibleFromClassLoader(loader)
+				&& !invokesCoverageMonitor(classfileBuffer);
 	}
 
 	@Override
@@ -96,6 +124,11 @@ public final class RTSCFT implements ClassFileTransformer {
 			return null;
 		}
 
+		// Skip classes instrumented by the coverage agent in the same pass.
+		if (mIsFused && invokesCoverageMonitor(classfileBuffer)) {
+			return null;
+		}
+
 		StorageResult storageResult = loadInstrumentedClassfile(loader,
 				className, classfileBuffer);
 		if (storageResult != null && storageResult.mClassfile != null) {
@@ -235,6 +268,15 @@ public final class RTSCFT implements ClassFileTransformer {
 
 	// INTERNAL
 
+	private static byte[] toBytes(String name) {
+		byte[] bytes = new byte[name.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			// Class names of our monitors are ASCII.
+			bytes[i] = (byte) name.charAt(i);
+		}
+		return bytes;
+	}
+
 	/**
 	 * Creates class visitor to instrument for coverage based on configuration
 	 * options.
@@ -249,7 +291,8 @@ public final class RTSCFT implements ClassFileTransformer {
 	// instrument; TODO: we should log this problem.
 	// TODO: Check if this method is needed after introducing
 	// LoaderMethodVisitor and LoaderMonitor.
-	private boolean isMonitorAccessibleFromClassLoader(ClassLoader loader) {
+	private static boolean isMonitorAccessibleFromClassLoader(
+			ClassLoader loader) {
 		if (loader == null) {
 			return false;
 		}
@@ -274,6 +317,25 @@ public final class RTSCFT implements ClassFileTransformer {
 		return isMonitorAccessible;
 	}
 
+	/**
+	 * Checks if the constant pool of the given class contains the name of the
+	 * coverage monitor, i.e., if the class has already been instrumented to
+	 * collect dependencies. This is much cheaper than parsing the class.
+	 */
+	private static boolean invokesCoverageMonitor(byte[] classfileBuffer) {
+		byte[] name = COVERAGE_MONITOR_NAME_BYTES;
+		int last = classfileBuffer.length - name.length;
+		outer: for (int i = 0; i <= last; i++) {
+			for (int j = 0; j < name.length; j++) {
+				if (classfileBuffer[i + j] != name[j]) {
+					continue outer;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
 	// DEBUGGING
 
 	/**
@@ -16,29 +16,32 @@
 
 package org.ijacoco.core.rts.check;
 
-import static org.ijacoco.core.rts.check.AbstractCheck.hasHashChanged;
 import static org.ijacoco.core.rts.util.StringUtil.removeExtension;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
 
+import org.ijacoco.core.coverage.tools.CoverageClassesFile;
 import org.ijacoco.core.coverage.tools.FileUtils;
 import org.ijacoco.core.rts.Config;
 import org.ijacoco.core.rts.Names;
 import org.ijacoco.core.rts.data.DependencyAnalyzer;
+import org.ijacoco.core.rts.data.DependencyIndex;
 import org.ijacoco.core.rts.data.RegData;
 import org.ijacoco.core.rts.data.Storer;
 import org.ijacoco.core.rts.hash.Hasher;
+import org.ijacoco.core.rts.hash.StatIndex;
+import org.ijacoco.core.rts.log.Log;
 
 /**
  * Checks all files in coverage directory based on configuration and print the
@@ -71,6 +74,9 @@ public class AffectedChecker {
 	/** Forces cache use */
 	private static final String FORCE_CACHE_USE = "--force-cache-use";
 
+	/** Number of tasks per thread when finding affected tests in parallel */
+	private static final int TASKS_PER_THREAD = 8;
+
 	/**
 	 * The user has to specify directory that keep coverage and optionally mode
 	 * that should be used to print non affected classes.
@@ -221,7 +227,7 @@ public class AffectedChecker {
 		}
 
 		// Find affected test classes.
-		includeAffected(allClasses, affectedClasses, getSortedFiles(depsDir));
+		includeAffected(allClasses, affectedClasses);
 
 		// Find test classes that are not affected.
 		List<String> nonAffectedClasses = new ArrayList<String>(
@@ -235,27 +241,6 @@ public class AffectedChecker {
 		return coverageDir == null || !coverageDir.exists();
 	}
 
-	private static List<File> getSortedFiles(File coverageDir) {
-		List<File> sortedFiles = new ArrayList<File>();
-		File[] files = coverageDir.listFiles(new FilenameFilter() {
-			public boolean accept(File dir, String name) {
-				// Exclude tool files.
-				return (!name.contains(Names.VERBOSE_FILE_NAME)
-						&& !name.contains(Names.RUN_INFO_FILE_NAME));
-			}
-		});
-		// It can be null when directory still does not exists.
-		if (files == null)
-			return sortedFiles;
-		sortedFiles = new ArrayList<File>(Arrays.asList(files));
-		Collections.sort(sortedFiles, new Comparator<File>() {
-			public int compare(File o1, File o2) {
-				return o1.getName().compareTo(o2.getName());
-			}
-		});
-		return sortedFiles;
-	}
-
 	/**
 	 * Prints non affected classes in the given mode. If mode is not specified,
 	 * one class is printed per line.
@@ -304,12 +289,33 @@ public class AffectedChecker {
 	 * Find all non affected classes.
 	 */
 	private static void includeAffected(Set<String> allClasses,
-			Set<String> affectedClasses, List<File> sortedFiles) {
+			Set<String> affectedClasses) {
 		Storer storer = Config.createStorer();
-		Hasher hasher = Config.createHasher();
-
-		DependencyInfo dependencyInfo = collectDependencyInfo(storer, hasher,
-				sortedFiles);
+		StatIndex statIndex = Config.createStatIndex();
+		// Hashes are cached in the stat index (if any).
+		Hasher hasher = statIndex == null ? Config.createHasher()
+				: Config.createNonCachingHasher();
+
+		List<String> testClassNames = storer.listNames(Config.RTS_DIR_V,
+				DependencyAnalyzer.CLASS_EXT);
+		DependencyInfo dependencyInfo = null;
+		if (Config.DEPENDENCIES_INDEX_V) {
+			DependencyIndex index = new DependencyIndex(Config.RTS_DIR_V);
+			if (index.load() && index.getTestNames()
+					.equals(new HashSet<String>(testClassNames))) {
+				dependencyInfo = collectDependencyInfo(index, storer,
+						new HashMemo(hasher, statIndex));
+			} else {
+				index.rebuild(storer, Config.RTS_DIR_V, testClassNames);
+			}
+		}
+		if (dependencyInfo == null) {
+			dependencyInfo = collectDependencyInfo(storer, hasher, statIndex,
+					testClassNames);
+		}
+		if (statIndex != null) {
+			statIndex.save();
+		}
 		Result result = computeAffectedTestClassesAndModifiedSourceClasses(
 				dependencyInfo);
 		allClasses.addAll(dependencyInfo.allTests);
@@ -317,8 +323,12 @@ public class AffectedChecker {
 
 		File coverageClassesFile = new File(Config.RTS_DIR_V,
 				Names.CLASS_URLS_TO_UPDATE_COVERAGE_DATA_FILE);
-		FileUtils.serialize(result.classesToUpdateCoverage,
-				coverageClassesFile);
+		try {
+			CoverageClassesFile.write(result.classesToUpdateCoverage,
+					coverageClassesFile);
+		} catch (IOException ex) {
+			Log.e("Could not write classes to update coverage", ex);
+		}
 
 		if (Config.DEBUG_V) {
 			// dump information in text format
@@ -350,48 +360,111 @@ public class AffectedChecker {
 	}
 
 	private static DependencyInfo collectDependencyInfo(Storer storer,
-			Hasher hasher, List<File> sortedFiles) {
+			Hasher hasher, StatIndex statIndex, List<String> testClassNames) {
+		if (Config.SELECTION_THREADS_V > 1) {
+			return collectDependencyInfoInParallel(storer, statIndex,
+					testClassNames, Config.SELECTION_THREADS_V);
+		}
 		DependencyInfo dependencyInfo = new DependencyInfo();
-		for (File file : sortedFiles) {
-			if (file.isDirectory()) {
-				continue;
+		HashMemo hashMemo = new HashMemo(hasher, statIndex);
+		for (String testClassName : testClassNames) {
+			collectDependencyInfo(dependencyInfo, storer, hashMemo,
+					testClassName);
+		}
+		return dependencyInfo;
+	}
+
+	/**
+	 * Collects dependency info from the index; only urls whose hash changed are
+	 * mapped to tests, and dependencies are loaded only for modified tests (as
+	 * their dependencies are needed to find transitively affected tests).
+	 */
+	private static DependencyInfo collectDependencyInfo(DependencyIndex index,
+			Storer storer, HashMemo hashMemo) {
+		DependencyInfo dependencyInfo = new DependencyInfo();
+		for (String testClassName : index.getTestNames()) {
+			dependencyInfo.allTests.add(testClassName);
+			if (!index.hasDependencies(testClassName)) {
+				dependencyInfo.affectedTests.add(testClassName);
 			}
-			String fileName = file.getName();
-			String dirName = file.getParent();
-			if (!fileName.endsWith(DependencyAnalyzer.CLASS_EXT)) {
+		}
+		for (String urlExternalForm : index.getURLs()) {
+			Set<String> tests = index.getAffectedTests(urlExternalForm,
+					hashMemo.hashURL(urlExternalForm));
+			if (tests.isEmpty()) {
 				continue;
 			}
-			String testClassName = removeExtension(fileName,
-					DependencyAnalyzer.CLASS_EXT);
-			dependencyInfo.allTests.add(testClassName);
-			Set<RegData> dependencies = storer.load(dirName, testClassName,
-					DependencyAnalyzer.CLASS_EXT);
-			if (dependencies == null || dependencies.isEmpty()) {
+			String url = removeExtension(urlExternalForm, "class");
+			dependencyInfo.modifiedSourceUrls.add(url);
+			for (String testClassName : tests) {
 				dependencyInfo.affectedTests.add(testClassName);
-				continue;
+				if (url.endsWith(testClassName.replaceAll("\\.", "/"))) {
+					dependencyInfo.modifiedTests.add(testClassName);
+				}
 			}
-			boolean testIsAffected = false;
-			for (RegData dependency : dependencies) {
+		}
+		for (String modifiedTest : dependencyInfo.modifiedTests) {
+			for (RegData dependency : storer.load(Config.RTS_DIR_V,
+					modifiedTest, DependencyAnalyzer.CLASS_EXT)) {
 				String url = removeExtension(dependency.getURLExternalForm(),
 						"class");
-				String testClassVmName = testClassName.replaceAll("\\.", "/");
-				boolean hasHashChanged = hasHashChanged(hasher, dependency);
-				if (hasHashChanged) {
-					if (url.endsWith(testClassVmName)) {
-						dependencyInfo.modifiedTests.add(testClassName);
-					}
-					dependencyInfo.modifiedSourceUrls.add(url);
-					testIsAffected = true;
+				updateDependencyInfo(dependencyInfo, modifiedTest, url);
+				for (String testClassName : index
+						.getTests(dependency.getURLExternalForm())) {
+					updateDependencyInfo(dependencyInfo, testClassName, url);
 				}
-				updateDependencyInfo(dependencyInfo, testClassName, url);
-			}
-			if (testIsAffected) {
-				dependencyInfo.affectedTests.add(testClassName);
 			}
 		}
 		return dependencyInfo;
 	}
 
+	/**
+	 * Partitions test classes across a fork-join pool. Each distinct dependency
+	 * is hashed once (by any worker) and partial results are merged into a
+	 * single {@link DependencyInfo}.
+	 */
+	private static DependencyInfo collectDependencyInfoInParallel(Storer storer,
+			StatIndex statIndex, List<String> testClassNames, int numThreads) {
+		int threshold = Math.max(1,
+				testClassNames.size() / (numThreads * TASKS_PER_THREAD));
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			return pool.invoke(new CollectTask(storer, new HashMemo(statIndex),
+					testClassNames, 0, testClassNames.size(), threshold));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void collectDependencyInfo(DependencyInfo dependencyInfo,
+			Storer storer, HashMemo hashMemo, String testClassName) {
+		dependencyInfo.allTests.add(testClassName);
+		Set<RegData> dependencies = storer.load(Config.RTS_DIR_V, testClassName,
+				DependencyAnalyzer.CLASS_EXT);
+		if (dependencies == null || dependencies.isEmpty()) {
+			dependencyInfo.affectedTests.add(testClassName);
+			return;
+		}
+		boolean testIsAffected = false;
+		String testClassVmName = testClassName.replaceAll("\\.", "/");
+		for (RegData dependency : dependencies) {
+			String url = removeExtension(dependency.getURLExternalForm(),
+					"class");
+			boolean hasHashChanged = hashMemo.hasHashChanged(dependency);
+			if (hasHashChanged) {
+				if (url.endsWith(testClassVmName)) {
+					dependencyInfo.modifiedTests.add(testClassName);
+				}
+				dependencyInfo.modifiedSourceUrls.add(url);
+				testIsAffected = true;
+			}
+			updateDependencyInfo(dependencyInfo, testClassName, url);
+		}
+		if (testIsAffected) {
+			dependencyInfo.affectedTests.add(testClassName);
+		}
+	}
+
 	private static void updateDependencyInfo(DependencyInfo dependencyInfo,
 			String testClassName, String sourceUrl) {
 		if (!dependencyInfo.sourceToTests.containsKey(sourceUrl)) {
@@ -436,6 +509,73 @@ public class AffectedChecker {
 		Set<String> affectedTests = new HashSet<String>();
 		Set<String> modifiedTests = new HashSet<String>();
 		Set<String> modifiedSourceUrls = new HashSet<String>();
+
+		void merge(DependencyInfo other) {
+			mergeMaps(sourceToTests, other.sourceToTests);
+			mergeMaps(testToSources, other.testToSources);
+			allTests.addAll(other.allTests);
+			affectedTests.addAll(other.affectedTests);
+			modifiedTests.addAll(other.modifiedTests);
+			modifiedSourceUrls.addAll(other.modifiedSourceUrls);
+		}
+
+		private static void mergeMaps(Map<String, Set<String>> target,
+				Map<String, Set<String>> source) {
+			for (Map.Entry<String, Set<String>> entry : source.entrySet()) {
+				Set<String> values = target.get(entry.getKey());
+				if (values == null) {
+					target.put(entry.getKey(), entry.getValue());
+				} else {
+					values.addAll(entry.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects dependency info for a range of test classes; splits the range
+	 * until it is below the threshold.
+	 */
+	private static class CollectTask extends RecursiveTask<DependencyInfo> {
+		private static final long serialVersionUID = 1L;
+
+		private final Storer mStorer;
+		private final HashMemo mHashMemo;
+		private final List<String> mTestClassNames;
+		private final int mFrom;
+		private final int mTo;
+		private final int mThreshold;
+
+		CollectTask(Storer storer, HashMemo hashMemo,
+				List<String> testClassNames, int from, int to, int threshold) {
+			this.mStorer = storer;
+			this.mHashMemo = hashMemo;
+			this.mTestClassNames = testClassNames;
+			this.mFrom = from;
+			this.mTo = to;
+			this.mThreshold = threshold;
+		}
+
+		@Override
+		protected DependencyInfo compute() {
+			if (mTo - mFrom <= mThreshold) {
+				DependencyInfo dependencyInfo = new DependencyInfo();
+				for (int i = mFrom; i < mTo; i++) {
+					collectDependencyInfo(dependencyInfo, mStorer, mHashMemo,
+							mTestClassNames.get(i));
+				}
+				return dependencyInfo;
+			}
+			int middle = (mFrom + mTo) >>> 1;
+			CollectTask left = new CollectTask(mStorer, mHashMemo,
+					mTestClassNames, mFrom, middle, mThreshold);
+			CollectTask right = new CollectTask(mStorer, mHashMemo,
+					mTestClassNames, middle, mTo, mThreshold);
+			left.fork();
+			DependencyInfo dependencyInfo = right.compute();
+			dependencyInfo.merge(left.join());
+			return dependencyInfo;
+		}
 	}
 
 	private static class Result {
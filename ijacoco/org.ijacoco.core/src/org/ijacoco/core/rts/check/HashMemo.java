@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.check;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.ijacoco.core.rts.Config;
+import org.ijacoco.core.rts.data.RegData;
+import org.ijacoco.core.rts.hash.Hasher;
+import org.ijacoco.core.rts.hash.StatIndex;
+
+/**
+ * Memo table of current hashes; each url is hashed at most once even if several
+ * threads ask for it at the same time. As {@link Hasher} is not meant to be
+ * shared, each thread can hash with its own hasher. If a {@link StatIndex} is
+ * given, urls whose files did not change are not hashed at all.
+ */
+final class HashMemo {
+
+	/** Cache: url(external form)->hash (computed once) */
+	private final ConcurrentMap<String, FutureTask<String>> mHashes;
+
+	/** Hasher used by each thread */
+	private final ThreadLocal<Hasher> mHashers;
+
+	/** Index of file metadata (null if not used) */
+	private final StatIndex mStatIndex;
+
+	/**
+	 * Constructor for use from several threads; each thread creates its own
+	 * hasher.
+	 */
+	public HashMemo(StatIndex statIndex) {
+		this.mStatIndex = statIndex;
+		this.mHashes = new ConcurrentHashMap<String, FutureTask<String>>();
+		this.mHashers = new ThreadLocal<Hasher>() {
+			@Override
+			protected Hasher initialValue() {
+				return Config.createNonCachingHasher();
+			}
+		};
+	}
+
+	/**
+	 * Constructor; all threads use the given hasher.
+	 */
+	public HashMemo(final Hasher hasher, StatIndex statIndex) {
+		this.mStatIndex = statIndex;
+		this.mHashes = new ConcurrentHashMap<String, FutureTask<String>>();
+		this.mHashers = new ThreadLocal<Hasher>() {
+			@Override
+			protected Hasher initialValue() {
+				return hasher;
+			}
+		};
+	}
+
+	/**
+	 * Check if the given datum has changed.
+	 */
+	public boolean hasHashChanged(RegData regDatum) {
+		String newHash = hashURL(regDatum.getURLExternalForm());
+		return !newHash.equals(regDatum.getHash());
+	}
+
+	/**
+	 * Returns current hash of the resource at the given url.
+	 */
+	public String hashURL(final String urlExternalForm) {
+		FutureTask<String> hash = mHashes.get(urlExternalForm);
+		if (hash == null) {
+			FutureTask<String> newHash = new FutureTask<String>(
+					new Callable<String>() {
+						public String call() {
+							Hasher hasher = mHashers.get();
+							return mStatIndex == null
+									? hasher.hashURL(urlExternalForm)
+									: mStatIndex.hashURL(urlExternalForm,
+											hasher);
+						}
+					});
+			hash = mHashes.putIfAbsent(urlExternalForm, newHash);
+			if (hash == null) {
+				hash = newHash;
+				newHash.run();
+			}
+		}
+		try {
+			return hash.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		} catch (ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.ijacoco.core.rts.Names;
+import org.ijacoco.core.rts.log.Log;
+import org.ijacoco.core.rts.util.FileUtil;
+
+/**
+ * Storing dependencies of all tests in a single file
+ * ({@link Names#DEPENDENCIES_DB_FILE_NAME}). The file starts with a sealed part
+ * that includes a string table with all urls, dependencies of each test (urls
+ * are kept as indexes into the string table), an index from the name of each
+ * test to the offset of its dependencies, and a checksum. The sealed part is
+ * followed by records appended (under a file lock) since the last compaction;
+ * each record has its own checksum and the latest record for a name wins.
+ * Records are folded into the sealed part when names are listed (i.e., during
+ * selection), so the next selection reads the file once.
+ *
+ * <pre>
+ * header:  UTF magic, long footer offset, long sealed end (0 if not sealed)
+ * strings: int count, count * UTF url
+ * entries: for each name: int count, count * (int url index, UTF hash)
+ * footer:  int count, count * (UTF name, long entry offset),
+ *          long CRC32 of all preceding bytes
+ * records: for each append: int length, payload, int CRC32 of payload
+ *          payload: UTF name, int count, count * (UTF url, UTF hash)
+ * </pre>
+ *
+ * IMPORTANT: This class is *not* stateless.
+ */
+public class DbStorer extends Storer {
+
+	/** Directory for which data is currently loaded */
+	private String mLoadedDirName;
+
+	/** Length of the file when it was loaded (-1 if reload is needed) */
+	private long mLoadedLength = -1;
+
+	/** Content of the file (null if nothing is loaded) */
+	private ByteBuffer mBuffer;
+
+	/** String table of the sealed part */
+	private String[] mStrings;
+
+	/** Sealed entries that have not been decoded yet: name->offset */
+	private final Map<String, Integer> mOffsets;
+
+	/** Decoded entries: name->dependencies */
+	private final Map<String, Set<RegData>> mEntries;
+
+	/** Number of records appended after the sealed part */
+	private int mNumRecords;
+
+	/** Indicates that the file could not be loaded */
+	private boolean mIsCorrupted;
+
+	/**
+	 * Constructor.
+	 */
+	public DbStorer() {
+		super(Mode.DB);
+		this.mOffsets = new HashMap<String, Integer>();
+		this.mEntries = new HashMap<String, Set<RegData>>();
+	}
+
+	@Override
+	public synchronized List<String> listNames(String dirName,
+			String extensionName) {
+		ensureLoaded(dirName);
+		if (mNumRecords > 0 || mIsCorrupted) {
+			compact(dirName);
+		}
+		String suffix = '.' + extensionName;
+		List<String> names = new ArrayList<String>();
+		for (String fullName : mOffsets.keySet()) {
+			if (fullName.endsWith(suffix)) {
+				names.add(fullName.substring(0,
+						fullName.length() - suffix.length()));
+			}
+		}
+		for (String fullName : mEntries.keySet()) {
+			if (fullName.endsWith(suffix)) {
+				names.add(fullName.substring(0,
+						fullName.length() - suffix.length()));
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	@Override
+	protected synchronized Set<RegData> loadEntry(String dirName,
+			String fullName, String firstPart, String secondPart) {
+		ensureLoaded(dirName);
+		Set<RegData> regData = lookup(fullName);
+		if (regData == null) {
+			return Collections.emptySet();
+		}
+		return regData;
+	}
+
+	@Override
+	protected synchronized void saveEntry(String dirName, String fullName,
+			String firstPart, String secondPart, Set<RegData> regData) {
+		File file = new File(dirName, Names.DEPENDENCIES_DB_FILE_NAME);
+		try {
+			byte[] record = RecordLog.encodeRecord(fullName, regData);
+			long position = RecordLog.append(file, mMode.getMagicSequence(),
+					record);
+			// Keep loaded data only if nobody else wrote in between.
+			if (dirName.equals(mLoadedDirName) && position == mLoadedLength) {
+				mLoadedLength = position + record.length;
+				mOffsets.remove(fullName);
+				mEntries.put(fullName, regData);
+				mNumRecords++;
+			} else {
+				mLoadedLength = -1;
+			}
+		} catch (IOException ex) {
+			Log.e("Problems while saving dependencies", ex);
+		}
+	}
+
+	// LOAD (single entry streams)
+
+	@Override
+	protected Set<RegData> extendedLoad(FileInputStream fis) {
+		Set<RegData> regData = new HashSet<RegData>();
+		DataInputStream in = new DataInputStream(fis);
+		try {
+			if (in.readUTF().equals(mMode.getMagicSequence())) {
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					regData.add(new RegData(in.readUTF(), in.readUTF()));
+				}
+			}
+		} catch (IOException ex) {
+			Log.e("Loading coverage not successful", ex);
+			// Make sure that test is rerun.
+			regData.clear();
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(in);
+		}
+		return regData;
+	}
+
+	// STORE (single entry streams)
+
+	@Override
+	protected void extendedSave(FileOutputStream fos, Set<RegData> hashes) {
+		DataOutputStream out = new DataOutputStream(fos);
+		try {
+			out.writeUTF(mMode.getMagicSequence());
+			out.writeInt(hashes.size());
+			for (RegData regDatum : hashes) {
+				out.writeUTF(regDatum.getURLExternalForm());
+				out.writeUTF(regDatum.getHash());
+			}
+		} catch (IOException ex) {
+			Log.e("Problems while saving dependencies");
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(out);
+		}
+	}
+
+	// INTERNAL
+
+	/**
+	 * Loads the file from the given directory unless the same file (with the
+	 * same length) is already loaded.
+	 */
+	private void ensureLoaded(String dirName) {
+		File file = new File(dirName, Names.DEPENDENCIES_DB_FILE_NAME);
+		long length = file.length();
+		if (dirName.equals(mLoadedDirName) && length == mLoadedLength) {
+			return;
+		}
+		reset();
+		mLoadedDirName = dirName;
+		mLoadedLength = length;
+		if (length == 0L) {
+			return;
+		}
+		try {
+			ByteBuffer buffer = RecordLog.read(file);
+			mLoadedLength = buffer.limit();
+			parse(buffer);
+		} catch (IOException ex) {
+			Log.e("Loading dependencies not successful", ex);
+			// Make sure that tests are rerun.
+			reset();
+			mIsCorrupted = true;
+		}
+	}
+
+	/**
+	 * Folds appended records into the sealed part.
+	 */
+	private void compact(String dirName) {
+		File file = new File(dirName, Names.DEPENDENCIES_DB_FILE_NAME);
+		try {
+			ByteBuffer content = RecordLog.rewrite(file,
+					new RecordLog.Rewriter() {
+						@Override
+						byte[] rewrite(ByteBuffer content) throws IOException {
+							// Reload as others may have appended since the
+							// last load.
+							reset();
+							parse(content);
+							if (mNumRecords == 0 && !mIsCorrupted) {
+								// Somebody else has compacted in the meantime.
+								return null;
+							}
+							return seal(decodeAll());
+						}
+					});
+			reset();
+			parse(content);
+			mLoadedDirName = dirName;
+			mLoadedLength = content.limit();
+		} catch (IOException ex) {
+			Log.e("Compacting dependencies not successful", ex);
+			mLoadedLength = -1;
+		}
+	}
+
+	private void reset() {
+		mLoadedDirName = null;
+		mLoadedLength = -1;
+		mBuffer = null;
+		mStrings = new String[0];
+		mOffsets.clear();
+		mEntries.clear();
+		mNumRecords = 0;
+		mIsCorrupted = false;
+	}
+
+	/**
+	 * Parses the header, string table, and index of the sealed part, and all
+	 * appended records. Dependencies in the sealed part are decoded on demand.
+	 * If anything is wrong with the sealed part nothing is loaded, so that all
+	 * tests are rerun.
+	 */
+	private void parse(ByteBuffer buffer) {
+		mBuffer = buffer;
+		try {
+			buffer.position(0);
+			DataInputStream in = RecordLog.newInput(buffer);
+			if (!in.readUTF().equals(mMode.getMagicSequence())) {
+				Log.w("Dependencies file has incorrect magic sequence");
+				mIsCorrupted = true;
+				return;
+			}
+			long footerOffset = in.readLong();
+			long sealedEnd = in.readLong();
+			int recordsStart = buffer.position();
+			if (sealedEnd != 0L) {
+				if (!RecordLog.isChecksumCorrect(buffer, sealedEnd)) {
+					Log.w("Dependencies file has incorrect checksum");
+					mIsCorrupted = true;
+					return;
+				}
+				int numStrings = in.readInt();
+				mStrings = new String[numStrings];
+				for (int i = 0; i < numStrings; i++) {
+					mStrings[i] = in.readUTF();
+				}
+				buffer.position((int) footerOffset);
+				int numEntries = in.readInt();
+				for (int i = 0; i < numEntries; i++) {
+					String fullName = in.readUTF();
+					mOffsets.put(fullName, (int) in.readLong());
+				}
+				recordsStart = (int) sealedEnd;
+			}
+			Map<String, Set<RegData>> records = new HashMap<String, Set<RegData>>();
+			mNumRecords = RecordLog.parseRecords(buffer, recordsStart, records);
+			mOffsets.keySet().removeAll(records.keySet());
+			mEntries.putAll(records);
+		} catch (IOException ex) {
+			Log.e("Loading dependencies not successful", ex);
+			mOffsets.clear();
+			mEntries.clear();
+			mIsCorrupted = true;
+		}
+	}
+
+	private Set<RegData> lookup(String fullName) {
+		Set<RegData> regData = mEntries.get(fullName);
+		if (regData != null) {
+			return regData;
+		}
+		Integer offset = mOffsets.remove(fullName);
+		if (offset == null) {
+			return null;
+		}
+		try {
+			regData = decodeEntry(offset);
+		} catch (IOException ex) {
+			Log.e("Loading coverage not successful", ex);
+			// Make sure that test is rerun.
+			regData = new HashSet<RegData>();
+		}
+		mEntries.put(fullName, regData);
+		return regData;
+	}
+
+	private Set<RegData> decodeEntry(int offset) throws IOException {
+		ByteBuffer buffer = mBuffer.duplicate();
+		buffer.position(offset);
+		DataInputStream in = RecordLog.newInput(buffer);
+		int count = in.readInt();
+		Set<RegData> regData = new HashSet<RegData>();
+		for (int i = 0; i < count; i++) {
+			int index = in.readInt();
+			if (index < 0 || index >= mStrings.length) {
+				throw new IOException("Incorrect string index " + index);
+			}
+			regData.add(new RegData(mStrings[index], in.readUTF()));
+		}
+		return regData;
+	}
+
+	private Map<String, Set<RegData>> decodeAll() {
+		for (String fullName : new ArrayList<String>(mOffsets.keySet())) {
+			lookup(fullName);
+		}
+		return new TreeMap<String, Set<RegData>>(mEntries);
+	}
+
+	/**
+	 * Creates content of a sealed file with the given (sorted) entries.
+	 */
+	private byte[] seal(Map<String, Set<RegData>> entries) throws IOException {
+		Set<String> urls = new TreeSet<String>();
+		for (Set<RegData> regData : entries.values()) {
+			for (RegData regDatum : regData) {
+				urls.add(regDatum.getURLExternalForm());
+			}
+		}
+		Map<String, Integer> url2Index = new HashMap<String, Integer>();
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		// Placeholder; header is written once offsets are known.
+		out.write(RecordLog.encodeHeader(mMode.getMagicSequence(), 0L, 0L));
+		out.writeInt(urls.size());
+		for (String url : urls) {
+			url2Index.put(url, url2Index.size());
+			out.writeUTF(url);
+		}
+		Map<String, Integer> offsets = new TreeMap<String, Integer>();
+		for (Map.Entry<String, Set<RegData>> entry : entries.entrySet()) {
+			offsets.put(entry.getKey(), out.size());
+			Set<RegData> regData = new TreeSet<RegData>(
+					new RegData.RegComparator());
+			regData.addAll(entry.getValue());
+			out.writeInt(regData.size());
+			for (RegData regDatum : regData) {
+				out.writeInt(url2Index.get(regDatum.getURLExternalForm()));
+				out.writeUTF(regDatum.getHash());
+			}
+		}
+		long footerOffset = out.size();
+		out.writeInt(offsets.size());
+		for (Map.Entry<String, Integer> offset : offsets.entrySet()) {
+			out.writeUTF(offset.getKey());
+			out.writeLong(offset.getValue());
+		}
+		out.flush();
+		return RecordLog.seal(baos.toByteArray(), mMode.getMagicSequence(),
+				footerOffset);
+	}
+}
@@ -74,6 +74,9 @@ public final class DependencyAnalyzer {
 	/** dependencies.append */
 	private final boolean mDependenciesAppend;
 
+	/** Index from dependencies to tests (null if not maintained) */
+	private final DependencyIndex mIndex;
+
 	/**
 	 * Constructor.
 	 */
@@ -86,6 +89,12 @@ public final class DependencyAnalyzer {
 
 		this.mRootDir = Config.RTS_DIR_V;
 		this.mDependenciesAppend = Config.DEPENDENCIES_APPEND_V;
+		if (Config.DEPENDENCIES_INDEX_V) {
+			this.mIndex = new DependencyIndex(mRootDir);
+		} else {
+			this.mIndex = null;
+			DependencyIndex.discard(mRootDir);
+		}
 
 		this.mUrlExternalForm2Modified = new LRUMap<String, Boolean>(
 				cacheSizes);
@@ -287,8 +296,13 @@ public final class DependencyAnalyzer {
 			regData.add(new RegData(entry.getKey(), entry.getValue()));
 		}
 		mStorer.save(mRootDir, className, methodName, regData);
+		// Index keeps dependencies of test classes only.
+		if (mIndex != null && methodName.equals(CLASS_EXT)
+				&& Config.X_DEPENDENCIES_SAVE_V) {
+			mIndex.update(className, regData);
+		}
 		// Clean monitor after the test finished the execution
-		CoverageMonitor.clean();
+		CoverageMonitor.finish();
 	}
 
 	/**
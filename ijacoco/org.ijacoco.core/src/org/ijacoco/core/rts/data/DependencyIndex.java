@@ -0,0 +1,464 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.ijacoco.core.rts.Names;
+import org.ijacoco.core.rts.log.Log;
+
+/**
+ * Persisted inverted index from dependency (url) to test classes that depend on
+ * it ({@link Names#DEPENDENCIES_INDEX_FILE_NAME}). Each url keeps one posting
+ * list per hash that was recorded for it, so affected tests for a url are those
+ * in posting lists whose hash differs from the current hash. Posting lists are
+ * delta encoded (variable length) indexes into the table of test classes and
+ * they are decoded only for urls that changed.
+ *
+ * The index is kept up to date by {@link DependencyAnalyzer} that appends a
+ * record (see {@link RecordLog}) each time dependencies of a test class are
+ * saved; records are folded into the sealed part once there are many of them.
+ *
+ * <pre>
+ * tests: int count, count * (UTF name, int number of dependencies)
+ * urls:  int count, count * (UTF url, int number of hashes,
+ *        hashes * (UTF hash, int number of tests, int number of bytes, bytes))
+ * </pre>
+ */
+public final class DependencyIndex {
+
+	/** Magic/version sequence */
+	private static final String MAGIC_SEQUENCE = "# idx 1";
+
+	/**
+	 * Records are folded into the sealed part when there are more than (number
+	 * of tests / this value) records
+	 */
+	private static final int COMPACTION_RATIO = 4;
+
+	/** Posting list for one (url, hash) pair */
+	private static final class Posting {
+		private final String mHash;
+		private final int mNumTests;
+		private final int mOffset;
+
+		Posting(String hash, int numTests, int offset) {
+			this.mHash = hash;
+			this.mNumTests = numTests;
+			this.mOffset = offset;
+		}
+	}
+
+	/** File that keeps the index */
+	private final File mFile;
+
+	/** Content of the file */
+	private ByteBuffer mBuffer;
+
+	/** Names of tests in the sealed part (sorted) */
+	private String[] mTests;
+
+	/** Number of dependencies of each test in the sealed part */
+	private int[] mNumDependencies;
+
+	/** Sealed posting lists: url->postings */
+	private final Map<String, Posting[]> mPostings;
+
+	/** Tests updated after sealing: test->dependencies */
+	private final Map<String, Set<RegData>> mRecords;
+
+	/** Dependencies of tests updated after sealing: url->(test->hash) */
+	private final Map<String, Map<String, String>> mRecordPostings;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dirName
+	 *            Directory with regression data.
+	 */
+	public DependencyIndex(String dirName) {
+		this.mFile = new File(dirName, Names.DEPENDENCIES_INDEX_FILE_NAME);
+		this.mPostings = new HashMap<String, Posting[]>();
+		this.mRecords = new HashMap<String, Set<RegData>>();
+		this.mRecordPostings = new HashMap<String, Map<String, String>>();
+		reset();
+	}
+
+	/**
+	 * Deletes the index from the given directory; used when the index is not
+	 * maintained, so that it does not become stale.
+	 */
+	public static void discard(String dirName) {
+		File file = new File(dirName, Names.DEPENDENCIES_INDEX_FILE_NAME);
+		if (file.exists()) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Records (new) dependencies of the given test class. Invoked each time
+	 * dependencies of a test class are saved.
+	 */
+	public void update(String testClassName, Set<RegData> regData) {
+		// Index is never created here, as it would not include other tests.
+		if (!mFile.exists()) {
+			return;
+		}
+		try {
+			RecordLog.append(mFile, MAGIC_SEQUENCE,
+					RecordLog.encodeRecord(testClassName, regData));
+		} catch (IOException ex) {
+			Log.e("Problems while updating dependency index", ex);
+			discard(mFile.getParent());
+		}
+	}
+
+	/**
+	 * Loads the index. Records are folded into the sealed part if there are
+	 * many of them.
+	 *
+	 * @return True if the index was loaded, false if it does not exist or it is
+	 *         not valid.
+	 */
+	public boolean load() {
+		reset();
+		if (!mFile.exists()) {
+			return false;
+		}
+		try {
+			if (!parse(RecordLog.read(mFile))) {
+				return false;
+			}
+			if (mRecords.size() * COMPACTION_RATIO > mTests.length) {
+				compact();
+			}
+			return true;
+		} catch (IOException ex) {
+			Log.e("Loading dependency index not successful", ex);
+			reset();
+			return false;
+		}
+	}
+
+	/**
+	 * Recreates the index from dependencies in the given storer.
+	 */
+	public void rebuild(Storer storer, String dirName,
+			List<String> testClassNames) {
+		Map<String, Set<RegData>> all = new TreeMap<String, Set<RegData>>();
+		for (String testClassName : testClassNames) {
+			all.put(testClassName, storer.load(dirName, testClassName,
+					DependencyAnalyzer.CLASS_EXT));
+		}
+		try {
+			final byte[] sealed = seal(all);
+			RecordLog.rewrite(mFile, new RecordLog.Rewriter() {
+				@Override
+				byte[] rewrite(ByteBuffer content) {
+					return sealed;
+				}
+			});
+		} catch (IOException ex) {
+			Log.e("Problems while saving dependency index", ex);
+			discard(dirName);
+		}
+	}
+
+	/**
+	 * Returns names of all test classes in the index.
+	 */
+	public Set<String> getTestNames() {
+		Set<String> names = new HashSet<String>(Arrays.asList(mTests));
+		names.addAll(mRecords.keySet());
+		return names;
+	}
+
+	/**
+	 * Returns true if the given test class has at least one dependency.
+	 */
+	public boolean hasDependencies(String testClassName) {
+		Set<RegData> regData = mRecords.get(testClassName);
+		if (regData != null) {
+			return !regData.isEmpty();
+		}
+		int index = Arrays.binarySearch(mTests, testClassName);
+		return index >= 0 && mNumDependencies[index] > 0;
+	}
+
+	/**
+	 * Returns all dependencies (urls) in the index.
+	 */
+	public Set<String> getURLs() {
+		Set<String> urls = new HashSet<String>(mPostings.keySet());
+		urls.addAll(mRecordPostings.keySet());
+		return urls;
+	}
+
+	/**
+	 * Returns test classes that depend on the given url and recorded a hash
+	 * different from the given hash.
+	 */
+	public Set<String> getAffectedTests(String urlExternalForm,
+			String newHash) {
+		return getTests(urlExternalForm, newHash);
+	}
+
+	/**
+	 * Returns all test classes that depend on the given url.
+	 */
+	public Set<String> getTests(String urlExternalForm) {
+		return getTests(urlExternalForm, null);
+	}
+
+	// INTERNAL
+
+	private Set<String> getTests(String urlExternalForm, String exceptHash) {
+		Set<String> tests = new HashSet<String>();
+		Posting[] postings = mPostings.get(urlExternalForm);
+		if (postings != null) {
+			for (Posting posting : postings) {
+				if (!posting.mHash.equals(exceptHash)) {
+					decodePosting(posting, tests);
+				}
+			}
+			// Records override sealed dependencies.
+			tests.removeAll(mRecords.keySet());
+		}
+		Map<String, String> recordPostings = mRecordPostings
+				.get(urlExternalForm);
+		if (recordPostings != null) {
+			for (Map.Entry<String, String> entry : recordPostings.entrySet()) {
+				if (!entry.getValue().equals(exceptHash)) {
+					tests.add(entry.getKey());
+				}
+			}
+		}
+		return tests;
+	}
+
+	private void decodePosting(Posting posting, Set<String> tests) {
+		int position = posting.mOffset;
+		int index = 0;
+		for (int i = 0; i < posting.mNumTests; i++) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = mBuffer.get(position++);
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			index += delta;
+			tests.add(mTests[index]);
+		}
+	}
+
+	private void reset() {
+		mBuffer = null;
+		mTests = new String[0];
+		mNumDependencies = new int[0];
+		mPostings.clear();
+		mRecords.clear();
+		mRecordPostings.clear();
+	}
+
+	private boolean parse(ByteBuffer buffer) throws IOException {
+		reset();
+		mBuffer = buffer;
+		buffer.position(0);
+		DataInputStream in = RecordLog.newInput(buffer);
+		if (!in.readUTF().equals(MAGIC_SEQUENCE)) {
+			Log.w("Dependency index has incorrect magic sequence");
+			return false;
+		}
+		// Footer offset is not needed as we read sequentially.
+		in.readLong();
+		long sealedEnd = in.readLong();
+		if (sealedEnd == 0L) {
+			// Index has never been built.
+			return false;
+		}
+		if (!RecordLog.isChecksumCorrect(buffer, sealedEnd)) {
+			Log.w("Dependency index has incorrect checksum");
+			return false;
+		}
+		int numTests = in.readInt();
+		mTests = new String[numTests];
+		mNumDependencies = new int[numTests];
+		for (int i = 0; i < numTests; i++) {
+			mTests[i] = in.readUTF();
+			mNumDependencies[i] = in.readInt();
+		}
+		int numUrls = in.readInt();
+		for (int i = 0; i < numUrls; i++) {
+			String url = in.readUTF();
+			Posting[] postings = new Posting[in.readInt()];
+			for (int j = 0; j < postings.length; j++) {
+				String hash = in.readUTF();
+				int numPostingTests = in.readInt();
+				int numBytes = in.readInt();
+				postings[j] = new Posting(hash, numPostingTests,
+						buffer.position());
+				buffer.position(buffer.position() + numBytes);
+			}
+			mPostings.put(url, postings);
+		}
+		RecordLog.parseRecords(buffer, (int) sealedEnd, mRecords);
+		for (Map.Entry<String, Set<RegData>> entry : mRecords.entrySet()) {
+			for (RegData regDatum : entry.getValue()) {
+				Map<String, String> recordPostings = mRecordPostings
+						.get(regDatum.getURLExternalForm());
+				if (recordPostings == null) {
+					recordPostings = new HashMap<String, String>();
+					mRecordPostings.put(regDatum.getURLExternalForm(),
+							recordPostings);
+				}
+				recordPostings.put(entry.getKey(), regDatum.getHash());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Folds records into the sealed part.
+	 */
+	private void compact() throws IOException {
+		ByteBuffer content = RecordLog.rewrite(mFile, new RecordLog.Rewriter() {
+			@Override
+			byte[] rewrite(ByteBuffer content) throws IOException {
+				// Reload as others may have appended since the last
+				// load.
+				if (!parse(content)) {
+					return null;
+				}
+				return seal(decodeAll());
+			}
+		});
+		parse(content);
+	}
+
+	/**
+	 * Decodes all postings into test->dependencies mapping.
+	 */
+	private Map<String, Set<RegData>> decodeAll() {
+		Map<String, Set<RegData>> all = new TreeMap<String, Set<RegData>>();
+		for (int i = 0; i < mTests.length; i++) {
+			if (!mRecords.containsKey(mTests[i])) {
+				all.put(mTests[i], new HashSet<RegData>());
+			}
+		}
+		for (Map.Entry<String, Posting[]> entry : mPostings.entrySet()) {
+			for (Posting posting : entry.getValue()) {
+				Set<String> tests = new HashSet<String>();
+				decodePosting(posting, tests);
+				for (String test : tests) {
+					Set<RegData> regData = all.get(test);
+					if (regData != null) {
+						regData.add(new RegData(entry.getKey(), posting.mHash));
+					}
+				}
+			}
+		}
+		all.putAll(mRecords);
+		return all;
+	}
+
+	/**
+	 * Creates content of a sealed index for the given (sorted) mapping.
+	 */
+	private static byte[] seal(Map<String, Set<RegData>> all)
+			throws IOException {
+		List<String> tests = new ArrayList<String>(all.keySet());
+		Map<String, Integer> test2Index = new HashMap<String, Integer>();
+		// url->(hash->test indexes)
+		Map<String, Map<String, List<Integer>>> postings = new TreeMap<String, Map<String, List<Integer>>>();
+		for (int i = 0; i < tests.size(); i++) {
+			test2Index.put(tests.get(i), i);
+			for (RegData regDatum : all.get(tests.get(i))) {
+				Map<String, List<Integer>> hash2Tests = postings
+						.get(regDatum.getURLExternalForm());
+				if (hash2Tests == null) {
+					hash2Tests = new TreeMap<String, List<Integer>>();
+					postings.put(regDatum.getURLExternalForm(), hash2Tests);
+				}
+				List<Integer> indexes = hash2Tests.get(regDatum.getHash());
+				if (indexes == null) {
+					indexes = new ArrayList<Integer>();
+					hash2Tests.put(regDatum.getHash(), indexes);
+				}
+				indexes.add(i);
+			}
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		// Placeholder; header is written once offsets are known.
+		out.write(RecordLog.encodeHeader(MAGIC_SEQUENCE, 0L, 0L));
+		out.writeInt(tests.size());
+		for (String test : tests) {
+			out.writeUTF(test);
+			out.writeInt(all.get(test).size());
+		}
+		long urlsOffset = out.size();
+		out.writeInt(postings.size());
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		for (Map.Entry<String, Map<String, List<Integer>>> entry : postings
+				.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeInt(entry.getValue().size());
+			for (Map.Entry<String, List<Integer>> posting : entry.getValue()
+					.entrySet()) {
+				List<Integer> indexes = posting.getValue();
+				Collections.sort(indexes);
+				encoded.reset();
+				int previous = 0;
+				for (int index : indexes) {
+					writeVarInt(encoded, index - previous);
+					previous = index;
+				}
+				out.writeUTF(posting.getKey());
+				out.writeInt(indexes.size());
+				out.writeInt(encoded.size());
+				encoded.writeTo(out);
+			}
+		}
+		out.flush();
+		return RecordLog.seal(baos.toByteArray(), MAGIC_SEQUENCE, urlsOffset);
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
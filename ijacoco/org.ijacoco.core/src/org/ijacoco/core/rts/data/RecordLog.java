@@ -0,0 +1,296 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.ijacoco.core.rts.util.ByteBufferInputStream;
+import org.ijacoco.core.rts.util.FileUtil;
+
+/**
+ * Helpers for files that consist of a sealed part followed by appended records.
+ * The file starts with a header (UTF magic, long footer offset, long end of the
+ * sealed part or 0 if nothing is sealed). The sealed part ends with CRC32 of
+ * all preceding bytes. Each record is: int length, payload, int CRC32 of
+ * payload; payload is: UTF name, int count, count * (UTF url, UTF hash).
+ * Records are appended and sealed parts are rewritten under a file lock, as
+ * several (forked) processes may write at the same time.
+ */
+final class RecordLog {
+
+	/** Size of the two longs that follow magic in the header */
+	private static final int HEADER_LONGS_SIZE = 16;
+
+	/**
+	 * Rewrites content of a file while the file is exclusively locked.
+	 */
+	static abstract class Rewriter {
+		/**
+		 * Returns new content of the file or null if the file should not be
+		 * changed.
+		 */
+		abstract byte[] rewrite(ByteBuffer content) throws IOException;
+	}
+
+	private RecordLog() {
+	}
+
+	static byte[] encodeHeader(String magic, long footerOffset, long sealedEnd)
+			throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeUTF(magic);
+		out.writeLong(footerOffset);
+		out.writeLong(sealedEnd);
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Replaces header at the beginning of the given body and appends checksum.
+	 */
+	static byte[] seal(byte[] body, String magic, long footerOffset)
+			throws IOException {
+		long sealedEnd = body.length + 8;
+		byte[] header = encodeHeader(magic, footerOffset, sealedEnd);
+		System.arraycopy(header, 0, body, 0, header.length);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		ByteBuffer sealed = ByteBuffer.allocate(body.length + 8);
+		sealed.put(body);
+		sealed.putLong(crc.getValue());
+		return sealed.array();
+	}
+
+	static boolean isChecksumCorrect(ByteBuffer buffer, long sealedEnd) {
+		if (sealedEnd < 8 || sealedEnd > buffer.limit()) {
+			return false;
+		}
+		ByteBuffer sealed = buffer.duplicate();
+		sealed.position(0);
+		sealed.limit((int) sealedEnd - 8);
+		CRC32 crc = new CRC32();
+		crc.update(sealed);
+		return crc.getValue() == buffer.getLong((int) sealedEnd - 8);
+	}
+
+	static byte[] encodeRecord(String name, Set<RegData> regData)
+			throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		// Length placeholder.
+		out.writeInt(0);
+		out.writeUTF(name);
+		out.writeInt(regData.size());
+		for (RegData regDatum : regData) {
+			out.writeUTF(regDatum.getURLExternalForm());
+			out.writeUTF(regDatum.getHash());
+		}
+		// Checksum placeholder.
+		out.writeInt(0);
+		out.flush();
+		ByteBuffer record = ByteBuffer.wrap(baos.toByteArray());
+		int length = record.limit() - 8;
+		record.putInt(0, length);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 4, length);
+		record.putInt(4 + length, (int) crc.getValue());
+		return record.array();
+	}
+
+	/**
+	 * Parses records that start at the given position. Parsing stops at the
+	 * first incomplete record (e.g., if a process was killed while appending).
+	 * The latest record for a name wins.
+	 *
+	 * @return Number of parsed records.
+	 */
+	static int parseRecords(ByteBuffer buffer, int start,
+			Map<String, Set<RegData>> records) throws IOException {
+		int numRecords = 0;
+		int position = start;
+		while (buffer.limit() - position >= 8) {
+			int length = buffer.getInt(position);
+			if (length < 0 || buffer.limit() - position - 8 < length) {
+				break;
+			}
+			ByteBuffer payload = buffer.duplicate();
+			payload.position(position + 4);
+			payload.limit(position + 4 + length);
+			CRC32 crc = new CRC32();
+			crc.update(payload.duplicate());
+			if ((int) crc.getValue() != buffer.getInt(position + 4 + length)) {
+				break;
+			}
+			DataInputStream in = newInput(payload);
+			String name = in.readUTF();
+			int count = in.readInt();
+			Set<RegData> regData = new HashSet<RegData>();
+			for (int i = 0; i < count; i++) {
+				regData.add(new RegData(in.readUTF(), in.readUTF()));
+			}
+			records.put(name, regData);
+			numRecords++;
+			position += 4 + length + 4;
+		}
+		return numRecords;
+	}
+
+	/**
+	 * Appends the given record. If the file does not exist or has unexpected
+	 * content, it is (re)started with an empty header.
+	 *
+	 * @return Position at which the record was written.
+	 */
+	static long append(File file, String magic, byte[] record)
+			throws IOException {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			FileChannel channel = raf.getChannel();
+			FileLock lock = channel.lock();
+			try {
+				long size = channel.size();
+				byte[] header = encodeHeader(magic, 0L, 0L);
+				if (!hasMagic(channel, header)) {
+					channel.truncate(0);
+					writeFully(channel, ByteBuffer.wrap(header), 0L);
+					size = header.length;
+				}
+				writeFully(channel, ByteBuffer.wrap(record), size);
+				return size;
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(raf);
+		}
+	}
+
+	/**
+	 * Reads the given file (under a shared lock) into memory. Content is
+	 * decoded after the lock is released, so the file is not mapped: it is
+	 * rewritten in place (see {@link #rewrite}), which would change a live
+	 * mapping (or fail, on platforms that do not truncate mapped files).
+	 */
+	static ByteBuffer read(File file) throws IOException {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			FileLock lock = channel.lock(0L, Long.MAX_VALUE, true);
+			try {
+				return readFully(channel);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(raf);
+		}
+	}
+
+	/**
+	 * Rewrites the given file in place (under an exclusive lock); we do not
+	 * rename files as other processes may have the file open for appending.
+	 *
+	 * @return New content of the file, or the old content if it was not
+	 *         changed.
+	 */
+	static ByteBuffer rewrite(File file, Rewriter rewriter) throws IOException {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			FileChannel channel = raf.getChannel();
+			FileLock lock = channel.lock();
+			try {
+				ByteBuffer content = readFully(channel);
+				byte[] newContent = rewriter.rewrite(content.duplicate());
+				if (newContent == null) {
+					return content;
+				}
+				channel.truncate(0);
+				writeFully(channel, ByteBuffer.wrap(newContent), 0L);
+				channel.force(true);
+				return ByteBuffer.wrap(newContent);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(raf);
+		}
+	}
+
+	/**
+	 * Returns stream that reads from the current position of the given buffer.
+	 * The stream does not buffer, so the position of the buffer always matches
+	 * what has been read.
+	 */
+	static DataInputStream newInput(ByteBuffer buffer) {
+		return new DataInputStream(new ByteBufferInputStream(buffer));
+	}
+
+	private static boolean hasMagic(FileChannel channel, byte[] header)
+			throws IOException {
+		if (channel.size() < header.length) {
+			return false;
+		}
+		ByteBuffer actual = ByteBuffer.allocate(header.length);
+		while (actual.hasRemaining()) {
+			if (channel.read(actual, actual.position()) < 0) {
+				return false;
+			}
+		}
+		// Compare magic sequence only (longs follow it).
+		for (int i = 0; i < header.length - HEADER_LONGS_SIZE; i++) {
+			if (actual.get(i) != header[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static ByteBuffer readFully(FileChannel channel)
+			throws IOException {
+		ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+		while (content.hasRemaining()) {
+			if (channel.read(content, content.position()) < 0) {
+				break;
+			}
+		}
+		content.flip();
+		return content;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+}
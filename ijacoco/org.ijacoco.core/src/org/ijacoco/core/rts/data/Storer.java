@@ -22,8 +22,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+
+import org.ijacoco.core.rts.Names;
 import org.ijacoco.core.rts.log.Log;
 
 /**
@@ -37,7 +42,7 @@ public abstract class Storer {
 	 * Storing mode.
 	 */
 	public enum Mode {
-		TXT("# 1"), PREFIX_TXT("# 4"), BIN("# 2"), TIME_TXT("# 3");
+		TXT("# 1"), PREFIX_TXT("# 4"), BIN("# 2"), TIME_TXT("# 3"), DB("# 5");
 
 		/** Magic/version sequence */
 		private final String mMagicSequence;
@@ -96,7 +101,7 @@ public abstract class Storer {
 	 * Loads regression data.
 	 */
 	public final Set<RegData> load(String dirName, String fullName) {
-		return load(openFileRead(dirName, fullName, fullName, null));
+		return loadEntry(dirName, fullName, fullName, null);
 	}
 
 	/**
@@ -105,7 +110,7 @@ public abstract class Storer {
 	public final Set<RegData> load(String dirName, String className,
 			String extensionName) {
 		String fullName = className + '.' + extensionName;
-		return load(openFileRead(dirName, fullName, className, extensionName));
+		return loadEntry(dirName, fullName, className, extensionName);
 	}
 
 	/**
@@ -119,7 +124,7 @@ public abstract class Storer {
 		}
 		// Ensure that the directory for coverage exists.
 		new File(dirName).mkdirs();
-		save(openFileWrite(dirName, fullName, fullName, null), hashes);
+		saveEntry(dirName, fullName, fullName, null, hashes);
 	}
 
 	/**
@@ -134,7 +139,43 @@ public abstract class Storer {
 		// Ensure that the directory for coverage exists.
 		new File(dirName).mkdir();
 		String fullName = className + '.' + methodName;
-		save(openFileWrite(dirName, fullName, className, methodName), regData);
+		saveEntry(dirName, fullName, className, methodName, regData);
+	}
+
+	/**
+	 * Returns sorted names (without extension) of all entries that were saved
+	 * in the given directory with the given extension.
+	 *
+	 * @param dirName
+	 *            Directory with regression data.
+	 * @param extensionName
+	 *            Extension used when the entries were saved.
+	 * @return Sorted list of names.
+	 */
+	public List<String> listNames(String dirName, final String extensionName) {
+		List<String> names = new ArrayList<String>();
+		File[] files = new File(dirName).listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				// Exclude tool files.
+				return name.endsWith('.' + extensionName)
+						&& !name.contains(Names.VERBOSE_FILE_NAME)
+						&& !name.contains(Names.RUN_INFO_FILE_NAME);
+			}
+		});
+		// It can be null when directory still does not exists.
+		if (files == null) {
+			return names;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				continue;
+			}
+			String fileName = file.getName();
+			names.add(fileName.substring(0,
+					fileName.length() - extensionName.length() - 1));
+		}
+		Collections.sort(names);
+		return names;
 	}
 
 	/**
@@ -159,6 +200,24 @@ public abstract class Storer {
 	protected abstract void extendedSave(FileOutputStream fos,
 			Set<RegData> hashes);
 
+	/**
+	 * Loads regression data for one entry. By default each entry is kept in its
+	 * own file; subclasses that keep all entries together override this method.
+	 */
+	protected Set<RegData> loadEntry(String dirName, String fullName,
+			String firstPart, String secondPart) {
+		return load(openFileRead(dirName, fullName, firstPart, secondPart));
+	}
+
+	/**
+	 * Saves regression data for one entry. By default each entry is kept in its
+	 * own file; subclasses that keep all entries together override this method.
+	 */
+	protected void saveEntry(String dirName, String fullName, String firstPart,
+			String secondPart, Set<RegData> regData) {
+		save(openFileWrite(dirName, fullName, firstPart, secondPart), regData);
+	}
+
 	// INTERNAL
 
 	private final Set<RegData> load(FileInputStream fis) {
@@ -16,90 +16,54 @@
 
 package org.ijacoco.core.rts.hash;
 
-import org.ijacoco.core.rts.util.FileUtil;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.net.URL;
 
 /**
- * {@link Hasher} that saves cache in file at shutdown. This hasher can be used
- * with projects that spawn VM for each test. NOTE: If project runs VMs in
- * parallel this class is not safe.
+ * {@link Hasher} that keeps hashes in a file ({@link StatIndex}) across VMs.
+ * This hasher can be used with projects that spawn VM for each test. A cached
+ * hash is used only if metadata of the file did not change since the file was
+ * hashed. New hashes are appended to the file (under a file lock) at shutdown,
+ * so VMs can also run in parallel.
  */
 public class FileCachingHasher extends Hasher {
 
+	/** Persistent cache of hashes */
+	private final StatIndex mStatIndex;
+
+	/** Hasher used if the cached hash is missing or stale */
+	private final Hasher mHasher;
+
 	/**
 	 * Constructor.
 	 */
 	public FileCachingHasher(Algorithm algorithm, int cacheSizes,
 			boolean isSemanticHashing, File cacheFile) {
 		super(algorithm, cacheSizes, isSemanticHashing);
-		setUpCache(path2Hash, cacheSizes, cacheFile);
-	}
-
-	private void setUpCache(final Map<String, String> path2Hash, int cacheSizes,
-			final File cacheFile) {
-		if (cacheFile.exists()) {
-			loadCache(path2Hash, cacheFile, cacheSizes);
-		}
+		this.mStatIndex = new StatIndex(cacheFile,
+				algorithm + " " + isSemanticHashing);
+		this.mHasher = new Hasher(algorithm, 0, isSemanticHashing);
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
 			public void run() {
-				storeCache(path2Hash, cacheFile);
+				mStatIndex.save();
 			}
 		});
 	}
 
-	// TODO: Move to LRU
-	public static void storeCache(Map<String, String> map, File file) {
-		BufferedWriter bw = null;
-		try {
-			// Ensure that we the directory exists (maybe this should be done at
-			// another place).
-			file.getParentFile().mkdirs();
-			bw = new BufferedWriter(
-					new OutputStreamWriter(new FileOutputStream(file)));
-			for (Entry<String, String> en : map.entrySet()) {
-				bw.write(en.getValue());
-				bw.write(' ');
-				bw.write(en.getKey());
-				bw.write('\n');
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			FileUtil.closeAndIgnoreExceptions(bw);
-		}
-	}
+	// INTERNAL
 
-	// TODO: Move to LRU
-	public static void loadCache(Map<String, String> cache, File file,
-			int maxSize) {
-		BufferedReader br = null;
-		try {
-			br = new BufferedReader(
-					new InputStreamReader(new FileInputStream(file)));
-			String line = null;
-			while ((line = br.readLine()) != null) {
-				int sepIndex = line.indexOf(" ");
-				String hash = line.substring(0, sepIndex);
-				String urlExternalForm = line.substring(sepIndex + 1);
-				cache.put(urlExternalForm, hash);
-			}
-		} catch (FileNotFoundException e) {
-			// Nothing: New cache will be used.
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			FileUtil.closeAndIgnoreExceptions(br);
+	@Override
+	protected String hashURL(URL url, String externalForm) {
+		if (url == null)
+			return ERR_HASH;
+
+		String hash = path2Hash.get(externalForm);
+		if (hash != null) {
+			return hash;
 		}
+		hash = mStatIndex.hashURL(externalForm, mHasher);
+		path2Hash.put(externalForm, hash);
+		return hash;
 	}
 }
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.hash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.ijacoco.core.rts.log.Log;
+import org.ijacoco.core.rts.util.ByteBufferInputStream;
+import org.ijacoco.core.rts.util.FileUtil;
+
+/**
+ * Index of file metadata (size, modification time, and file key/inode) for each
+ * hashed url. A url is hashed again only if its metadata changed since it was
+ * last hashed; otherwise hash recorded in the index is returned. The hash
+ * itself (e.g., semantic hash) still decides if a url is modified. Urls in a
+ * jar use metadata of the jar. Safe for use from several threads.
+ *
+ * The index is a log of records (appended under a file lock, so several VMs can
+ * share one index); the latest record for a url wins. The log is loaded (memory
+ * mapped) on first use and compacted once most of its records are stale.
+ * Header: UTF magic, UTF hasher id. Record: int length, payload (UTF url, long
+ * size, long modification time, UTF file key, UTF hash), int CRC32 of payload.
+ */
+public class StatIndex {
+
+	/** Magic/version sequence */
+	private static final String MAGIC_SEQUENCE = "# stat 2";
+
+	/**
+	 * Files modified within this many milliseconds before hashing are not
+	 * recorded, as a later change may keep the same modification time (file
+	 * systems have coarse timestamp granularity).
+	 */
+	private static final long RACY_MILLIS = 2000L;
+
+	/** Log is compacted when it has this many times more records than urls */
+	private static final int COMPACTION_RATIO = 2;
+
+	/** Metadata of a file and hash of the url at the time of hashing */
+	private static final class Entry {
+		private final long mSize;
+		private final long mLastModified;
+		private final String mFileKey;
+		private final String mHash;
+
+		Entry(long size, long lastModified, String fileKey, String hash) {
+			this.mSize = size;
+			this.mLastModified = lastModified;
+			this.mFileKey = fileKey;
+			this.mHash = hash;
+		}
+
+		boolean hasSameStat(Entry other) {
+			return mSize == other.mSize && mLastModified == other.mLastModified
+					&& mFileKey.equals(other.mFileKey);
+		}
+	}
+
+	/** File that keeps the index */
+	private final File mFile;
+
+	/** Describes hashing (algorithm, options); index is dropped if changed */
+	private final String mHasherId;
+
+	/** Index: url(external form)->entry */
+	private final Map<String, Entry> mEntries;
+
+	/** Entries recorded since the last flush */
+	private final Map<String, Entry> mPending;
+
+	/** Number of records in the log (as far as this instance knows) */
+	private int mNumRecords;
+
+	/** True once the log has been loaded */
+	private volatile boolean mIsLoaded;
+
+	/**
+	 * Constructor. The index is loaded on first use.
+	 *
+	 * @param file
+	 *            File that keeps the index.
+	 * @param hasherId
+	 *            Description of the way hashes are computed.
+	 */
+	public StatIndex(File file, String hasherId) {
+		this.mFile = file;
+		this.mHasherId = hasherId;
+		this.mEntries = new ConcurrentHashMap<String, Entry>();
+		this.mPending = new LinkedHashMap<String, Entry>();
+	}
+
+	/**
+	 * Returns hash of the resource at the given url; the resource is hashed
+	 * (with the given hasher) only if its metadata changed.
+	 */
+	public String hashURL(String externalForm, Hasher hasher) {
+		Entry stat = stat(externalForm);
+		if (stat == null) {
+			return hasher.hashURL(externalForm);
+		}
+		ensureLoaded();
+		Entry entry = mEntries.get(externalForm);
+		if (entry != null && entry.hasSameStat(stat)) {
+			return entry.mHash;
+		}
+		String hash = hasher.hashURL(externalForm);
+		if (!hash.equals(Hasher.ERR_HASH) && System.currentTimeMillis()
+				- stat.mLastModified >= RACY_MILLIS) {
+			Entry newEntry = new Entry(stat.mSize, stat.mLastModified,
+					stat.mFileKey, hash);
+			mEntries.put(externalForm, newEntry);
+			synchronized (mPending) {
+				mPending.put(externalForm, newEntry);
+			}
+		} else if (entry != null) {
+			mEntries.remove(externalForm);
+		}
+		return hash;
+	}
+
+	/**
+	 * Appends entries recorded since the last save, and compacts the log if
+	 * most of its records are stale.
+	 */
+	public synchronized void save() {
+		Map<String, Entry> pending;
+		synchronized (mPending) {
+			pending = new LinkedHashMap<String, Entry>(mPending);
+			mPending.clear();
+		}
+		if (pending.isEmpty()) {
+			return;
+		}
+		try {
+			append(encodeRecords(pending));
+			mNumRecords += pending.size();
+			if (mNumRecords > COMPACTION_RATIO * mEntries.size()) {
+				compact();
+			}
+		} catch (IOException ex) {
+			Log.e("Problems while saving stat index", ex);
+		}
+	}
+
+	// INTERNAL
+
+	private void ensureLoaded() {
+		if (mIsLoaded) {
+			return;
+		}
+		synchronized (this) {
+			if (!mIsLoaded) {
+				load();
+				mIsLoaded = true;
+			}
+		}
+	}
+
+	private void load() {
+		if (!mFile.exists()) {
+			return;
+		}
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(mFile, "r");
+			FileChannel channel = raf.getChannel();
+			FileLock lock = channel.lock(0L, Long.MAX_VALUE, true);
+			try {
+				// Parse while locked, as the log may be compacted in place.
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+						0L, channel.size());
+				Map<String, Entry> entries = new HashMap<String, Entry>();
+				mNumRecords = parse(buffer, entries);
+				mEntries.putAll(entries);
+			} finally {
+				lock.release();
+			}
+		} catch (IOException ex) {
+			Log.w("Stat index is not valid and will be recreated");
+			mEntries.clear();
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(raf);
+		}
+	}
+
+	/**
+	 * Parses the given log into the given map.
+	 *
+	 * @return Number of records, or 0 if the log was created with a different
+	 *         magic sequence or hasher.
+	 */
+	private int parse(ByteBuffer buffer, Map<String, Entry> entries)
+			throws IOException {
+		buffer.position(0);
+		DataInputStream in = new DataInputStream(
+				new ByteBufferInputStream(buffer));
+		if (buffer.limit() == 0 || !in.readUTF().equals(MAGIC_SEQUENCE)
+				|| !in.readUTF().equals(mHasherId)) {
+			return 0;
+		}
+		int numRecords = 0;
+		int position = buffer.position();
+		CRC32 crc = new CRC32();
+		while (buffer.limit() - position >= 8) {
+			int length = buffer.getInt(position);
+			if (length < 0 || buffer.limit() - position - 8 < length) {
+				// Incomplete record (e.g., process killed while appending).
+				break;
+			}
+			ByteBuffer payload = buffer.duplicate();
+			payload.position(position + 4);
+			payload.limit(position + 4 + length);
+			crc.reset();
+			crc.update(payload.duplicate());
+			if ((int) crc.getValue() != buffer.getInt(position + 4 + length)) {
+				break;
+			}
+			in = new DataInputStream(new ByteBufferInputStream(payload));
+			String externalForm = in.readUTF();
+			entries.put(externalForm, new Entry(in.readLong(), in.readLong(),
+					in.readUTF(), in.readUTF()));
+			numRecords++;
+			position += 4 + length + 4;
+		}
+		return numRecords;
+	}
+
+	private byte[] encodeHeader() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeUTF(MAGIC_SEQUENCE);
+		out.writeUTF(mHasherId);
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private static byte[] encodeRecords(Map<String, Entry> entries)
+			throws IOException {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		CRC32 crc = new CRC32();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			baos.reset();
+			out.writeUTF(entry.getKey());
+			out.writeLong(entry.getValue().mSize);
+			out.writeLong(entry.getValue().mLastModified);
+			out.writeUTF(entry.getValue().mFileKey);
+			out.writeUTF(entry.getValue().mHash);
+			out.flush();
+			byte[] payload = baos.toByteArray();
+			crc.reset();
+			crc.update(payload);
+			ByteBuffer record = ByteBuffer.allocate(payload.length + 8);
+			record.putInt(payload.length);
+			record.put(payload);
+			record.putInt((int) crc.getValue());
+			records.write(record.array());
+		}
+		return records.toByteArray();
+	}
+
+	/**
+	 * Appends the given records; the log is (re)started if it does not exist or
+	 * it was created with a different magic sequence or hasher.
+	 */
+	private void append(byte[] records) throws IOException {
+		mFile.getParentFile().mkdirs();
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(mFile, "rw");
+			FileChannel channel = raf.getChannel();
+			FileLock lock = channel.lock();
+			try {
+				byte[] header = encodeHeader();
+				long size = channel.size();
+				if (!hasHeader(channel, header)) {
+					channel.truncate(0);
+					writeFully(channel, ByteBuffer.wrap(header), 0L);
+					size = header.length;
+					mNumRecords = 0;
+				}
+				writeFully(channel, ByteBuffer.wrap(records), size);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(raf);
+		}
+	}
+
+	/**
+	 * Rewrites the log (in place, as other VMs may append at the same time)
+	 * with one record per url. Entries for files that changed or no longer
+	 * exist are dropped.
+	 */
+	private void compact() throws IOException {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(mFile, "rw");
+			FileChannel channel = raf.getChannel();
+			FileLock lock = channel.lock();
+			try {
+				ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+				while (content.hasRemaining()) {
+					if (channel.read(content, content.position()) < 0) {
+						break;
+					}
+				}
+				content.flip();
+				Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+				parse(content, entries);
+				Map<String, Entry> live = new LinkedHashMap<String, Entry>();
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					Entry stat = stat(entry.getKey());
+					if (stat != null && stat.hasSameStat(entry.getValue())) {
+						live.put(entry.getKey(), entry.getValue());
+					}
+				}
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				baos.write(encodeHeader());
+				baos.write(encodeRecords(live));
+				channel.truncate(0);
+				writeFully(channel, ByteBuffer.wrap(baos.toByteArray()), 0L);
+				mNumRecords = live.size();
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FileUtil.closeAndIgnoreExceptions(raf);
+		}
+	}
+
+	private static boolean hasHeader(FileChannel channel, byte[] header)
+			throws IOException {
+		if (channel.size() < header.length) {
+			return false;
+		}
+		ByteBuffer actual = ByteBuffer.allocate(header.length);
+		while (actual.hasRemaining()) {
+			if (channel.read(actual, actual.position()) < 0) {
+				return false;
+			}
+		}
+		return ByteBuffer.wrap(header).equals(actual.flip());
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Returns metadata of the file behind the given url, or null if the url
+	 * does not point to a (local) file.
+	 */
+	private static Entry stat(String externalForm) {
+		File file = toFile(externalForm);
+		if (file == null) {
+			return null;
+		}
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+					BasicFileAttributes.class);
+			if (!attributes.isRegularFile()) {
+				return null;
+			}
+			Object fileKey = attributes.fileKey();
+			return new Entry(attributes.size(),
+					attributes.lastModifiedTime().toMillis(),
+					fileKey == null ? "" : fileKey.toString(), null);
+		} catch (IOException ex) {
+			// File does not exist (any longer).
+			return null;
+		}
+	}
+
+	private static File toFile(String externalForm) {
+		String spec = externalForm;
+		if (spec.startsWith("jar:")) {
+			int separatorIndex = spec.indexOf("!/");
+			if (separatorIndex < 0) {
+				return null;
+			}
+			spec = spec.substring("jar:".length(), separatorIndex);
+		}
+		if (!spec.startsWith("file:")) {
+			return null;
+		}
+		try {
+			return new File(new URI(spec));
+		} catch (URISyntaxException ex) {
+			return null;
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+}
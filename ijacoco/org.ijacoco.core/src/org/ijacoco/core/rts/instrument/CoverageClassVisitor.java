@@ -135,6 +135,15 @@ public class CoverageClassVisitor extends ClassVisitor {
 		return mv;
 	}
 
+	/**
+	 * Returns a new probe id. Visitors that insert invocations of the coverage
+	 * monitor in the same VM should obtain ids here, so that ids of different
+	 * probes do not collide.
+	 */
+	public static int newProbeId() {
+		return sProbeCounter.incrementAndGet();
+	}
+
 	/**
 	 * This method is used to optimize instrumentation. If this flag returns
 	 * false, there is no reason to replace bytecode for this class.
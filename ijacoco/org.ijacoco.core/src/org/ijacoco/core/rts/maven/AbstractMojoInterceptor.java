@@ -51,11 +51,20 @@ public abstract class AbstractMojoInterceptor {
 
 	protected static String makeArgLine(Object mojo, Config.AgentMode junitMode,
 			String currentArgLine) throws Exception {
+		return makeArgLine(mojo, junitMode, "", currentArgLine);
+	}
+
+	/**
+	 * Makes argLine; the given agent options (each followed by ",") are passed
+	 * to the agent in addition to the options prepared by RTS plugin.
+	 */
+	protected static String makeArgLine(Object mojo, Config.AgentMode junitMode,
+			String agentOptions, String currentArgLine) throws Exception {
 		URL agentJarURL = Types.extractJarURL(RTSAgent.class);
 		String agentAbsolutePath = new File(
 				agentJarURL.toURI().getSchemeSpecificPart()).getAbsolutePath();
 		String more = "-javaagent:" + agentAbsolutePath + "=mode=" + junitMode
-				+ ",";
+				+ "," + agentOptions;
 
 		// Get argLine as prepared by RTS plugin.
 		String rtsArgLine = System.getProperty(ARGLINE_INTERNAL_PROP);
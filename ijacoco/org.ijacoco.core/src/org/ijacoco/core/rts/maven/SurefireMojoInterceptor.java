@@ -78,8 +78,6 @@ public final class SurefireMojoInterceptor extends AbstractMojoInterceptor {
 			updateArgLine(mojo);
 			// Update excludes.
 			updateExcludes(mojo);
-			// Update parallel.
-			updateParallel(mojo);
 			// Update exitTimeout.
 			updateExitTimeout(mojo);
 		} catch (Exception ex) {
@@ -166,7 +164,12 @@ public final class SurefireMojoInterceptor extends AbstractMojoInterceptor {
 				? Config.AgentMode.JUNITFORK
 				: Config.AgentMode.JUNIT;
 		String currentArgLine = (String) getField(ARGLINE_FIELD, mojo);
-		String newArgLine = makeArgLine(mojo, junitMode, currentArgLine);
+		// If tests run in parallel, collect dependencies per thread.
+		String agentOptions = isParallelOn(mojo)
+				? "dependencies.per.thread=true,"
+				: "";
+		String newArgLine = makeArgLine(mojo, junitMode, agentOptions,
+				currentArgLine);
 		setField(ARGLINE_FIELD, mojo, newArgLine);
 	}
 
@@ -188,23 +191,18 @@ public final class SurefireMojoInterceptor extends AbstractMojoInterceptor {
 	}
 
 	/**
-	 * Sets parallel parameter to null if the parameter is different from null
-	 * and prints a warning.
-	 *
-	 * This method is written in Shanghai'14.
+	 * Returns true if parallel parameter is set; in that case dependencies are
+	 * collected per thread.
 	 */
-	private static void updateParallel(Object mojo) throws Exception {
+	private static boolean isParallelOn(Object mojo) throws Exception {
 		try {
 			String currentParallel = getStringField(PARALLEL_FIELD, mojo);
-			if (currentParallel != null) {
-				warn(mojo,
-						"RTS does not support parallel parameter.  This parameter will be set to null for this run.");
-				setField(PARALLEL_FIELD, mojo, null);
-			}
+			return currentParallel != null && !currentParallel.equals("");
 		} catch (NoSuchMethodException ex) {
 			// "parallel" was introduced in Surefire 2.2, so methods
 			// may not exist, but we do not fail because default is
 			// sequential execution.
+			return false;
 		}
 	}
 
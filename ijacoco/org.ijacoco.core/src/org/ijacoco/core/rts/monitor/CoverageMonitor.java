@@ -20,12 +20,12 @@ import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.locks.ReentrantLock;
 import org.ijacoco.core.rts.Config;
 import org.ijacoco.core.rts.Names;
 import org.ijacoco.core.rts.log.Log;
@@ -33,14 +33,29 @@ import org.ijacoco.core.rts.util.Types;
 
 /**
  * Monitor notified in runtime of various dependencies.
+ *
+ * By default, dependencies are collected in a single (global) set, so only one
+ * test can run at a time. If dependencies are collected per thread, each thread
+ * that runs a test has its own collector; dependencies seen by threads without
+ * a collector (e.g., threads started by tests) are recorded for all running
+ * tests.
  */
 public final class CoverageMonitor {
 
 	/** Class name for ClassLoader */
 	private static final String CLASS_LOADER_NAME = ClassLoader.class.getName();
 
-	/** Collected classes */
-	private static final Set<Class<?>> sClasses = new HashSet<Class<?>>();
+	/**
+	 * Set to true to trace calls to this monitor (if debugging is enabled).
+	 * This is a constant, so the tracing code is removed by the compiler.
+	 */
+	private static final boolean TRACE = false;
+
+	/**
+	 * Collected classes; {@link Class} does not override equals/hashCode, so
+	 * classes are keyed by identity.
+	 */
+	private static final Set<Class<?>> sClasses = newConcurrentSet();
 
 	// private static final String TMP_DIR_PATH =
 	// System.getProperty("java.io.tmpdir");
@@ -52,10 +67,10 @@ public final class CoverageMonitor {
 	private static final boolean IS_UNIX;
 
 	/** Collected urls */
-	private static final Set<String> sURLs = new HashSet<String>();
+	private static final Set<String> sURLs = newConcurrentSet();
 
 	/** Collected urls that should not be removed on clean */
-	private static final Set<String> sUncleanableURLs = new HashSet<String>();
+	private static final Set<String> sUncleanableURLs = newConcurrentSet();
 
 	/** Strings used to identify URL for JUnit */
 	private static final String JUNIT_FRAMEWORK_URL_PART = "!/"
@@ -67,14 +82,46 @@ public final class CoverageMonitor {
 	private static final String ORG_APACHE_MAVEN_URL_PART = "!/"
 			+ Names.ORG_APACHE_MAVEN_VM;
 
-	/** Clock for this monitor */
-	private static final ReentrantLock sLock = new ReentrantLock();
+	/** Classes seen at each probe, used to optimize execution */
+	private static final ProbeTable sProbes = new ProbeTable();
+
+	/** Collector of the current thread (if dependencies are per thread) */
+	private static final ThreadLocal<Collector> sCollector = new ThreadLocal<Collector>();
 
-	/** Size of probe array, used to optimize execution */
-	private static final int PROBE_ARRAY_SIZE = 8192;
-	private static final int PROBE_SIZE_MASK = PROBE_ARRAY_SIZE - 1;
-	/** Probe array */
-	private static final Class<?>[] PROBE_ARRAY = new Class<?>[PROBE_ARRAY_SIZE];
+	/** Collectors of all threads that run tests */
+	private static final Set<Collector> sCollectors = newConcurrentSet();
+
+	/**
+	 * Dependencies collected by one thread; used instead of global sets (and
+	 * caches) if dependencies are collected per thread.
+	 */
+	private static final class Collector {
+		/** Collected classes */
+		private final Set<Class<?>> mClasses = new HashSet<Class<?>>();
+
+		/** Collected urls */
+		private final Set<String> mURLs = new HashSet<String>();
+
+		/** Classes seen at each probe */
+		private final ProbeTable mProbes = new ProbeTable();
+
+		synchronized boolean addClass(Class<?> clz) {
+			return mClasses.add(clz);
+		}
+
+		synchronized void addURL(String externalForm) {
+			mURLs.add(externalForm);
+		}
+
+		synchronized void addURLsTo(List<String> result) {
+			result.addAll(mURLs);
+		}
+
+		synchronized void cleanCaches() {
+			mClasses.clear();
+			mProbes.reset();
+		}
+	}
 
 	// FRAMEWORK AND RUNTIME
 
@@ -82,40 +129,59 @@ public final class CoverageMonitor {
 	 * Clean dynamically collected coverage.
 	 */
 	public static void clean() {
-		try {
-			sLock.lock();
-			clean0();
-		} finally {
-			sLock.unlock();
+		if (Config.DEPENDENCIES_PER_THREAD_V) {
+			// Start new collector for the current thread.
+			Collector collector = sCollector.get();
+			if (collector != null) {
+				sCollectors.remove(collector);
+			}
+			collector = new Collector();
+			sCollector.set(collector);
+			sCollectors.add(collector);
+			return;
 		}
+		clean0();
+	}
+
+	/**
+	 * Clean dynamically collected coverage after a test finished. If
+	 * dependencies are collected per thread, the current thread stops
+	 * collecting, so its later dependencies are recorded for all running tests
+	 * (until it starts another test).
+	 */
+	public static void finish() {
+		if (Config.DEPENDENCIES_PER_THREAD_V) {
+			Collector collector = sCollector.get();
+			if (collector != null) {
+				sCollectors.remove(collector);
+				sCollector.remove();
+			}
+			return;
+		}
+		clean0();
 	}
 
 	public static void cleanCaches() {
-		try {
-			sLock.lock();
-			sClasses.clear();
-			ClassesCache.clean();
-			Arrays.fill(PROBE_ARRAY, null);
-		} finally {
-			sLock.unlock();
+		sClasses.clear();
+		ClassesCache.clean();
+		sProbes.reset();
+		for (Collector collector : sCollectors) {
+			collector.cleanCaches();
 		}
 	}
 
 	// Unsed for tests only.
 	public static void cleanUncleanable() {
-		try {
-			sLock.lock();
-			sUncleanableURLs.clear();
-		} finally {
-			sLock.unlock();
-		}
+		sUncleanableURLs.clear();
 	}
 
 	private static void clean0() {
+		// Caches are cleared first: a class that is touched concurrently is
+		// then either recorded after the clean or touched again.
+		ClassesCache.clean();
+		sProbes.reset();
 		sClasses.clear();
 		sURLs.clear();
-		ClassesCache.clean();
-		Arrays.fill(PROBE_ARRAY, null);
 	}
 
 	/**
@@ -124,28 +190,20 @@ public final class CoverageMonitor {
 	 * system to preset some values.
 	 */
 	public static void addURLs(String... urls) {
-		try {
-			sLock.lock();
-			addURLs0(urls);
-		} finally {
-			sLock.unlock();
+		if (Config.DEPENDENCIES_PER_THREAD_V) {
+			for (String url : urls) {
+				recordForCurrentThread(url);
+			}
+			return;
 		}
-	}
-
-	private static void addURLs0(String[] urls) {
 		for (String url : urls) {
 			sURLs.add(url);
 		}
 	}
 
 	public static void addUncleanableURLs(String externalForm) {
-		try {
-			sLock.lock();
-			if (!filterURL(externalForm)) {
-				sUncleanableURLs.add(externalForm);
-			}
-		} finally {
-			sLock.unlock();
+		if (!filterURL(externalForm)) {
+			sUncleanableURLs.add(externalForm);
 		}
 	}
 
@@ -154,12 +212,10 @@ public final class CoverageMonitor {
 	 * invoked from other parts of our system to obtain the collected data.
 	 */
 	public static String[] getURLs() {
-		try {
-			sLock.lock();
-			return getURLs0();
-		} finally {
-			sLock.unlock();
+		if (Config.DEPENDENCIES_PER_THREAD_V) {
+			return getURLsOfCurrentThread();
 		}
+		return getURLs0();
 	}
 
 	private static String[] getURLs0() {
@@ -185,43 +241,29 @@ public final class CoverageMonitor {
 	 * IMPORTANT: "synchronized" on the following method leads to slow execution
 	 * for a large number of invocation (even in sequential code).
 	 * {@link Semaphore} is (slightly) faster but it may be too much for the
-	 * moment.
+	 * moment. Therefore, this method takes no lock and does not allocate unless
+	 * the class is seen for the first time (after a clean); see
+	 * CoverageMonitorBenchmark in org.ijacoco.core.benchmark.
 	 */
 	public static void t(Class<?> clz) {
+		if (Config.DEPENDENCIES_PER_THREAD_V) {
+			tForCurrentThread(clz);
+			return;
+		}
 		// Must be non null and type of interest.
 		if (clz == null || ClassesCache.check(clz) || Types.isIgnorable(clz)) {
 			return;
 		}
 
-		Log.d("!!! CoverageMonitor.t: " + clz.getName());
-
-		// Check and assign id to this class (this must be synchronized).
-		try {
-			Log.d("!!! CoverageMonitor.t: " + clz.getName() + ", getting lock");
-			sLock.lock();
-			Log.d("!!! CoverageMonitor.t: " + clz.getName() + ", got lock");
-			if (!sClasses.add(clz)) {
-				return;
-			}
-		} finally {
-			Log.d("!!! CoverageMonitor.t: " + clz.getName()
-					+ ", releasing lock");
-			sLock.unlock();
-			Log.d("!!! CoverageMonitor.t: " + clz.getName()
-					+ ", released lock");
+		// Only the first thread that adds the class records its url.
+		if (sClasses.contains(clz) || !sClasses.add(clz)) {
+			return;
 		}
-
-		String className = clz.getName();
-		String resourceName = className
-				.substring(className.lastIndexOf(".") + 1).concat(".class");
-		URL url = null;
-		try {
-			// Find resource for the class (URL that we will use to extract
-			// the path).
-			url = clz.getResource(resourceName);
-		} catch (SecurityException ex) {
-			Log.w("Unable to obtain resource because of security reasons.");
+		if (TRACE) {
+			Log.d("!!! CoverageMonitor.t: " + clz.getName());
 		}
+
+		URL url = getResource(clz);
 		// If no URL obtained, return.
 		if (url == null) {
 			return;
@@ -229,20 +271,50 @@ public final class CoverageMonitor {
 		recordURL(url.toExternalForm());
 	}
 
+	private static void tForCurrentThread(Class<?> clz) {
+		if (clz == null || Types.isIgnorable(clz)) {
+			return;
+		}
+		Collector collector = getCollector();
+		boolean isNew = false;
+		if (collector != null) {
+			isNew = collector.addClass(clz);
+		} else {
+			for (Collector active : sCollectors) {
+				isNew |= active.addClass(clz);
+			}
+		}
+		if (!isNew) {
+			return;
+		}
+		URL url = getResource(clz);
+		if (url != null) {
+			recordURL(url.toExternalForm());
+		}
+	}
+
 	/**
 	 * Touch method, which also accepts probe id. The id can be used to optimize
 	 * execution.
 	 *
-	 * The current optimization is as follows: we check if index at probeId
-	 * location is set; if yes, then we do nothing, but if not, we set it and
-	 * invoke original touch method. As we use limited size of probe array, we
-	 * have to check length as we may have more probes than array allows.
+	 * The current optimization is as follows: we check if the class has been
+	 * seen at probeId since the last clean; if yes, then we do nothing, but if
+	 * not, we mark it and invoke original touch method. Each probe has its own
+	 * slot (see {@link ProbeTable}), so probes do not evict each other.
 	 */
 	public static void t(Class<?> clz, int probeId) {
 		if (clz != null) {
-			int index = probeId & PROBE_SIZE_MASK;
-			if (PROBE_ARRAY[index] != clz) {
-				PROBE_ARRAY[index] = clz;
+			ProbeTable probes = sProbes;
+			if (Config.DEPENDENCIES_PER_THREAD_V) {
+				Collector collector = getCollector();
+				if (collector == null) {
+					// No cache for threads that do not run tests.
+					t(clz);
+					return;
+				}
+				probes = collector.mProbes;
+			}
+			if (probes.mark(clz, probeId)) {
 				t(clz);
 			}
 		}
@@ -326,20 +398,73 @@ public final class CoverageMonitor {
 	 * @param externalForm
 	 */
 	private static void safeRecordURL(String externalForm) {
+		if (Config.DEPENDENCIES_PER_THREAD_V) {
+			recordForCurrentThread(externalForm);
+			return;
+		}
+		if (TRACE) {
+			Log.d("!!! CoverageMonitor.safeRecordURL: " + externalForm);
+		}
+		sURLs.add(externalForm);
+	}
+
+	private static <T> Set<T> newConcurrentSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+	}
+
+	/**
+	 * Returns resource (class file) of the given class, or null if the resource
+	 * cannot be obtained.
+	 */
+	private static URL getResource(Class<?> clz) {
+		String className = clz.getName();
+		String resourceName = className
+				.substring(className.lastIndexOf(".") + 1).concat(".class");
 		try {
-			Log.d("!!! CoverageMonitor.safeRecordURL: " + externalForm
-					+ ", getting lock");
-			sLock.lock();
-			Log.d("!!! CoverageMonitor.safeRecordURL: " + externalForm
-					+ ", got lock");
-			sURLs.add(externalForm);
-		} finally {
-			Log.d("!!! CoverageMonitor.safeRecordURL: " + externalForm
-					+ ", releasing lock");
-			sLock.unlock();
-			Log.d("!!! CoverageMonitor.safeRecordURL: " + externalForm
-					+ ", released lock");
+			// Find resource for the class (URL that we will use to extract
+			// the path).
+			return clz.getResource(resourceName);
+		} catch (SecurityException ex) {
+			Log.w("Unable to obtain resource because of security reasons.");
+			return null;
+		}
+	}
+
+	// PER THREAD
+
+	/**
+	 * Returns collector of the current thread, or null if the thread does not
+	 * run a test.
+	 */
+	private static Collector getCollector() {
+		Collector collector = sCollector.get();
+		return collector != null && sCollectors.contains(collector) ? collector
+				: null;
+	}
+
+	/**
+	 * Records the given url for the test run by the current thread, or for all
+	 * running tests if the current thread does not run a test.
+	 */
+	private static void recordForCurrentThread(String externalForm) {
+		Collector collector = getCollector();
+		if (collector != null) {
+			collector.addURL(externalForm);
+		} else {
+			for (Collector active : sCollectors) {
+				active.addURL(externalForm);
+			}
+		}
+	}
+
+	private static String[] getURLsOfCurrentThread() {
+		List<String> result = new ArrayList<String>();
+		Collector collector = getCollector();
+		if (collector != null) {
+			collector.addURLsTo(result);
 		}
+		result.addAll(sUncleanableURLs);
+		return result.toArray(new String[result.size()]);
 	}
 
 	// FILTERS
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.monitor;
+
+/**
+ * Classes seen at each probe (instrumented touch site) since the last reset.
+ *
+ * Probe ids are assigned by a counter during instrumentation, so each probe
+ * gets its own slot and two probes never evict each other (unless there are
+ * more than {@link #MAX_SIZE} probes). A slot keeps the class rather than a
+ * flag, because the same probe id may be used for different classes (e.g.,
+ * instrumented classfiles reused from an earlier run).
+ *
+ * A reset publishes a new (empty) array instead of clearing the old one, so a
+ * check is one volatile read followed by a plain read of a slot. Writes to a
+ * slot are not synchronized; a lost write only means that the monitor is
+ * invoked once more.
+ */
+final class ProbeTable {
+
+	/** Initial number of slots */
+	private static final int INITIAL_SIZE = 8192;
+
+	/** Max number of slots; probe ids above are masked */
+	private static final int MAX_SIZE = 1 << 20;
+
+	/** Seen classes indexed by probe id */
+	private volatile Class<?>[] mSlots = new Class<?>[INITIAL_SIZE];
+
+	/**
+	 * Marks the given class as seen at the given probe.
+	 *
+	 * @return true if the class has not been seen at the probe since the last
+	 *         reset, false otherwise.
+	 */
+	boolean mark(Class<?> clz, int probeId) {
+		Class<?>[] slots = mSlots;
+		int index = probeId & (MAX_SIZE - 1);
+		if (index >= slots.length) {
+			slots = grow(index);
+		}
+		if (slots[index] == clz) {
+			return false;
+		}
+		slots[index] = clz;
+		return true;
+	}
+
+	/**
+	 * Forgets all seen classes.
+	 */
+	synchronized void reset() {
+		mSlots = new Class<?>[mSlots.length];
+	}
+
+	// INTERNAL
+
+	private synchronized Class<?>[] grow(int index) {
+		Class<?>[] slots = mSlots;
+		if (index < slots.length) {
+			return slots;
+		}
+		int size = slots.length;
+		while (size <= index) {
+			size <<= 1;
+		}
+		Class<?>[] newSlots = new Class<?>[size];
+		System.arraycopy(slots, 0, newSlots, 0, slots.length);
+		mSlots = newSlots;
+		return newSlots;
+	}
+}
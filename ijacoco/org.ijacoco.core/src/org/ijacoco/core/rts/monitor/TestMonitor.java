@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.monitor;
+
+/**
+ * Monitor notified when a test class starts and ends (see
+ * {@link org.ijacoco.core.rts.RTS#beginClassCoverage(String)}), so that other
+ * tools in the VM (e.g., the coverage agent) can attribute what they collect to
+ * test classes.
+ *
+ * This package is not relocated in the agent jars, so the listener registered
+ * by an agent is notified even if the test classes see their own copy of the
+ * tool on the classpath.
+ */
+public final class TestMonitor {
+
+	/**
+	 * Listener of test boundaries.
+	 */
+	public interface Listener {
+
+		/**
+		 * Invoked before the tests of the given class run.
+		 *
+		 * @param className
+		 *            Name of the test class.
+		 */
+		void beginTest(String className);
+
+		/**
+		 * Invoked after the tests of the given class ran.
+		 *
+		 * @param className
+		 *            Name of the test class.
+		 */
+		void endTest(String className);
+	}
+
+	/** Registered listener, or null */
+	private static volatile Listener sListener;
+
+	/**
+	 * Constructor.
+	 */
+	private TestMonitor() {
+	}
+
+	/**
+	 * Registers the given listener (replacing the registered one).
+	 *
+	 * @param listener
+	 *            Listener to notify, or null to notify none.
+	 */
+	public static void setListener(Listener listener) {
+		sListener = listener;
+	}
+
+	// MAIN
+
+	public static void beginTest(String className) {
+		Listener listener = sListener;
+		if (listener != null) {
+			listener.beginTest(className);
+		}
+	}
+
+	public static void endTest(String className) {
+		Listener listener = sListener;
+		if (listener != null) {
+			listener.endTest(className);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.core.rts.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link InputStream} that reads from a {@link ByteBuffer}. The stream does not
+ * buffer, so the position of the buffer always matches what has been read.
+ */
+public final class ByteBufferInputStream extends InputStream {
+
+	/** Buffer to read from */
+	private final ByteBuffer mByteBuffer;
+
+	/**
+	 * Constructor.
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.mByteBuffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		return mByteBuffer.hasRemaining() ? (mByteBuffer.get() & 0xFF) : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (!mByteBuffer.hasRemaining()) {
+			return -1;
+		}
+		int n = Math.min(len, mByteBuffer.remaining());
+		mByteBuffer.get(b, off, n);
+		return n;
+	}
+}
@@ -156,6 +156,16 @@ public class FileUtil {
 		}
 	}
 
+	public static void closeAndIgnoreExceptions(RandomAccessFile file) {
+		try {
+			if (file != null) {
+				file.close();
+			}
+		} catch (IOException e) {
+			// Nothing.
+		}
+	}
+
 	/**
 	 * Returns them when the resources (described with the given external form)
 	 * is last modified. If any error happens, the resulting value is 0.
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.report;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.ijacoco.core.coverage.analysis.CoverageNodeImpl;
+import org.ijacoco.core.coverage.analysis.IBundleCoverage;
+import org.ijacoco.core.coverage.analysis.IPackageCoverage;
+
+/**
+ * A {@link IReportBundleVisitor} that collects the packages of a bundle and
+ * passes the complete bundle to {@link #visitBundle(IBundleCoverage)} at the
+ * end. It is used by report formatters that need the whole bundle at once
+ * (e.g., for index pages), which then keep the coverage of all packages in
+ * memory.
+ */
+public abstract class BundleCollector implements IReportBundleVisitor {
+
+	private final String name;
+
+	private final Collection<IPackageCoverage> packages;
+
+	/**
+	 * Creates a collector for the bundle with the given name.
+	 *
+	 * @param name
+	 *            name of the bundle
+	 */
+	protected BundleCollector(final String name) {
+		this.name = name;
+		this.packages = new ArrayList<IPackageCoverage>();
+	}
+
+	public void visitPackage(final IPackageCoverage coverage) {
+		packages.add(coverage);
+	}
+
+	public void visitEnd() throws IOException {
+		visitBundle(new Bundle(name, packages));
+	}
+
+	/**
+	 * Called with the complete bundle.
+	 *
+	 * @param bundle
+	 *            bundle of all collected packages
+	 * @throws IOException
+	 *             in case of IO problems with the report writer
+	 */
+	protected abstract void visitBundle(IBundleCoverage bundle)
+			throws IOException;
+
+	private static final class Bundle extends CoverageNodeImpl
+			implements IBundleCoverage {
+
+		private final Collection<IPackageCoverage> packages;
+
+		Bundle(final String name, final Collection<IPackageCoverage> packages) {
+			super(ElementType.BUNDLE, name);
+			this.packages = packages;
+			increment(packages);
+		}
+
+		public Collection<IPackageCoverage> getPackages() {
+			return packages;
+		}
+
+	}
+
+}
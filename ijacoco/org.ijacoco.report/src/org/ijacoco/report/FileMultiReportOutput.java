@@ -14,15 +14,19 @@ package org.ijacoco.report;
 
 import static java.lang.String.format;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
  * Implementation of {@link IMultiReportOutput} that writes files directly to a
- * given directory.
+ * given directory. A file is written when its stream is closed, and only if its
+ * content changed, so that files of a previous report that did not change
+ * (e.g., pages of classes that did not change) are not rewritten.
  */
 public class FileMultiReportOutput implements IMultiReportOutput {
 
@@ -45,7 +49,56 @@ public class FileMultiReportOutput implements IMultiReportOutput {
 		if (!parent.isDirectory()) {
 			throw new IOException(format("Can't create directory %s.", parent));
 		}
-		return new BufferedOutputStream(new FileOutputStream(file));
+		return new ByteArrayOutputStream() {
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				if (!hasContent(file, buf, count)) {
+					final OutputStream out = new FileOutputStream(file);
+					try {
+						out.write(buf, 0, count);
+					} finally {
+						out.close();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Checks whether the given file has the given content.
+	 */
+	private static boolean hasContent(final File file, final byte[] content,
+			final int length) throws IOException {
+		if (file.length() != length || !file.isFile()) {
+			return false;
+		}
+		final byte[] buffer = new byte[Math.min(length, 0x10000)];
+		final InputStream in = new FileInputStream(file);
+		try {
+			int offset = 0;
+			while (offset < length) {
+				final int n = in.read(buffer, 0,
+						Math.min(buffer.length, length - offset));
+				if (n < 0) {
+					return false;
+				}
+				for (int i = 0; i < n; i++) {
+					if (buffer[i] != content[offset + i]) {
+						return false;
+					}
+				}
+				offset += n;
+			}
+			return in.read() < 0;
+		} finally {
+			in.close();
+		}
 	}
 
 	public void close() throws IOException {
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014-present Milos Gligoric
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ijacoco.report;
+
+import java.io.IOException;
+
+import org.ijacoco.core.coverage.analysis.IPackageCoverage;
+
+/**
+ * Output-Interface for a bundle that is submitted package by package (see
+ * {@link IReportGroupVisitor#visitBundle(String, ISourceFileLocator)}), so that
+ * the coverage of the whole bundle is not in memory at once. Packages are
+ * submitted with {@link #visitPackage(IPackageCoverage)}, each package at most
+ * once, and the bundle is completed with {@link #visitEnd()}.
+ */
+public interface IReportBundleVisitor {
+
+	/**
+	 * Called to add a package to the bundle.
+	 *
+	 * @param coverage
+	 *            a package of the bundle
+	 * @throws IOException
+	 *             in case of IO problems with the report writer
+	 */
+	void visitPackage(IPackageCoverage coverage) throws IOException;
+
+	/**
+	 * Called once all packages of the bundle have been added.
+	 *
+	 * @throws IOException
+	 *             in case of IO problems with the report writer
+	 */
+	void visitEnd() throws IOException;
+
+}
@@ -27,11 +27,14 @@ import org.ijacoco.core.coverage.analysis.IBundleCoverage;
  *
  * <ul>
  * <li>A visitor instance can be used to either submit bundles (
- * {@link #visitBundle(IBundleCoverage, ISourceFileLocator)}) or groups
+ * {@link #visitBundle(IBundleCoverage, ISourceFileLocator)} or
+ * {@link #visitBundle(String, ISourceFileLocator)}) or groups
  * {@link #visitGroup(String)}). Bundles and groups are not allowed for the same
  * visitor.</li>
  * <li>When creating nested groups with {@link #visitGroup(String)} the
  * hierarchy has to be processed in a "deep first" manner.</li>
+ * <li>A bundle submitted package by package has to be completed before this
+ * visitor can be used again.</li>
  * </ul>
  */
 public interface IReportGroupVisitor {
@@ -49,6 +52,24 @@ public interface IReportGroupVisitor {
 	void visitBundle(IBundleCoverage bundle, ISourceFileLocator locator)
 			throws IOException;
 
+	/**
+	 * Called to add a bundle to the report whose packages are submitted one by
+	 * one to the returned {@link IReportBundleVisitor}. Formatters that write
+	 * packages sequentially (XML, CSV) do not keep submitted packages, so the
+	 * coverage of a large bundle does not have to be in memory at once; other
+	 * formatters collect the packages (see {@link BundleCollector}).
+	 *
+	 * @param name
+	 *            name of the bundle
+	 * @param locator
+	 *            source locator for this bundle
+	 * @return visitor for the packages of the bundle
+	 * @throws IOException
+	 *             in case of IO problems with the report writer
+	 */
+	IReportBundleVisitor visitBundle(String name, ISourceFileLocator locator)
+			throws IOException;
+
 	/**
 	 * Called to add a new group to the report. The returned
 	 * {@link IReportGroupVisitor} instance can be used to add nested bundles or
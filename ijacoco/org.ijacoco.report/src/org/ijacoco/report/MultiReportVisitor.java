@@ -18,6 +18,7 @@ import java.util.Collection;
 import java.util.List;
 
 import org.ijacoco.core.coverage.analysis.IBundleCoverage;
+import org.ijacoco.core.coverage.analysis.IPackageCoverage;
 import org.ijacoco.core.coverage.data.ExecutionData;
 import org.ijacoco.core.coverage.data.SessionInfo;
 
@@ -71,6 +72,28 @@ class MultiGroupVisitor implements IReportGroupVisitor {
 		}
 	}
 
+	public IReportBundleVisitor visitBundle(final String name,
+			final ISourceFileLocator locator) throws IOException {
+		final List<IReportBundleVisitor> children = new ArrayList<IReportBundleVisitor>();
+		for (final IReportGroupVisitor v : visitors) {
+			children.add(v.visitBundle(name, locator));
+		}
+		return new IReportBundleVisitor() {
+			public void visitPackage(final IPackageCoverage coverage)
+					throws IOException {
+				for (final IReportBundleVisitor v : children) {
+					v.visitPackage(coverage);
+				}
+			}
+
+			public void visitEnd() throws IOException {
+				for (final IReportBundleVisitor v : children) {
+					v.visitEnd();
+				}
+			}
+		};
+	}
+
 	public IReportGroupVisitor visitGroup(final String name)
 			throws IOException {
 		final List<IReportGroupVisitor> children = new ArrayList<IReportGroupVisitor>();
@@ -21,6 +21,8 @@ import org.ijacoco.core.coverage.analysis.IBundleCoverage;
 import org.ijacoco.core.coverage.data.ExecutionData;
 import org.ijacoco.core.coverage.data.SessionInfo;
 import org.ijacoco.report.ILanguageNames;
+import org.ijacoco.report.BundleCollector;
+import org.ijacoco.report.IReportBundleVisitor;
 import org.ijacoco.report.IReportGroupVisitor;
 import org.ijacoco.report.IReportVisitor;
 import org.ijacoco.report.ISourceFileLocator;
@@ -86,6 +88,16 @@ public class RulesChecker {
 				bundleChecker.checkBundle(bundle);
 			}
 
+			public IReportBundleVisitor visitBundle(final String name,
+					final ISourceFileLocator locator) {
+				return new BundleCollector(name) {
+					@Override
+					protected void visitBundle(final IBundleCoverage bundle) {
+						bundleChecker.checkBundle(bundle);
+					}
+				};
+			}
+
 			public void visitInfo(final List<SessionInfo> sessionInfos,
 					final Collection<ExecutionData> executionData)
 					throws IOException {
@@ -17,6 +17,7 @@ import java.io.IOException;
 import org.ijacoco.core.coverage.analysis.IBundleCoverage;
 import org.ijacoco.core.coverage.analysis.IClassCoverage;
 import org.ijacoco.core.coverage.analysis.IPackageCoverage;
+import org.ijacoco.report.IReportBundleVisitor;
 import org.ijacoco.report.IReportGroupVisitor;
 import org.ijacoco.report.ISourceFileLocator;
 
@@ -43,11 +44,31 @@ class CSVGroupHandler implements IReportGroupVisitor {
 			final ISourceFileLocator locator) throws IOException {
 		final String name = appendName(bundle.getName());
 		for (final IPackageCoverage p : bundle.getPackages()) {
-			final String packageName = p.getName();
-			for (final IClassCoverage c : p.getClasses()) {
-				if (c.containsCode()) {
-					writer.writeRow(name, packageName, c);
-				}
+			writePackage(name, p);
+		}
+	}
+
+	public IReportBundleVisitor visitBundle(final String bundleName,
+			final ISourceFileLocator locator) throws IOException {
+		final String name = appendName(bundleName);
+		return new IReportBundleVisitor() {
+			public void visitPackage(final IPackageCoverage coverage)
+					throws IOException {
+				writePackage(name, coverage);
+			}
+
+			public void visitEnd() throws IOException {
+				// Rows are written per package
+			}
+		};
+	}
+
+	private void writePackage(final String name, final IPackageCoverage p)
+			throws IOException {
+		final String packageName = p.getName();
+		for (final IClassCoverage c : p.getClasses()) {
+			if (c.containsCode()) {
+				writer.writeRow(name, packageName, c);
 			}
 		}
 	}
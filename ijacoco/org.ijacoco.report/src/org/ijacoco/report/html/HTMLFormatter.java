@@ -21,8 +21,10 @@ import org.ijacoco.core.coverage.analysis.IBundleCoverage;
 import org.ijacoco.core.coverage.analysis.ICoverageNode.CounterEntity;
 import org.ijacoco.core.coverage.data.ExecutionData;
 import org.ijacoco.core.coverage.data.SessionInfo;
+import org.ijacoco.report.BundleCollector;
 import org.ijacoco.report.ILanguageNames;
 import org.ijacoco.report.IMultiReportOutput;
+import org.ijacoco.report.IReportBundleVisitor;
 import org.ijacoco.report.IReportGroupVisitor;
 import org.ijacoco.report.IReportVisitor;
 import org.ijacoco.report.ISourceFileLocator;
@@ -207,12 +209,29 @@ public class HTMLFormatter implements IHTMLReportContext {
 
 			public void visitBundle(final IBundleCoverage bundle,
 					final ISourceFileLocator locator) throws IOException {
+				renderBundle(bundle, locator);
+			}
+
+			private void renderBundle(final IBundleCoverage bundle,
+					final ISourceFileLocator locator) throws IOException {
 				final BundlePage page = new BundlePage(bundle, null, locator,
 						root, HTMLFormatter.this);
 				createSessionsPage(page);
 				page.render();
 			}
 
+			public IReportBundleVisitor visitBundle(final String name,
+					final ISourceFileLocator locator) {
+				// Index pages need all packages of the bundle.
+				return new BundleCollector(name) {
+					@Override
+					protected void visitBundle(final IBundleCoverage bundle)
+							throws IOException {
+						renderBundle(bundle, locator);
+					}
+				};
+			}
+
 			public IReportGroupVisitor visitGroup(final String name)
 					throws IOException {
 				groupHandler = new HTMLGroupVisitor(null, root,
@@ -17,6 +17,9 @@ import java.io.IOException;
 import org.ijacoco.core.coverage.analysis.CoverageNodeImpl;
 import org.ijacoco.core.coverage.analysis.IBundleCoverage;
 import org.ijacoco.core.coverage.analysis.ICoverageNode.ElementType;
+import org.ijacoco.core.coverage.analysis.IPackageCoverage;
+import org.ijacoco.report.BundleCollector;
+import org.ijacoco.report.IReportBundleVisitor;
 import org.ijacoco.report.IReportGroupVisitor;
 import org.ijacoco.report.ISourceFileLocator;
 
@@ -61,6 +64,47 @@ public abstract class AbstractGroupVisitor implements IReportGroupVisitor {
 	protected abstract void handleBundle(IBundleCoverage bundle,
 			ISourceFileLocator locator) throws IOException;
 
+	public final IReportBundleVisitor visitBundle(final String name,
+			final ISourceFileLocator locator) throws IOException {
+		finalizeLastChild();
+		final IReportBundleVisitor handler = handleBundle(name, locator);
+		return new IReportBundleVisitor() {
+			public void visitPackage(final IPackageCoverage coverage)
+					throws IOException {
+				total.increment(coverage);
+				handler.visitPackage(coverage);
+			}
+
+			public void visitEnd() throws IOException {
+				handler.visitEnd();
+			}
+		};
+	}
+
+	/**
+	 * Called to handle a bundle that is submitted package by package. By
+	 * default the packages are collected and the complete bundle is handled
+	 * with {@link #handleBundle(IBundleCoverage, ISourceFileLocator)}.
+	 *
+	 * @param name
+	 *            name of the bundle
+	 * @param locator
+	 *            source locator
+	 * @return visitor for the packages of the bundle
+	 * @throws IOException
+	 *             if the report can't be written
+	 */
+	protected IReportBundleVisitor handleBundle(final String name,
+			final ISourceFileLocator locator) throws IOException {
+		return new BundleCollector(name) {
+			@Override
+			protected void visitBundle(final IBundleCoverage bundle)
+					throws IOException {
+				handleBundle(bundle, locator);
+			}
+		};
+	}
+
 	public final IReportGroupVisitor visitGroup(final String name)
 			throws IOException {
 		finalizeLastChild();
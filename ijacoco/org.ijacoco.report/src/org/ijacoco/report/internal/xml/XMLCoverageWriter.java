@@ -14,16 +14,19 @@ package org.ijacoco.report.internal.xml;
 
 import java.io.IOException;
 
+import org.ijacoco.core.coverage.analysis.CoverageNodeImpl;
 import org.ijacoco.core.coverage.analysis.IBundleCoverage;
 import org.ijacoco.core.coverage.analysis.IClassCoverage;
 import org.ijacoco.core.coverage.analysis.ICounter;
 import org.ijacoco.core.coverage.analysis.ICoverageNode;
 import org.ijacoco.core.coverage.analysis.ICoverageNode.CounterEntity;
+import org.ijacoco.core.coverage.analysis.ICoverageNode.ElementType;
 import org.ijacoco.core.coverage.analysis.ILine;
 import org.ijacoco.core.coverage.analysis.IMethodCoverage;
 import org.ijacoco.core.coverage.analysis.IPackageCoverage;
 import org.ijacoco.core.coverage.analysis.ISourceFileCoverage;
 import org.ijacoco.core.coverage.analysis.ISourceNode;
+import org.ijacoco.report.IReportBundleVisitor;
 
 /**
  * Serializes coverage data as XML fragments.
@@ -48,6 +51,34 @@ public final class XMLCoverageWriter {
 		writeCounters(bundle, element);
 	}
 
+	/**
+	 * Creates a visitor that writes the packages of a bundle to the given
+	 * element as they are submitted, and the counters of the bundle at the end.
+	 * Only the counters of the packages are kept.
+	 *
+	 * @param name
+	 *            name of the bundle
+	 * @param element
+	 *            container element for the bundle data
+	 * @return visitor for the packages of the bundle
+	 */
+	public static IReportBundleVisitor createBundleWriter(final String name,
+			final ReportElement element) {
+		final CoverageNodeImpl total = new CoverageNodeImpl(ElementType.BUNDLE,
+				name);
+		return new IReportBundleVisitor() {
+			public void visitPackage(final IPackageCoverage coverage)
+					throws IOException {
+				total.increment(coverage);
+				writePackage(coverage, element);
+			}
+
+			public void visitEnd() throws IOException {
+				writeCounters(total, element);
+			}
+		};
+	}
+
 	private static void writePackage(final IPackageCoverage p,
 			final ReportElement parent) throws IOException {
 		final ReportElement element = parent.packageElement(p.getName());
@@ -16,6 +16,7 @@ package org.ijacoco.report.internal.xml;
 import java.io.IOException;
 
 import org.ijacoco.core.coverage.analysis.IBundleCoverage;
+import org.ijacoco.report.IReportBundleVisitor;
 import org.ijacoco.report.ISourceFileLocator;
 import org.ijacoco.report.internal.AbstractGroupVisitor;
 
@@ -52,6 +53,13 @@ public class XMLGroupVisitor extends AbstractGroupVisitor {
 		XMLCoverageWriter.writeBundle(bundle, child);
 	}
 
+	@Override
+	protected IReportBundleVisitor handleBundle(final String name,
+			final ISourceFileLocator locator) throws IOException {
+		final ReportElement child = element.group(name);
+		return XMLCoverageWriter.createBundleWriter(name, child);
+	}
+
 	@Override
 	protected AbstractGroupVisitor handleGroup(final String name)
 			throws IOException {
@@ -20,6 +20,7 @@ import java.util.List;
 import org.ijacoco.core.coverage.analysis.IBundleCoverage;
 import org.ijacoco.core.coverage.data.ExecutionData;
 import org.ijacoco.core.coverage.data.SessionInfo;
+import org.ijacoco.report.IReportBundleVisitor;
 import org.ijacoco.report.IReportGroupVisitor;
 import org.ijacoco.report.IReportVisitor;
 import org.ijacoco.report.ISourceFileLocator;
@@ -73,6 +74,12 @@ public class XMLFormatter {
 				XMLCoverageWriter.writeBundle(bundle, report);
 			}
 
+			public IReportBundleVisitor visitBundle(final String name,
+					final ISourceFileLocator locator) throws IOException {
+				createRootElement(name);
+				return XMLCoverageWriter.createBundleWriter(name, report);
+			}
+
 			public IReportGroupVisitor visitGroup(final String name)
 					throws IOException {
 				createRootElement(name);